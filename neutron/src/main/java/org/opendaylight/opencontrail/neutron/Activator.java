@@ -8,13 +8,31 @@
  */
 package org.opendaylight.opencontrail.neutron;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import net.juniper.contrail.api.ApiConnector;
 import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.ApiObjectBase;
+import net.juniper.contrail.api.types.VirtualMachineInterface;
+import net.juniper.contrail.api.types.VirtualNetwork;
 
 import org.apache.felix.dm.Component;
 import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkAware;
+import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkCRUD;
 import org.opendaylight.controller.networkconfig.neutron.INeutronPortAware;
+import org.opendaylight.controller.networkconfig.neutron.INeutronPortCRUD;
 import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetAware;
+import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker;
 import org.opendaylight.controller.sal.core.ComponentActivatorAbstractBase;
 import org.slf4j.Logger;
@@ -25,6 +43,73 @@ import org.slf4j.LoggerFactory;
  */
 public class Activator extends ComponentActivatorAbstractBase {
     static ApiConnector apiConnector = null;
+    static final OperationScheduler operationScheduler = new OperationScheduler(Long.getLong(
+            "opencontrail.scheduler.dependency.timeout", 30000L));
+    static final ContrailMetrics metrics = new ContrailMetrics();
+    static final FairScheduler fairScheduler = new FairScheduler(Integer.getInteger("opencontrail.scheduler.slots", 32),
+            Integer.getInteger("opencontrail.scheduler.background.slots", 8), FairScheduler.parseWeights(System
+                    .getProperty("opencontrail.scheduler.tenant.weights")), metrics);
+    static final AdaptiveConcurrencyLimiter readLimiter = newLimiter("contrail.read");
+    static final AdaptiveConcurrencyLimiter writeLimiter = newLimiter("contrail.write");
+    static final int readPoolSize = Integer.getInteger("opencontrail.pool.read.size", 4);
+    static final int writePoolSize = Integer.getInteger("opencontrail.pool.write.size", 4);
+    static final long readTimeout = Long.getLong("opencontrail.pool.read.timeout", 2000L);
+    static final long writeTimeout = Long.getLong("opencontrail.pool.write.timeout", 10000L);
+    static final int filterCapacity = Integer.getInteger("opencontrail.filter.capacity", 65536);
+    static List<ApiConnector> readConnectors;
+    static List<ApiConnector> writeConnectors;
+    static final boolean asyncEnabled = Boolean.getBoolean("opencontrail.async.enabled");
+    static final int asyncIoThreads = Integer.getInteger("opencontrail.async.iothreads", 2);
+    static final int asyncConnections = Integer.getInteger("opencontrail.async.connections", 64);
+    static final boolean gzipEnabled = Boolean.parseBoolean(System.getProperty("opencontrail.gzip.enabled", "true"));
+    static final boolean gzipRequests = Boolean.getBoolean("opencontrail.gzip.requests");
+    static final int gzipThreshold = Integer.getInteger("opencontrail.gzip.threshold", 1024);
+    static final boolean virtualThreadsEnabled = Boolean.getBoolean("opencontrail.threads.virtual");
+    static ContrailRestClient restClient;
+    static AsyncContrailConnector asyncConnector;
+    static ExecutorService callExecutor;
+    static final ContrailBackend backend = new ContrailBackend(null);
+    static final SubnetMetadataCache subnetCache = new SubnetMetadataCache();
+    static final InstanceIpIndex instanceIpIndex = new InstanceIpIndex();
+    static final int changeCapacity = Integer.getInteger("opencontrail.change.capacity", 65536);
+    static final ChangeDetector changeDetector = new ChangeDetector(changeCapacity, metrics);
+    // registered in every container, and repairing through the reconciler
+    static NetworkHandler networkHandler;
+    static SubnetHandler subnetHandler;
+    static PortHandler portHandler;
+    static final boolean reconcileEnabled = Boolean.parseBoolean(System.getProperty("opencontrail.reconcile.enabled",
+            "true"));
+    static final long reconcileInterval = Long.getLong("opencontrail.reconcile.interval", 60000L);
+    static final int reconcileRate = Integer.getInteger("opencontrail.reconcile.rate", 10);
+    static final long reconcileRevalidate = Long.getLong("opencontrail.reconcile.revalidate", 3600000L);
+    // VMIs unknown to Neutron may belong to other Contrail clients
+    static final boolean reconcileDeleteOrphans = Boolean.getBoolean("opencontrail.reconcile.orphans.delete");
+    static NeutronReconciler reconciler;
+    // the journal and the snapshot default to the data directory of karaf,
+    // and are off without one unless given a path
+    static final String dataDirectory = System.getProperty("karaf.data");
+    static final String journalDirectory = System.getProperty("opencontrail.journal.dir", dataPath("opencontrail-journal"));
+    static final boolean journalEnabled = journalDirectory != null
+            && Boolean.parseBoolean(System.getProperty("opencontrail.journal.enabled", "true"));
+    static final int journalSegmentSize = Integer.getInteger("opencontrail.journal.segment.size", 16 << 20);
+    static OperationJournal journal;
+    static final String snapshotFile = System.getProperty("opencontrail.snapshot.file",
+            dataPath("opencontrail-state.snapshot"));
+    static final boolean snapshotEnabled = snapshotFile != null
+            && Boolean.parseBoolean(System.getProperty("opencontrail.snapshot.enabled", "true"));
+    static final long snapshotInterval = Long.getLong("opencontrail.snapshot.interval", 300000L);
+    static final int snapshotValidateRate = Integer.getInteger("opencontrail.snapshot.validate.rate", 50);
+    static StateSnapshot snapshot;
+    // every cycle of the feed lists all the networks, VMIs and instance IPs
+    static final boolean feedEnabled = Boolean.parseBoolean(System.getProperty("opencontrail.feed.enabled", "false"));
+    static final long feedInterval = Long.getLong("opencontrail.feed.interval", 60000L);
+    static ContrailChangeFeed changeFeed;
+    static final boolean cacheEnabled = Boolean.parseBoolean(System.getProperty("opencontrail.cache.enabled", "true"));
+    static final long cacheHotSize = Long.getLong("opencontrail.cache.hot.size", 8L << 20);
+    static final int cacheOffHeapSize = Integer.getInteger("opencontrail.cache.offheap.size", 64 << 20);
+    // with the change feed, expiry only bounds what a missed change costs
+    static final long cacheTtl = Long.getLong("opencontrail.cache.ttl", feedEnabled ? 300000L : 10000L);
+    static ContrailObjectCache objectCache;
     static final Logger LOGGER = LoggerFactory.getLogger(Activator.class);
 
     /**
@@ -35,6 +120,81 @@ public class Activator extends ComponentActivatorAbstractBase {
     public void init() {
         LOGGER.info("opencontrail Plugin service Registered");
         apiConnector = getApiConnection();
+        writeConnectors = new ArrayList<ApiConnector>();
+        writeConnectors.add(apiConnector);
+        while (writeConnectors.size() < writePoolSize) {
+            writeConnectors.add(newApiConnection());
+        }
+        readConnectors = new ArrayList<ApiConnector>();
+        while (readConnectors.size() < readPoolSize) {
+            readConnectors.add(newApiConnection());
+        }
+        ContrailCompression compression = gzipEnabled ? new ContrailCompression(gzipRequests, gzipThreshold, metrics)
+                : null;
+        restClient = new ContrailRestClient(System.getProperty("opencontrail.apiserver.ipaddress"), Integer.parseInt(System
+                .getProperty("opencontrail.apiserver.port")), readPoolSize, (int) readTimeout, compression);
+        if (asyncEnabled) {
+            asyncConnector = new AsyncContrailConnector(System.getProperty("opencontrail.apiserver.ipaddress"),
+                    Integer.parseInt(System.getProperty("opencontrail.apiserver.port")), asyncIoThreads,
+                    asyncConnections, (int) writeTimeout, compression);
+        }
+        if (virtualThreadsEnabled && asyncConnector == null) {
+            callExecutor = VirtualThreads.newThreadPerTaskExecutor("opencontrail-call-");
+            if (callExecutor == null) {
+                LOGGER.warn("Virtual threads are not available on this JDK, Contrail calls block the caller..");
+            }
+        }
+        if (cacheEnabled) {
+            objectCache = new ContrailObjectCache(cacheHotSize, cacheOffHeapSize, cacheTtl, metrics);
+        }
+        if (journalDirectory == null || snapshotFile == null) {
+            LOGGER.info("No karaf.data directory, the journal and snapshot without a path of their own are off..");
+        }
+        if (journalEnabled) {
+            try {
+                journal = OperationJournal.open(new File(journalDirectory), journalSegmentSize, metrics);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to open the journal, Contrail writes are not recorded..", e);
+            }
+        }
+        ContrailClient client = newContrailClient();
+        boolean restored = false;
+        if (snapshotEnabled) {
+            snapshot = new StateSnapshot(new File(snapshotFile), backend, instanceIpIndex, metrics, filterCapacity,
+                    snapshotValidateRate);
+            try {
+                restored = snapshot.restore(client);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to restore the snapshot, the state is read from Contrail..", e);
+            }
+        }
+        // a restored client serves at once, its filters being seeded again in the background
+        backend.swap(restored ? client : seed(client));
+        if (snapshot != null) {
+            snapshot.start(snapshotInterval);
+        }
+        if (feedEnabled) {
+            changeFeed = new ContrailChangeFeed(backend, changeDetector, instanceIpIndex, metrics);
+            changeFeed.start(feedInterval);
+        }
+        if (journal != null && !journal.getRecovered().isEmpty()) {
+            int replayed = journal.replay(backend.get());
+            LOGGER.info(replayed + " of " + journal.getRecovered().size() + " incomplete Contrail writes replayed...");
+        }
+        networkHandler = new NetworkHandler(backend, changeDetector);
+        subnetHandler = new SubnetHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        portHandler = new PortHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        if (reconcileEnabled) {
+            // it reads Neutron through the CRUD services the port handler is given once registered
+            reconciler = new NeutronReconciler(backend, networkHandler, subnetHandler, portHandler, metrics,
+                    reconcileRate, reconcileRevalidate, reconcileDeleteOrphans);
+            reconciler.start(reconcileInterval);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(ContrailMetrics.OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.warn("Unable to register the plugin metrics..", e);
+        }
     }
 
     /**
@@ -44,11 +204,65 @@ public class Activator extends ComponentActivatorAbstractBase {
      * /opendaylight/src/main/resources/configuration/config.ini
      */
     public ApiConnector getApiConnection() {
+        apiConnector = newApiConnection();
+        return apiConnector;
+    }
+
+    private static ApiConnector newApiConnection() {
         String ipAddress = System.getProperty("opencontrail.apiserver.ipaddress");
         String port = System.getProperty("opencontrail.apiserver.port");
         int portNumber = Integer.parseInt(port);
-        apiConnector = ApiConnectorFactory.build(ipAddress, portNumber);
-        return apiConnector;
+        return ApiConnectorFactory.build(ipAddress, portNumber);
+    }
+
+    /**
+     * Function called to get the path of a file in the data directory of
+     * karaf, or null if there is none.
+     */
+    private static String dataPath(String name) {
+        return dataDirectory == null ? null : new File(dataDirectory, name).getPath();
+    }
+
+    private static AdaptiveConcurrencyLimiter newLimiter(String name) {
+        return new AdaptiveConcurrencyLimiter(name, Integer.getInteger("opencontrail.limiter.initial", 20),
+                Integer.getInteger("opencontrail.limiter.min", 4), Integer.getInteger("opencontrail.limiter.max", 200),
+                metrics);
+    }
+
+    /**
+     * Function called to build the Contrail client over the connectors,
+     * REST client, asynchronous connector, cache and call executor built at
+     * startup.
+     */
+    private static ContrailClient newContrailClient() {
+        return new ContrailClient(new ConnectorPool("contrail.read", readConnectors, readLimiter, readTimeout, metrics),
+                new ConnectorPool("contrail.write", writeConnectors, writeLimiter, writeTimeout, metrics), restClient,
+                asyncConnector, journal, objectCache, callExecutor, metrics);
+    }
+
+    /**
+     * Function called to seed the existence filters of a new Contrail client.
+     */
+    private static ContrailClient seed(ContrailClient client) {
+        for (Class<? extends ApiObjectBase> cls : Arrays.asList(VirtualNetwork.class, VirtualMachineInterface.class)) {
+            try {
+                client.seed(cls, filterCapacity);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to seed the existence filter of " + cls.getSimpleName() + "..", e);
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Function called to build a Contrail client over a single connector,
+     * which serves both reads and writes.
+     */
+    static ContrailClient newContrailClient(ApiConnector connector) {
+        List<ApiConnector> connectors = Collections.singletonList(connector);
+        return new ContrailClient(new ConnectorPool("contrail.read", connectors, readLimiter, readTimeout, metrics),
+                new ConnectorPool("contrail.write", connectors, writeLimiter, writeTimeout, metrics), null, null, null,
+                null, null, metrics);
     }
 
     /**
@@ -58,6 +272,50 @@ public class Activator extends ComponentActivatorAbstractBase {
      */
     @Override
     public void destroy() {
+        if (reconciler != null) {
+            reconciler.stop();
+            reconciler = null;
+        }
+        if (changeFeed != null) {
+            changeFeed.stop();
+        }
+        if (snapshot != null) {
+            snapshot.stop();
+            try {
+                snapshot.save();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to save the snapshot..", e);
+            }
+        }
+        if (restClient != null) {
+            try {
+                restClient.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close the Contrail REST client..", e);
+            }
+        }
+        if (asyncConnector != null) {
+            try {
+                asyncConnector.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close the asynchronous Contrail connector..", e);
+            }
+        }
+        if (callExecutor != null) {
+            callExecutor.shutdown();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close the journal..", e);
+            }
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(ContrailMetrics.OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.warn("Unable to unregister the plugin metrics..", e);
+        }
     }
 
     /**
@@ -91,14 +349,24 @@ public class Activator extends ComponentActivatorAbstractBase {
      */
     @Override
     public void configureInstance(Component c, Object imp, String containerName) {
+        // the handlers built by init, which the reconciler repairs through
         if (imp.equals(NetworkHandler.class)) {
+            c.setImplementation(networkHandler);
             c.setInterface(INeutronNetworkAware.class.getName(), null);
         }
         if (imp.equals(SubnetHandler.class)) {
+            c.setImplementation(subnetHandler);
             c.setInterface(INeutronSubnetAware.class.getName(), null);
         }
         if (imp.equals(PortHandler.class)) {
+            c.setImplementation(portHandler);
             c.setInterface(INeutronPortAware.class.getName(), null);
+            c.add(createServiceDependency().setService(INeutronSubnetCRUD.class)
+                    .setCallbacks("setSubnetCRUD", "unsetSubnetCRUD").setRequired(false));
+            c.add(createServiceDependency().setService(INeutronNetworkCRUD.class)
+                    .setCallbacks("setNetworkCRUD", "unsetNetworkCRUD").setRequired(false));
+            c.add(createServiceDependency().setService(INeutronPortCRUD.class)
+                    .setCallbacks("setPortCRUD", "unsetPortCRUD").setRequired(false));
         }
         // Create service dependencies.
         c.add(createServiceDependency().setService(BindingAwareBroker.class).setCallbacks("setBindingAwareBroker", "unsetBindingAwareBroker")
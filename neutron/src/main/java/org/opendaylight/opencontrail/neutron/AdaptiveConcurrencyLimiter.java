@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of in-flight Contrail calls, adapting the limit to the
+ * latency Contrail shows.
+ *
+ * The limiter keeps the lowest latency seen recently as the no-load latency.
+ * Like TCP Vegas it estimates how many calls are queued inside Contrail from
+ * the ratio between that and each measured latency: while the estimate stays
+ * small the limit grows by one, once it grows the limit shrinks by one, and a
+ * failed call or a latency above {@code tolerance} times the no-load latency
+ * cuts the limit multiplicatively. Calls over the limit are rejected at once
+ * with a {@link ContrailOverloadException}.
+ */
+public class AdaptiveConcurrencyLimiter {
+    static final int ALPHA = 3;
+    static final int BETA = 6;
+    static final double BACKOFF_RATIO = 0.9;
+    static final double TOLERANCE = 2.0;
+    static final int PROBE_INTERVAL = 1000;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ContrailMetrics metrics;
+    private double limit;
+    private int inFlight;
+    private long noLoadNanos = Long.MAX_VALUE;
+    private int samples;
+
+    /**
+     * @param name
+     *            Name under which the limiter reports its metrics.
+     * @param initialLimit
+     *            Limit used until latency samples are available.
+     * @param minLimit
+     *            Lowest limit the limiter backs off to.
+     * @param maxLimit
+     *            Highest limit the limiter grows to.
+     * @param metrics
+     *            Where the limit, rejections and call latencies are recorded.
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, ContrailMetrics metrics) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.metrics = metrics;
+        metrics.set(name + ".limit", (long) limit);
+    }
+
+    /**
+     * Takes a permit for one call.
+     *
+     * @return The permit, to be released once the call has completed.
+     * @throws ContrailOverloadException
+     *             If the limit of in-flight calls has been reached.
+     */
+    public Permit acquire() throws ContrailOverloadException {
+        if (!tryAcquire()) {
+            metrics.increment(name + ".rejected");
+            throw new ContrailOverloadException("Contrail " + name + " limit of " + getLimit() + " in-flight calls reached");
+        }
+        return new Permit(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Adjusts the limit to a completed call.
+     *
+     * @param rttNanos
+     *            Latency of the call.
+     * @param success
+     *            Whether the call completed without error.
+     */
+    synchronized void onSample(long rttNanos, boolean success) {
+        int used = inFlight;
+        inFlight = Math.max(0, inFlight - 1);
+        if (++samples % PROBE_INTERVAL == 0) {
+            // let the no-load latency follow Contrail when it gets faster or slower for good
+            noLoadNanos = Long.MAX_VALUE;
+        }
+        if (success) {
+            noLoadNanos = Math.min(noLoadNanos, Math.max(1, rttNanos));
+        }
+        double newLimit = limit;
+        if (!success || rttNanos > noLoadNanos * TOLERANCE) {
+            newLimit = limit * BACKOFF_RATIO;
+        } else {
+            double queued = limit * (1.0 - (double) noLoadNanos / Math.max(1, rttNanos));
+            if (queued > BETA) {
+                newLimit = limit - 1;
+            } else if (queued < ALPHA && used * 2 >= limit) {
+                newLimit = limit + 1;
+            }
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+        metrics.set(name + ".limit", (long) limit);
+    }
+
+    /**
+     * Permit for one in-flight call.
+     */
+    public final class Permit {
+        private final long startNanos;
+        private boolean released;
+
+        Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Releases the permit, reporting the outcome of the call.
+         *
+         * @param success
+         *            Whether the call completed without error.
+         */
+        public void release(boolean success) {
+            if (released) {
+                return;
+            }
+            released = true;
+            long rtt = System.nanoTime() - startNanos;
+            metrics.recordTime(name + ".call", TimeUnit.NANOSECONDS.toMicros(rtt));
+            if (!success) {
+                metrics.increment(name + ".errors");
+            }
+            onSample(rtt, success);
+        }
+    }
+}
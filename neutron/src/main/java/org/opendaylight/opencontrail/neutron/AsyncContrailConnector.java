@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import net.juniper.contrail.api.ApiObjectBase;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Non-blocking counterpart of {@link net.juniper.contrail.api.ApiConnector}.
+ *
+ * Requests are sent over an NIO reactor with a handful of I/O threads and
+ * return at once with a future, so thousands of calls can be outstanding
+ * without a thread waiting for each of them. Futures complete on an I/O
+ * thread; callbacks attached to them must not block.
+ */
+public class AsyncContrailConnector {
+    // objects created without a parent go where the Contrail connector would put them
+    private static final List<String> DEFAULT_PROJECT = Arrays.asList("default-domain", "default-project");
+
+    private final String baseUrl;
+    private final CloseableHttpAsyncClient httpClient;
+    private final Gson gson = new Gson();
+    private final ContrailJsonCodec codec = new ContrailJsonCodec();
+    private final ContrailCompression compression;
+
+    public AsyncContrailConnector(String host, int port, int ioThreads, int connections, int timeoutMillis) {
+        this(host, port, ioThreads, connections, timeoutMillis, null);
+    }
+
+    /**
+     * @param host
+     *            Address of the Contrail API server.
+     * @param port
+     *            Port of the Contrail API server.
+     * @param ioThreads
+     *            Number of I/O threads of the reactor.
+     * @param connections
+     *            Number of connections kept to the API server.
+     * @param timeoutMillis
+     *            Connect and read timeout of a request.
+     * @param compression
+     *            Gzip compression of the requests and responses, or null for
+     *            none.
+     */
+    public AsyncContrailConnector(String host, int port, int ioThreads, int connections, int timeoutMillis,
+            ContrailCompression compression) {
+        this.baseUrl = "http://" + host + ":" + port;
+        this.compression = compression;
+        IOReactorConfig reactorConfig = IOReactorConfig.custom().setIoThreadCount(ioThreads)
+                .setConnectTimeout(timeoutMillis).setSoTimeout(timeoutMillis).build();
+        RequestConfig config = RequestConfig.custom().setConnectTimeout(timeoutMillis).setSocketTimeout(timeoutMillis)
+                .build();
+        this.httpClient = HttpAsyncClients.custom().setDefaultIOReactorConfig(reactorConfig)
+                .setMaxConnTotal(connections).setMaxConnPerRoute(connections).setDefaultRequestConfig(config).build();
+        this.httpClient.start();
+    }
+
+    /**
+     * Reads an object, or only the given fields of it if any are named.
+     *
+     * @return Future of the object, or of null if it does not exist.
+     */
+    public <T extends ApiObjectBase> ListenableFuture<T> findById(final Class<T> cls, String uuid, String... fields) {
+        String type = ContrailRestClient.typeName(cls);
+        String query = fields.length == 0 ? "" : "?" + ContrailRestClient.projection(fields);
+        final Set<String> backRefs = fields.length == 0 ? null : ContrailJsonCodec.backRefs(fields);
+        final SettableFuture<T> result = SettableFuture.create();
+        execute(new HttpGet(baseUrl + "/" + type + "/" + uuid + query), result, new Reply() {
+            @Override
+            public void completed(InputStream response) throws IOException {
+                result.set(response == null ? null : codec.read(response, cls, backRefs));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Creates an object. The UUID assigned by Contrail is set on the object
+     * if it had none.
+     *
+     * @return Future of false if Contrail refused the object.
+     */
+    public ListenableFuture<Boolean> create(final ApiObjectBase obj) {
+        final String type = ContrailRestClient.typeName(obj.getClass());
+        JsonObject content = gson.toJsonTree(obj).getAsJsonObject();
+        if (!content.has("fq_name")) {
+            List<String> fqName;
+            if ("virtual-network".equals(type) || "network-ipam".equals(type)) {
+                content.addProperty("parent_type", "project");
+                fqName = new ArrayList<String>(DEFAULT_PROJECT);
+                fqName.add(obj.getName());
+            } else {
+                fqName = Arrays.asList(obj.getName());
+            }
+            content.add("fq_name", gson.toJsonTree(fqName));
+        }
+        JsonObject body = new JsonObject();
+        body.add(type, content);
+        HttpPost request = new HttpPost(baseUrl + "/" + type + "s");
+        final SettableFuture<Boolean> result = SettableFuture.create();
+        try {
+            request.setEntity(entity(body.toString().getBytes(ContrailJsonCodec.UTF8)));
+        } catch (IOException e) {
+            result.setException(e);
+            return result;
+        }
+        execute(request, result, new Reply() {
+            @Override
+            public void completed(InputStream response) throws IOException {
+                JsonElement created = null;
+                if (response != null) {
+                    Reader content = new InputStreamReader(response, ContrailJsonCodec.UTF8);
+                    try {
+                        created = new JsonParser().parse(content).getAsJsonObject().get(type);
+                    } finally {
+                        content.close();
+                    }
+                }
+                if (created != null && obj.getUuid() == null && created.getAsJsonObject().has("uuid")) {
+                    obj.setUuid(created.getAsJsonObject().get("uuid").getAsString());
+                }
+                result.set(created != null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes an object back to Contrail.
+     *
+     * @return Future of false if the object does not exist.
+     */
+    public ListenableFuture<Boolean> update(ApiObjectBase obj) {
+        String type = ContrailRestClient.typeName(obj.getClass());
+        HttpPut request = new HttpPut(baseUrl + "/" + type + "/" + obj.getUuid());
+        final SettableFuture<Boolean> result = SettableFuture.create();
+        try {
+            // the reactor sends the body from memory, so encode it once up front
+            request.setEntity(entity(codec.encode(obj)));
+        } catch (IOException e) {
+            result.setException(e);
+            return result;
+        }
+        execute(request, result, new Reply() {
+            @Override
+            public void completed(InputStream response) {
+                result.set(response != null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Deletes an object. Deleting an object that does not exist succeeds.
+     */
+    public ListenableFuture<Void> delete(ApiObjectBase obj) {
+        String type = ContrailRestClient.typeName(obj.getClass());
+        final SettableFuture<Void> result = SettableFuture.create();
+        execute(new HttpDelete(baseUrl + "/" + type + "/" + obj.getUuid()), result, new Reply() {
+            @Override
+            public void completed(InputStream response) {
+                result.set(null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Handles a reply of the API server; null stands for 404.
+     */
+    private interface Reply {
+        void completed(InputStream response) throws IOException;
+    }
+
+    private HttpEntity entity(byte[] json) throws IOException {
+        return compression == null ? new ByteArrayEntity(json, ContentType.APPLICATION_JSON) : compression
+                .entity(json);
+    }
+
+    private void execute(final HttpUriRequest request, final SettableFuture<?> result, final Reply reply) {
+        request.setHeader("Accept", "application/json");
+        if (compression != null) {
+            compression.acceptGzip(request);
+        }
+        httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    int status = response.getStatusLine().getStatusCode();
+                    if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                        reply.completed(null);
+                    } else if (status != HttpURLConnection.HTTP_OK) {
+                        result.setException(new IOException("Contrail answered " + response.getStatusLine() + " to "
+                                + request.getMethod() + " " + request.getURI()));
+                    } else {
+                        reply.completed(compression == null ? response.getEntity().getContent() : compression
+                                .content(response));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    result.setException(e);
+                } finally {
+                    try {
+                        EntityUtils.consume(response.getEntity());
+                    } catch (IOException e) {
+                        result.setException(e);
+                    }
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.setException(e instanceof IOException ? e : new IOException(e));
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+    }
+
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
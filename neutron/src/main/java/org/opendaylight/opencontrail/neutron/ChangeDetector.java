@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fingerprints of the state last written to each Contrail object.
+ *
+ * The handlers fingerprint the Contrail state an update maps to and skip the
+ * update when it is the state they last wrote, as orchestrators resend the
+ * same update over and over. The fingerprints of the least recently written
+ * objects are dropped beyond the capacity, which only costs a redundant
+ * write.
+ *
+ * Updates checked and skipped are counted as {@code contrail.update.checked}
+ * and {@code contrail.update.skipped}, and per object type, e.g.
+ * {@code contrail.update.skipped.network}; the skip rate in thousandths is
+ * {@code contrail.update.skipRatePermille}.
+ */
+public class ChangeDetector {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ContrailMetrics metrics;
+    private final Map<String, Written> fingerprints;
+
+    /**
+     * The fingerprint of the state last written to an object, and when.
+     */
+    private static class Written {
+        final long fingerprint;
+        final long atNanos;
+
+        Written(long fingerprint, long atNanos) {
+            this.fingerprint = fingerprint;
+            this.atNanos = atNanos;
+        }
+    }
+
+    /**
+     * @param capacity
+     *            Number of objects whose fingerprint is kept.
+     * @param metrics
+     *            Where the updates checked and skipped are counted.
+     */
+    public ChangeDetector(final int capacity, ContrailMetrics metrics) {
+        this.metrics = metrics;
+        this.fingerprints = new LinkedHashMap<String, Written>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Written> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the fingerprint of the fields an object is mapped to. Null
+     * fields are told apart from empty ones.
+     */
+    public static long fingerprint(Object... fields) {
+        long hash = FNV_OFFSET;
+        for (Object field : fields) {
+            if (field == null) {
+                hash = (hash ^ 0x1) * FNV_PRIME;
+            } else {
+                String value = field.toString();
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                    hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+                }
+            }
+            // separate the fields, so that ("ab", "c") differs from ("a", "bc")
+            hash = (hash ^ 0x1f) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Checks whether an update maps to the state last written to the object.
+     *
+     * @param key
+     *            Key of the object, as of {@link OperationScheduler}.
+     * @return true if the update can be skipped.
+     */
+    public boolean isUnchanged(String key, long fingerprint) {
+        Written written;
+        synchronized (fingerprints) {
+            written = fingerprints.get(key);
+        }
+        boolean unchanged = written != null && written.fingerprint == fingerprint;
+        metrics.increment("contrail.update.checked");
+        if (unchanged) {
+            int colon = key.indexOf(':');
+            metrics.increment("contrail.update.skipped");
+            metrics.increment("contrail.update.skipped." + (colon < 0 ? key : key.substring(0, colon)));
+        }
+        long checked = metrics.get("contrail.update.checked");
+        // the metrics may have been reset over JMX since the increment
+        if (checked > 0) {
+            metrics.set("contrail.update.skipRatePermille", metrics.get("contrail.update.skipped") * 1000 / checked);
+        }
+        return unchanged;
+    }
+
+    /**
+     * Records the state written to an object.
+     */
+    public void written(String key, long fingerprint) {
+        synchronized (fingerprints) {
+            fingerprints.put(key, new Written(fingerprint, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Forgets an object, whose next update is then always written.
+     */
+    public void forget(String key) {
+        synchronized (fingerprints) {
+            fingerprints.remove(key);
+        }
+    }
+
+    /**
+     * Forgets an object changed in Contrail, unless the plugin wrote it since
+     * the given time: the change is then taken for that write.
+     *
+     * @param sinceNanos
+     *            A time as of {@link System#nanoTime}.
+     * @return true if the object was forgotten.
+     */
+    public boolean forgetUnlessWrittenSince(String key, long sinceNanos) {
+        synchronized (fingerprints) {
+            Written written = fingerprints.get(key);
+            if (written == null || written.atNanos - sinceNanos >= 0) {
+                return false;
+            }
+            fingerprints.remove(key);
+            return true;
+        }
+    }
+
+    int size() {
+        synchronized (fingerprints) {
+            return fingerprints.size();
+        }
+    }
+}
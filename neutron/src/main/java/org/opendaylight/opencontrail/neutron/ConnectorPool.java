@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiConnector;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Bulkhead of {@link ApiConnector} instances for one kind of Contrail call.
+ *
+ * Each connector holds its own connection to the Contrail API server and is
+ * used by one call at a time. A call first waits up to the pool's timeout for
+ * a free connector and then takes a permit from the pool's own
+ * {@link AdaptiveConcurrencyLimiter}, so calls in one pool never queue behind
+ * the calls of another pool, and the wait for a connector is not counted in
+ * the round trips the limiter adapts to.
+ *
+ * Calls made through an {@link AsyncContrailConnector} instead take only the
+ * permit, which is held until their future completes.
+ */
+public class ConnectorPool {
+    // permits are released on the I/O thread that completes the future
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final String name;
+    private final BlockingQueue<ApiConnector> idle;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final long timeoutMillis;
+    private final ContrailMetrics metrics;
+
+    /**
+     * Call made with a connector borrowed from the pool.
+     */
+    public interface Call<T> {
+        T call(ApiConnector connector) throws IOException;
+    }
+
+    /**
+     * Call that starts a request without waiting for it.
+     */
+    public interface AsyncCall<T> {
+        ListenableFuture<T> call() throws IOException;
+    }
+
+    /**
+     * @param name
+     *            Name under which the pool reports its metrics.
+     * @param connectors
+     *            Connectors of the pool; a connector may be listed more than
+     *            once if it can serve concurrent calls.
+     * @param limiter
+     *            Limiter of the calls in flight through the pool.
+     * @param timeoutMillis
+     *            How long a call waits for a free connector.
+     * @param metrics
+     *            Where connector wait times and timeouts are recorded.
+     */
+    public ConnectorPool(String name, Collection<ApiConnector> connectors, AdaptiveConcurrencyLimiter limiter,
+            long timeoutMillis, ContrailMetrics metrics) {
+        if (connectors.isEmpty()) {
+            throw new IllegalArgumentException("Connector pool " + name + " needs at least one connector..");
+        }
+        this.name = name;
+        this.idle = new ArrayBlockingQueue<ApiConnector>(connectors.size(), false, connectors);
+        this.limiter = limiter;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics;
+    }
+
+    AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Runs a call with a connector of the pool.
+     *
+     * @throws ContrailOverloadException
+     *             If the limiter rejects the call or no connector frees up in
+     *             time.
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        ApiConnector connector = borrow();
+        try {
+            // taken once the connector is borrowed, so that the round trip
+            // the limiter measures is the one of Contrail alone
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+            boolean success = false;
+            try {
+                T result = call.call(connector);
+                success = true;
+                return result;
+            } finally {
+                permit.release(success);
+            }
+        } finally {
+            idle.add(connector);
+        }
+    }
+
+    /**
+     * Starts a call under a permit of the pool's limiter, without borrowing a
+     * connector. The permit is released when the returned future completes.
+     *
+     * @return Future of the call, failed with a
+     *         {@link ContrailOverloadException} if the limiter rejects it.
+     */
+    public <T> ListenableFuture<T> executeAsync(AsyncCall<T> call) {
+        final AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire();
+        } catch (ContrailOverloadException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        ListenableFuture<T> future;
+        try {
+            future = call.call();
+        } catch (IOException | RuntimeException e) {
+            permit.release(false);
+            return Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                permit.release(true);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                permit.release(false);
+            }
+        }, SAME_THREAD);
+        return future;
+    }
+
+    private ApiConnector borrow() throws ContrailOverloadException {
+        long start = System.nanoTime();
+        ApiConnector connector;
+        try {
+            connector = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContrailOverloadException("Interrupted waiting for a Contrail " + name + " connection");
+        }
+        if (connector == null) {
+            metrics.increment(name + ".pool.timeouts");
+            throw new ContrailOverloadException("No Contrail " + name + " connection free within " + timeoutMillis + " ms");
+        }
+        metrics.recordTime(name + ".pool.wait", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return connector;
+    }
+}
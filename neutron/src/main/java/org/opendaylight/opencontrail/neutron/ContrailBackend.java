@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+/**
+ * The {@link ContrailClient} the handlers talk to Contrail through.
+ *
+ * Each handler is given the backend when it is built and keeps it in a final
+ * field. The client built at startup is swapped in here: calls that have
+ * fetched a client before a swap finish on it, and every call starting
+ * afterwards sees the new one.
+ */
+public class ContrailBackend {
+    private volatile ContrailClient client;
+
+    /**
+     * @param client
+     *            Client to start with; may be null until the connectors are
+     *            built.
+     */
+    public ContrailBackend(ContrailClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the current client.
+     *
+     * @throws IllegalStateException
+     *             If no client has been set yet.
+     */
+    public ContrailClient get() {
+        ContrailClient current = client;
+        if (current == null) {
+            throw new IllegalStateException("The connection to Contrail has not been set up..");
+        }
+        return current;
+    }
+
+    /**
+     * Replaces the client for the calls starting from now on.
+     *
+     * @return The client replaced, or null.
+     */
+    public synchronized ContrailClient swap(ContrailClient newClient) {
+        ContrailClient previous = client;
+        client = newClient;
+        return previous;
+    }
+}
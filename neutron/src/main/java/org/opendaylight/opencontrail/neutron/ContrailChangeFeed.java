@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiObjectBase;
+import net.juniper.contrail.api.types.InstanceIp;
+import net.juniper.contrail.api.types.VirtualMachineInterface;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Keeps the caches of the plugin coherent with the changes other clients
+ * make to Contrail.
+ *
+ * Contrail announces its config changes on its message bus only, which this
+ * bundle has no client for, so the feed polls instead: every cycle it lists
+ * all the networks, VMIs and instance IPs of Contrail with their
+ * {@code id_perms} only, and
+ * compares the {@code last_modified} time of each with the one of the cycle
+ * before. The first cycle only records them. For every object created,
+ * modified or deleted since:
+ * <ul>
+ * <li>its reads are dropped from the {@link ContrailClient} and its cache, and
+ * a new object is added to the existence filter of its type;</li>
+ * <li>the fingerprint of its last write is dropped from the
+ * {@link ChangeDetector}, so that the next Neutron update is written even if
+ * it matches what the plugin wrote before, unless the plugin wrote the
+ * object since the cycle before;</li>
+ * <li>an instance IP is added to or removed from the {@link InstanceIpIndex}
+ * of its network.</li>
+ * </ul>
+ * The writes of the plugin itself come back as changes too, which costs one
+ * more read of the objects written. They keep their fingerprint, so a change
+ * another client makes in the same interval as a write of the plugin is
+ * taken for the plugin's own until the next one.
+ *
+ * Every cycle is a full scan however little changed: three listings whose
+ * responses grow with the whole of Contrail, and one entry held per object.
+ * This is why the feed is off by default, and polls every minute when on.
+ *
+ * The lists are read in the background lane of the fair scheduler. The
+ * state of the feed is confined to its thread.
+ */
+public class ContrailChangeFeed {
+    static final Logger LOGGER = LoggerFactory.getLogger(ContrailChangeFeed.class);
+    private final ContrailBackend backend;
+    private final ChangeDetector changeDetector;
+    private final InstanceIpIndex instanceIpIndex;
+    private final ContrailMetrics metrics;
+    // the objects of each type as of the last cycle, by UUID
+    private final Map<Class<?>, UuidMap<Seen>> seen = new HashMap<Class<?>, UuidMap<Seen>>();
+    // start of the last cycle, and of the one before, as of System.nanoTime
+    private long lastStart;
+    private long previousStart;
+    private ScheduledExecutorService executor;
+
+    /**
+     * An object as of the last cycle.
+     */
+    private static class Seen {
+        final String lastModified;
+        // instance IPs only
+        final String networkUuid;
+        final String address;
+
+        Seen(String lastModified, String networkUuid, String address) {
+            this.lastModified = lastModified;
+            this.networkUuid = networkUuid;
+            this.address = address;
+        }
+
+        boolean isModified(Seen previous) {
+            return lastModified == null ? previous.lastModified != null : !lastModified
+                    .equals(previous.lastModified);
+        }
+    }
+
+    /**
+     * @param backend
+     *            Contrail backend the objects are listed from, whose client
+     *            drops the changed objects.
+     * @param changeDetector
+     *            Detector of the unchanged writes of the handlers.
+     * @param instanceIpIndex
+     *            Index of the instance IPs of each network.
+     */
+    public ContrailChangeFeed(ContrailBackend backend, ChangeDetector changeDetector, InstanceIpIndex instanceIpIndex,
+            ContrailMetrics metrics) {
+        this.backend = backend;
+        this.changeDetector = changeDetector;
+        this.instanceIpIndex = instanceIpIndex;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts polling every given interval, on a low priority thread.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("opencontrail-change-feed").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOGGER.warn("Polling of the Contrail changes failed..", e);
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs one polling cycle.
+     */
+    void poll() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        // the changes of this cycle were made since the start of the last one
+        previousStart = seen.isEmpty() ? start : lastStart;
+        lastStart = start;
+        poll(VirtualNetwork.class, "id_perms");
+        poll(VirtualMachineInterface.class, "id_perms");
+        poll(InstanceIp.class, "id_perms", "instance_ip_address", "virtual_network_refs");
+        metrics.recordTime("feed.poll", (System.nanoTime() - start) / 1000);
+    }
+
+    private void poll(final Class<? extends ApiObjectBase> cls, String... fields) throws IOException,
+            InterruptedException {
+        final UuidMap<Seen> previous = seen.get(cls);
+        final UuidMap<Seen> current = new UuidMap<Seen>();
+        FairScheduler.Ticket ticket = Activator.fairScheduler.acquire(null, FairScheduler.Lane.BACKGROUND);
+        try {
+            boolean listed = backend.get().list(cls, new ContrailRestClient.ListVisitor() {
+                @Override
+                public void visit(JsonObject obj) {
+                    String uuid = obj.get("uuid").getAsString();
+                    Seen now = seen(obj);
+                    current.put(uuid, now);
+                    if (previous != null) {
+                        Seen before = previous.get(uuid);
+                        if (before == null || now.isModified(before)) {
+                            changed(cls, uuid, before, now);
+                        }
+                    }
+                }
+            }, fields);
+            if (!listed) {
+                return;
+            }
+        } finally {
+            ticket.release();
+        }
+        if (previous != null) {
+            for (String uuid : previous.keys()) {
+                if (!current.containsKey(uuid)) {
+                    changed(cls, uuid, previous.get(uuid), null);
+                }
+            }
+        }
+        seen.put(cls, current);
+    }
+
+    private static Seen seen(JsonObject obj) {
+        JsonObject idPerms = obj.has("id_perms") && obj.get("id_perms").isJsonObject() ? obj
+                .getAsJsonObject("id_perms") : null;
+        String lastModified = idPerms != null && idPerms.has("last_modified") ? idPerms.get("last_modified")
+                .getAsString() : null;
+        String networkUuid = null;
+        JsonArray refs = obj.has("virtual_network_refs") && obj.get("virtual_network_refs").isJsonArray() ? obj
+                .getAsJsonArray("virtual_network_refs") : null;
+        if (refs != null && refs.size() > 0) {
+            JsonElement uuid = refs.get(0).getAsJsonObject().get("uuid");
+            networkUuid = uuid == null ? null : uuid.getAsString();
+        }
+        String address = obj.has("instance_ip_address") ? obj.get("instance_ip_address").getAsString() : null;
+        return new Seen(lastModified, networkUuid, address);
+    }
+
+    /**
+     * Drops or updates what the plugin holds of a changed object.
+     *
+     * @param before
+     *            The object as of the last cycle, or null if it is new.
+     * @param now
+     *            The object as of this cycle, or null if it has been deleted.
+     */
+    private void changed(Class<? extends ApiObjectBase> cls, String uuid, Seen before, Seen now) {
+        metrics.increment(before == null ? "feed.created" : now == null ? "feed.deleted" : "feed.modified");
+        backend.get().changed(cls, uuid, now != null);
+        if (cls == VirtualNetwork.class) {
+            forget(OperationScheduler.networkKey(uuid), now != null);
+            if (now == null) {
+                instanceIpIndex.forget(uuid);
+            }
+        } else if (cls == VirtualMachineInterface.class) {
+            forget(OperationScheduler.portKey(uuid), now != null);
+        } else if (cls == InstanceIp.class) {
+            if (before != null && before.networkUuid != null) {
+                instanceIpIndex.remove(before.networkUuid, uuid, before.address);
+            }
+            if (now != null && now.networkUuid != null) {
+                instanceIpIndex.add(now.networkUuid, uuid, now.address);
+            }
+        }
+    }
+
+    /**
+     * Forgets the last write of a changed object, unless the change is likely
+     * that write coming back.
+     */
+    private void forget(String key, boolean exists) {
+        if (!exists) {
+            changeDetector.forget(key);
+        } else if (!changeDetector.forgetUnlessWrittenSince(key, previousStart)) {
+            metrics.increment("feed.own");
+        }
+    }
+}
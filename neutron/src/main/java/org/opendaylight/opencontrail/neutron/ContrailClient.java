@@ -0,0 +1,690 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiObjectBase;
+import net.juniper.contrail.api.ApiPropertyBase;
+import net.juniper.contrail.api.ObjectReference;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Gateway through which the handlers talk to Contrail.
+ *
+ * Reads and writes go through separate {@link ConnectorPool}s, each with its
+ * own connections, {@link AdaptiveConcurrencyLimiter} and timeout, so a flood
+ * of lookups cannot delay the writes that complete a VM boot.
+ *
+ * Concurrent {@link #findById} calls for the same object share one request
+ * and its result, so callers must not modify the returned object; callers
+ * that read an object to modify and write it back use
+ * {@link #findByIdForUpdate}.
+ *
+ * For the object types that have been seeded with {@link #seed}, an
+ * {@link ExistenceFilter} of the known UUIDs lets {@link #findDuplicate} skip
+ * the read when the UUID of an object about to be created is definitely not
+ * in Contrail.
+ *
+ * With a {@link ContrailObjectCache}, the projections read with
+ * {@link #findFields} that leave out back-references are served from it,
+ * and every object written is invalidated in it, as is every object a
+ * {@link ContrailChangeFeed} finds written by another client.
+ *
+ * The {@code *Async} calls return futures that callers can compose, e.g. to
+ * issue independent lookups at once. With an {@link AsyncContrailConnector}
+ * they run on its I/O threads, under the permits of the same pools; without
+ * one they block a thread of the executor given, if any, or else run on the
+ * caller's thread and return completed futures.
+ *
+ * With an {@link OperationJournal}, every write is recorded in it before it
+ * is sent and marked complete once its outcome is known.
+ */
+public class ContrailClient {
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ConnectorPool reads;
+    private final ConnectorPool writes;
+    private final ContrailMetrics metrics;
+    private final SingleFlight<ApiObjectBase> lookups;
+    private final ConcurrentMap<Class<?>, ExistenceFilter> filters = new ConcurrentHashMap<Class<?>, ExistenceFilter>();
+    private final ConcurrentMap<Class<?>, ExistenceFilter> seeding = new ConcurrentHashMap<Class<?>, ExistenceFilter>();
+    private final ContrailRestClient restClient;
+    private final AsyncContrailConnector asyncConnector;
+    private final OperationJournal journal;
+    private final ContrailObjectCache cache;
+    private final ListeningExecutorService executor;
+
+    /**
+     * @param reads
+     *            Connectors of the reads.
+     * @param writes
+     *            Connectors of the writes, which can be the same as the reads.
+     * @param restClient
+     *            Client for the reads the connectors cannot express; without
+     *            one, projected reads fetch whole objects.
+     * @param asyncConnector
+     *            Connector of the {@code *Async} calls; without one they
+     *            block a thread of the executor, if any.
+     * @param journal
+     *            Journal the writes are recorded in; without one they are not
+     *            recorded.
+     * @param cache
+     *            Cache of the projected reads; without one every read goes to
+     *            Contrail.
+     * @param executor
+     *            Executor the {@code *Async} calls block on when there is no
+     *            asynchronous connector, e.g. one starting a virtual thread
+     *            per call; without one they block the caller.
+     */
+    public ContrailClient(ConnectorPool reads, ConnectorPool writes, ContrailRestClient restClient,
+            AsyncContrailConnector asyncConnector, OperationJournal journal, ContrailObjectCache cache,
+            ExecutorService executor, ContrailMetrics metrics) {
+        this.reads = reads;
+        this.writes = writes;
+        this.restClient = restClient;
+        this.asyncConnector = asyncConnector;
+        this.journal = journal;
+        this.cache = cache;
+        this.executor = executor == null ? null : MoreExecutors.listeningDecorator(executor);
+        this.metrics = metrics;
+        this.lookups = new SingleFlight<ApiObjectBase>("contrail.read", metrics);
+    }
+
+    /**
+     * Builds the existence filter of an object type from the objects of that
+     * type in Contrail. Objects created or deleted meanwhile are tracked too.
+     * A filter already in place, e.g. one restored from a snapshot, keeps
+     * serving until the new one is seeded.
+     *
+     * @param capacity
+     *            Number of objects the filter is sized for at first.
+     */
+    public void seed(final Class<? extends ApiObjectBase> cls, int capacity) throws IOException {
+        ExistenceFilter filter = new ExistenceFilter(capacity);
+        boolean replacing = filters.putIfAbsent(cls, filter) != null;
+        if (replacing) {
+            seeding.put(cls, filter);
+        }
+        List<? extends ApiObjectBase> existing = reads.execute(new ConnectorPool.Call<List<? extends ApiObjectBase>>() {
+            @Override
+            public List<? extends ApiObjectBase> call(ApiConnector connector) throws IOException {
+                return connector.list(cls, null);
+            }
+        });
+        if (existing == null) {
+            seeding.remove(cls, filter);
+            filters.remove(cls, filter);
+            throw new IOException("Unable to list the " + cls.getSimpleName() + " objects in Contrail");
+        }
+        for (ApiObjectBase obj : existing) {
+            filter.add(obj.getUuid());
+        }
+        filter.seeded();
+        if (replacing) {
+            filters.put(cls, filter);
+            seeding.remove(cls, filter);
+        }
+    }
+
+    /**
+     * Puts in place the existence filter of an object type restored from a
+     * snapshot.
+     */
+    void restore(Class<? extends ApiObjectBase> cls, ExistenceFilter filter) {
+        filters.put(cls, filter);
+    }
+
+    /**
+     * Returns the seeded existence filters by object type.
+     */
+    Map<Class<?>, ExistenceFilter> seededFilters() {
+        Map<Class<?>, ExistenceFilter> seeded = new HashMap<Class<?>, ExistenceFilter>();
+        for (Map.Entry<Class<?>, ExistenceFilter> entry : filters.entrySet()) {
+            if (entry.getValue().isSeeded()) {
+                seeded.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return seeded;
+    }
+
+    /**
+     * Adds an object to the existence filters of its type.
+     */
+    private void track(ApiObjectBase obj) {
+        ExistenceFilter filter = filters.get(obj.getClass());
+        if (filter != null) {
+            filter.add(obj.getUuid());
+        }
+        ExistenceFilter next = seeding.get(obj.getClass());
+        if (next != null && next != filter) {
+            next.add(obj.getUuid());
+        }
+    }
+
+    /**
+     * Removes an object from the existence filters of its type.
+     */
+    private void untrack(ApiObjectBase obj) {
+        ExistenceFilter filter = filters.get(obj.getClass());
+        if (filter != null) {
+            filter.remove(obj.getUuid());
+        }
+        ExistenceFilter next = seeding.get(obj.getClass());
+        if (next != null && next != filter) {
+            next.remove(obj.getUuid());
+        }
+    }
+
+    /**
+     * Reads an object to check that the UUID of an object about to be created
+     * is not taken, skipping the read when the existence filter of its type
+     * knows the UUID is absent.
+     */
+    public <T extends ApiObjectBase> T findDuplicate(Class<T> cls, String uuid) throws IOException {
+        ExistenceFilter filter = filters.get(cls);
+        if (filter != null && !filter.mightContain(uuid)) {
+            metrics.increment("contrail.filter.skipped");
+            return null;
+        }
+        metrics.increment("contrail.filter.checked");
+        return findById(cls, uuid);
+    }
+
+    private static String key(Class<? extends ApiObjectBase> cls, String uuid) {
+        return cls.getName() + ":" + uuid;
+    }
+
+    /**
+     * Reads an object, sharing the request with concurrent reads of the same
+     * object. The returned object must not be modified.
+     */
+    public <T extends ApiObjectBase> T findById(final Class<T> cls, final String uuid) throws IOException {
+        return cls.cast(lookups.execute(key(cls, uuid), new SingleFlight.Call<ApiObjectBase>() {
+            @Override
+            public ApiObjectBase call() throws IOException {
+                return findByIdForUpdate(cls, uuid);
+            }
+        }));
+    }
+
+    /**
+     * Reads only the given fields of an object, plus its identity (UUID, name,
+     * parent). Children and back-references that are not asked for are left
+     * out, so use this wherever only existence, a reference or one property
+     * is needed. Like {@link #findById} the request may be shared and the
+     * returned object must not be modified.
+     *
+     * @param fields
+     *            Contrail field names, e.g. {@code display_name} or
+     *            {@code virtual_machine_interface_back_refs}.
+     */
+    public <T extends ApiObjectBase> T findFields(final Class<T> cls, final String uuid, final String... fields)
+            throws IOException {
+        if (restClient == null) {
+            return findById(cls, uuid);
+        }
+        final String objectKey = key(cls, uuid);
+        final String projection = ContrailRestClient.projection(fields);
+        final boolean cacheable = cache != null && ContrailObjectCache.isCacheable(fields);
+        if (cacheable) {
+            T cached = cache.get(cls, objectKey, projection);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return cls.cast(lookups.execute(objectKey + "?" + projection, new SingleFlight.Call<ApiObjectBase>() {
+            @Override
+            public ApiObjectBase call() throws IOException {
+                long stamp = cacheable ? cache.stamp() : 0;
+                T obj = reads.execute(new ConnectorPool.Call<T>() {
+                    @Override
+                    public T call(ApiConnector connector) throws IOException {
+                        return restClient.findFields(cls, uuid, fields);
+                    }
+                });
+                if (cacheable && obj != null) {
+                    cache.put(objectKey, projection, obj, stamp);
+                }
+                return obj;
+            }
+        }));
+    }
+
+    /**
+     * Lists the given fields of every object of a type, one object at a time.
+     * The list is read in a request of its own, which is not cached.
+     *
+     * @return False without a REST client, as the connectors cannot list
+     *         selected fields.
+     */
+    public boolean list(final Class<? extends ApiObjectBase> cls, final ContrailRestClient.ListVisitor visitor,
+            final String... fields) throws IOException {
+        if (restClient == null) {
+            return false;
+        }
+        return reads.execute(new ConnectorPool.Call<Boolean>() {
+            @Override
+            public Boolean call(ApiConnector connector) throws IOException {
+                restClient.list(cls, visitor, fields);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Like {@link #list}, but lists only the objects of a type holding a
+     * reference to the given object.
+     *
+     * @return False without a REST client.
+     */
+    public boolean listReferring(final Class<? extends ApiObjectBase> cls, final String refUuid,
+            final ContrailRestClient.ListVisitor visitor, final String... fields) throws IOException {
+        if (restClient == null) {
+            return false;
+        }
+        return reads.execute(new ConnectorPool.Call<Boolean>() {
+            @Override
+            public Boolean call(ApiConnector connector) throws IOException {
+                restClient.listReferring(cls, refUuid, visitor, fields);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Like {@link #findFields}, but with a request of its own so that the
+     * caller may modify the returned object.
+     */
+    public <T extends ApiObjectBase> T findFieldsForUpdate(final Class<T> cls, final String uuid,
+            final String... fields) throws IOException {
+        if (restClient == null) {
+            return findByIdForUpdate(cls, uuid);
+        }
+        return reads.execute(new ConnectorPool.Call<T>() {
+            @Override
+            public T call(ApiConnector connector) throws IOException {
+                return restClient.findFields(cls, uuid, fields);
+            }
+        });
+    }
+
+    /**
+     * Reads an object with a request of its own, so that the caller may
+     * modify it.
+     */
+    public <T extends ApiObjectBase> T findByIdForUpdate(final Class<T> cls, final String uuid) throws IOException {
+        return reads.execute(new ConnectorPool.Call<T>() {
+            @Override
+            public T call(ApiConnector connector) throws IOException {
+                return cls.cast(connector.findById(cls, uuid));
+            }
+        });
+    }
+
+    public String findByName(final Class<? extends ApiObjectBase> cls, final ApiObjectBase parent, final String name)
+            throws IOException {
+        return reads.execute(new ConnectorPool.Call<String>() {
+            @Override
+            public String call(ApiConnector connector) throws IOException {
+                return connector.findByName(cls, parent, name);
+            }
+        });
+    }
+
+    public boolean create(final ApiObjectBase obj) throws IOException {
+        // track the object before it exists; a failed create only leaves a false positive
+        track(obj);
+        long entry = begin(OperationJournal.Op.CREATE, obj);
+        try {
+            return writes.execute(new ConnectorPool.Call<Boolean>() {
+                @Override
+                public Boolean call(ApiConnector connector) throws IOException {
+                    return connector.create(obj);
+                }
+            });
+        } finally {
+            complete(entry);
+            forget(obj);
+        }
+    }
+
+    /**
+     * Writes an object back to Contrail. With a REST client the object is
+     * streamed into the request instead of being serialized to a string
+     * first.
+     */
+    public boolean update(final ApiObjectBase obj) throws IOException {
+        long entry = begin(OperationJournal.Op.UPDATE, obj);
+        try {
+            return writes.execute(new ConnectorPool.Call<Boolean>() {
+                @Override
+                public Boolean call(ApiConnector connector) throws IOException {
+                    return restClient == null ? connector.update(obj) : restClient.update(obj);
+                }
+            });
+        } finally {
+            complete(entry);
+            forget(obj);
+        }
+    }
+
+    /**
+     * Writes one reference of an object, adding it or replacing its
+     * attribute, without sending the rest of the object. The object must
+     * already hold the reference: without a REST client the whole object is
+     * updated instead. The journal records it as an update of the object.
+     */
+    public boolean addReference(final ApiObjectBase obj, final Class<? extends ApiObjectBase> refCls,
+            final ObjectReference<? extends ApiPropertyBase> ref) throws IOException {
+        if (restClient == null) {
+            return update(obj);
+        }
+        long entry = begin(OperationJournal.Op.UPDATE, obj);
+        try {
+            return writes.execute(new ConnectorPool.Call<Boolean>() {
+                @Override
+                public Boolean call(ApiConnector connector) throws IOException {
+                    return restClient.addReference(obj, refCls, ref);
+                }
+            });
+        } finally {
+            complete(entry);
+            forget(obj);
+        }
+    }
+
+    public void delete(final ApiObjectBase obj) throws IOException {
+        long entry = begin(OperationJournal.Op.DELETE, obj);
+        try {
+            writes.execute(new ConnectorPool.Call<Void>() {
+                @Override
+                public Void call(ApiConnector connector) throws IOException {
+                    connector.delete(obj);
+                    return null;
+                }
+            });
+            untrack(obj);
+        } finally {
+            complete(entry);
+            forget(obj);
+        }
+    }
+
+    /**
+     * Starts reading an object; see {@link #findById}. Unlike it, concurrent
+     * reads are not shared.
+     */
+    public <T extends ApiObjectBase> ListenableFuture<T> findByIdAsync(final Class<T> cls, final String uuid) {
+        if (asyncConnector == null) {
+            return blocking(new Callable<T>() {
+                @Override
+                public T call() throws IOException {
+                    return findById(cls, uuid);
+                }
+            });
+        }
+        return reads.executeAsync(new ConnectorPool.AsyncCall<T>() {
+            @Override
+            public ListenableFuture<T> call() {
+                return asyncConnector.findById(cls, uuid);
+            }
+        });
+    }
+
+    /**
+     * Starts reading the given fields of an object; see {@link #findFields}.
+     */
+    public <T extends ApiObjectBase> ListenableFuture<T> findFieldsAsync(final Class<T> cls, final String uuid,
+            final String... fields) {
+        if (asyncConnector == null) {
+            return blocking(new Callable<T>() {
+                @Override
+                public T call() throws IOException {
+                    return findFields(cls, uuid, fields);
+                }
+            });
+        }
+        final String objectKey = key(cls, uuid);
+        final String projection = ContrailRestClient.projection(fields);
+        if (cache == null || !ContrailObjectCache.isCacheable(fields)) {
+            return reads.executeAsync(new ConnectorPool.AsyncCall<T>() {
+                @Override
+                public ListenableFuture<T> call() {
+                    return asyncConnector.findById(cls, uuid, fields.length == 0 ? new String[] { "fq_name" } : fields);
+                }
+            });
+        }
+        T cached = cache.get(cls, objectKey, projection);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        final long stamp = cache.stamp();
+        ListenableFuture<T> future = reads.executeAsync(new ConnectorPool.AsyncCall<T>() {
+            @Override
+            public ListenableFuture<T> call() {
+                return asyncConnector.findById(cls, uuid, fields.length == 0 ? new String[] { "fq_name" } : fields);
+            }
+        });
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T obj) {
+                if (obj != null) {
+                    cache.put(objectKey, projection, obj, stamp);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        }, SAME_THREAD);
+        return future;
+    }
+
+    public ListenableFuture<Boolean> createAsync(final ApiObjectBase obj) {
+        if (asyncConnector == null) {
+            return blocking(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return create(obj);
+                }
+            });
+        }
+        track(obj);
+        long entry;
+        try {
+            entry = begin(OperationJournal.Op.CREATE, obj);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return forgetOnCompletion(obj, entry, writes.executeAsync(new ConnectorPool.AsyncCall<Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> call() {
+                return asyncConnector.create(obj);
+            }
+        }));
+    }
+
+    public ListenableFuture<Boolean> updateAsync(final ApiObjectBase obj) {
+        if (asyncConnector == null) {
+            return blocking(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return update(obj);
+                }
+            });
+        }
+        long entry;
+        try {
+            entry = begin(OperationJournal.Op.UPDATE, obj);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return forgetOnCompletion(obj, entry, writes.executeAsync(new ConnectorPool.AsyncCall<Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> call() {
+                return asyncConnector.update(obj);
+            }
+        }));
+    }
+
+    public ListenableFuture<Void> deleteAsync(final ApiObjectBase obj) {
+        if (asyncConnector == null) {
+            return blocking(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    delete(obj);
+                    return null;
+                }
+            });
+        }
+        long entry;
+        try {
+            entry = begin(OperationJournal.Op.DELETE, obj);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        ListenableFuture<Void> future = writes.executeAsync(new ConnectorPool.AsyncCall<Void>() {
+            @Override
+            public ListenableFuture<Void> call() {
+                return asyncConnector.delete(obj);
+            }
+        });
+        Futures.addCallback(future, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                untrack(obj);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        }, SAME_THREAD);
+        return forgetOnCompletion(obj, entry, future);
+    }
+
+    /**
+     * Runs a blocking call on the executor, if any, or else on the caller's
+     * thread.
+     */
+    private <T> ListenableFuture<T> blocking(Callable<T> call) {
+        if (executor != null) {
+            return executor.submit(call);
+        }
+        try {
+            return Futures.immediateFuture(call.call());
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    private <T> ListenableFuture<T> forgetOnCompletion(final ApiObjectBase obj, final long entry,
+            ListenableFuture<T> future) {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                complete(entry);
+                forget(obj);
+            }
+        }, SAME_THREAD);
+        return future;
+    }
+
+    /**
+     * Drops the reads of an object that has been written, shared and cached.
+     */
+    private void forget(ApiObjectBase obj) {
+        forget(key(obj.getClass(), obj.getUuid()));
+    }
+
+    private void forget(String key) {
+        lookups.forgetPrefix(key);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Drops the reads of an object that another client of Contrail has
+     * written, and adds it to the existence filters of its type if it is new
+     * to them. Deleted objects are left in the filters, as removing a UUID a
+     * filter does not hold could drop a colliding one.
+     *
+     * @param exists
+     *            False if the object has been deleted.
+     */
+    public void changed(Class<? extends ApiObjectBase> cls, String uuid, boolean exists) {
+        for (ExistenceFilter filter : new ExistenceFilter[] { filters.get(cls), seeding.get(cls) }) {
+            if (exists && filter != null && !filter.mightContain(uuid)) {
+                filter.add(uuid);
+            }
+        }
+        forget(key(cls, uuid));
+    }
+
+    /**
+     * Records a write in the journal, if any, before it is sent.
+     *
+     * @return The journal entry of the write, or 0 without a journal.
+     */
+    private long begin(OperationJournal.Op op, ApiObjectBase obj) throws IOException {
+        return journal == null ? 0 : journal.begin(op, obj);
+    }
+
+    private void complete(long entry) {
+        if (journal != null && entry != 0) {
+            journal.complete(entry);
+        }
+    }
+
+    /**
+     * Waits for a future of one of the {@code *Async} calls.
+     *
+     * @throws IOException
+     *             The failure of the call.
+     */
+    public static <T> T await(ListenableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a Contrail call");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Gzip compression of the traffic with the Contrail API server.
+ *
+ * Responses are compressed when the server agrees to: every request asks for
+ * gzip and a gzipped response is inflated while it is parsed. Request bodies
+ * are compressed only when enabled, as not every Contrail deployment accepts
+ * them, and only from a size threshold up, below which gzip costs more than
+ * it saves.
+ *
+ * The bytes saved in each direction are reported as
+ * {@code contrail.gzip.response.saved} and {@code contrail.gzip.request.saved}.
+ */
+public class ContrailCompression {
+    static final String GZIP = "gzip";
+
+    private final boolean compressRequests;
+    private final int threshold;
+    private final ContrailMetrics metrics;
+
+    /**
+     * @param compressRequests
+     *            Whether request bodies are compressed too.
+     * @param threshold
+     *            Size in bytes from which request bodies are compressed.
+     * @param metrics
+     *            Where the bytes saved are recorded.
+     */
+    public ContrailCompression(boolean compressRequests, int threshold, ContrailMetrics metrics) {
+        this.compressRequests = compressRequests;
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    boolean compressesRequests() {
+        return compressRequests;
+    }
+
+    /**
+     * Asks for a gzipped response.
+     */
+    void acceptGzip(HttpRequest request) {
+        request.setHeader("Accept-Encoding", GZIP);
+    }
+
+    /**
+     * Returns the request body for the given JSON, gzipped if request
+     * compression is enabled and the body reaches the threshold.
+     */
+    HttpEntity entity(byte[] json) throws IOException {
+        if (!compressRequests || json.length < threshold) {
+            return new ByteArrayEntity(json, ContentType.APPLICATION_JSON);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4 + 64);
+        GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(json);
+        out.close();
+        ByteArrayEntity entity = new ByteArrayEntity(buffer.toByteArray(), ContentType.APPLICATION_JSON);
+        entity.setContentEncoding(GZIP);
+        metrics.increment("contrail.gzip.request.compressed");
+        metrics.add("contrail.gzip.request.saved", json.length - entity.getContentLength());
+        return entity;
+    }
+
+    /**
+     * Returns the content of a response, inflated if it is gzipped. The bytes
+     * saved are recorded when the returned stream is closed.
+     */
+    InputStream content(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        Header encoding = response.getFirstHeader("Content-Encoding");
+        if (encoding == null || !GZIP.equalsIgnoreCase(encoding.getValue())) {
+            return entity.getContent();
+        }
+        final CountingInputStream compressed = new CountingInputStream(entity.getContent());
+        return new CountingInputStream(new GZIPInputStream(compressed)) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    metrics.increment("contrail.gzip.response.compressed");
+                    metrics.add("contrail.gzip.response.saved", Math.max(0, count - compressed.count));
+                }
+            }
+        };
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
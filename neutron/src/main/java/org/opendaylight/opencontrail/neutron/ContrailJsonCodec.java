@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.juniper.contrail.api.ApiObjectBase;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming JSON codec of Contrail objects.
+ *
+ * Responses are parsed straight from the response stream into the object,
+ * without first reading them into a string and a JSON tree as
+ * {@link net.juniper.contrail.api.ApiConnector} does. Back-reference arrays
+ * the caller did not ask for are skipped token by token, so a network with
+ * thousands of ports costs no allocation for them. Requests are written
+ * straight to the request stream.
+ */
+public class ContrailJsonCodec {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String BACK_REFS = "_back_refs";
+
+    // like the connector, fill in transient fields such as back-references
+    private final Gson reader = new GsonBuilder().excludeFieldsWithModifiers(Modifier.STATIC).create();
+    // back-references are never written
+    private final Gson writer = new Gson();
+    // one per set of kept back-references, of which the handlers use a few
+    private final ConcurrentMap<Set<String>, Gson> projectedReaders = new ConcurrentHashMap<Set<String>, Gson>();
+
+    /**
+     * Reads the object of the given class from a Contrail response of the
+     * form <code>{"virtual-network": {...}}</code>.
+     *
+     * @param backRefs
+     *            Back-reference fields to fill in, e.g.
+     *            {@code instance_ip_back_refs}; null to fill in all.
+     * @return The object, or null if the response holds none.
+     */
+    public <T extends ApiObjectBase> T read(InputStream in, Class<T> cls, Set<String> backRefs) throws IOException {
+        Gson gson = backRefs == null ? reader : readerKeeping(backRefs);
+        String type = ContrailRestClient.typeName(cls);
+        JsonReader json = new JsonReader(new InputStreamReader(in, UTF8));
+        try {
+            T obj = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                if (type.equals(json.nextName())) {
+                    obj = gson.fromJson(json, cls);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return obj;
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Malformed " + type + " from Contrail", e);
+        } finally {
+            json.close();
+        }
+    }
+
+    /**
+     * Returns the back-reference fields among the given Contrail field names.
+     */
+    static Set<String> backRefs(String... fields) {
+        Set<String> backRefs = new HashSet<String>();
+        for (String field : fields) {
+            if (field.endsWith(BACK_REFS)) {
+                backRefs.add(field);
+            }
+        }
+        return backRefs;
+    }
+
+    private Gson readerKeeping(final Set<String> backRefs) {
+        Gson gson = projectedReaders.get(backRefs);
+        if (gson == null) {
+            final Set<String> kept = new HashSet<String>(backRefs);
+            gson = new GsonBuilder().excludeFieldsWithModifiers(Modifier.STATIC)
+                    .setExclusionStrategies(new ExclusionStrategy() {
+                        @Override
+                        public boolean shouldSkipField(FieldAttributes f) {
+                            return f.getName().endsWith(BACK_REFS) && !kept.contains(f.getName());
+                        }
+
+                        @Override
+                        public boolean shouldSkipClass(Class<?> clazz) {
+                            return false;
+                        }
+                    }).create();
+            Gson raced = projectedReaders.putIfAbsent(kept, gson);
+            if (raced != null) {
+                gson = raced;
+            }
+        }
+        return gson;
+    }
+
+    /**
+     * Writes an object as a Contrail request of the form
+     * <code>{"virtual-network": {...}}</code>.
+     */
+    public void write(OutputStream out, ApiObjectBase obj) throws IOException {
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(out, UTF8));
+        json.beginObject();
+        json.name(ContrailRestClient.typeName(obj.getClass()));
+        writer.toJson(obj, obj.getClass(), json);
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Returns an object encoded as by {@link #write}, for transports that
+     * need the request body up front.
+     */
+    public byte[] encode(ApiObjectBase obj) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        write(out, obj);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a request body that writes the object when it is sent.
+     */
+    public AbstractHttpEntity entity(final ApiObjectBase obj) {
+        AbstractHttpEntity entity = new AbstractHttpEntity() {
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public InputStream getContent() throws IOException {
+                return new ByteArrayInputStream(encode(obj));
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                write(out, obj);
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return false;
+            }
+        };
+        entity.setContentType(ContentType.APPLICATION_JSON.toString());
+        return entity;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timers of the plugin, exported over JMX as
+ * {@code org.opendaylight.opencontrail:type=ContrailMetrics}.
+ *
+ * A timer named {@code t} is kept as the three counters {@code t.count},
+ * {@code t.totalMicros} and {@code t.maxMicros}.
+ */
+public class ContrailMetrics implements ContrailMetricsMXBean {
+    static final String OBJECT_NAME = "org.opendaylight.opencontrail:type=ContrailMetrics";
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    void increment(String name) {
+        counter(name).incrementAndGet();
+    }
+
+    void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    void set(String name, long value) {
+        counter(name).set(value);
+    }
+
+    void recordTime(String name, long micros) {
+        counter(name + ".count").incrementAndGet();
+        counter(name + ".totalMicros").addAndGet(micros);
+        AtomicLong max = counter(name + ".maxMicros");
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    long get(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void reset() {
+        for (AtomicLong counter : counters.values()) {
+            counter.set(0);
+        }
+    }
+}
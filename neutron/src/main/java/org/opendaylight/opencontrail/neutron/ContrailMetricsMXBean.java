@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.Map;
+
+/**
+ * JMX view of the plugin metrics.
+ */
+public interface ContrailMetricsMXBean {
+    /**
+     * @return A snapshot of every counter, sorted by name.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Resets every counter to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.juniper.contrail.api.ApiObjectBase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Two-tier cache of the projections of Contrail objects the handlers read.
+ *
+ * A small on-heap tier holds the most recently used objects as they were
+ * read. Behind it, an off-heap tier holds them encoded as JSON in one direct
+ * buffer, so that large networks with thousands of subnets cost the heap
+ * nothing while cached. The off-heap buffer is a ring written in order: an
+ * object is written at the head and evicts the oldest objects it overwrites,
+ * so eviction is by size. Both tiers are bounded in bytes; objects larger
+ * than a quarter of a tier are not cached in it.
+ *
+ * Only projections without back-references are cached, as back-references
+ * change with writes to other objects. An object is invalidated when it is
+ * written through the {@link ContrailClient}; writes made elsewhere are seen
+ * once a {@link ContrailChangeFeed} polls them, or at the latest once its
+ * entries expire. A read that started before an invalidation of
+ * its object is not cached, so that it cannot bring back the state the
+ * write replaced.
+ *
+ * Cached objects are shared and must not be modified.
+ */
+public class ContrailObjectCache {
+    static final Logger LOGGER = LoggerFactory.getLogger(ContrailObjectCache.class);
+    // invalidations remembered to reject the reads that raced them
+    private static final int INVALIDATIONS = 4096;
+
+    private final ContrailJsonCodec codec = new ContrailJsonCodec();
+    private final ContrailMetrics metrics;
+    private final long ttlNanos;
+    private final long hotCapacity;
+    private final LinkedHashMap<String, Hot> hot = new LinkedHashMap<String, Hot>(64, 0.75f, true);
+    private long hotBytes;
+    private final ByteBuffer offHeap;
+    // by object key, then by projection
+    private final Map<String, Map<String, Slot>> slots = new HashMap<String, Map<String, Slot>>();
+    private final ArrayDeque<Slot> ring = new ArrayDeque<Slot>();
+    private int head;
+    private long offHeapBytes;
+    private long stamp;
+    private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<String, Long>();
+    // invalidated at or before this stamp, for the objects no longer remembered
+    private long forgotten;
+
+    /**
+     * An object in the on-heap tier.
+     */
+    private static class Hot {
+        final ApiObjectBase obj;
+        final int bytes;
+        final long expiresAt;
+
+        Hot(ApiObjectBase obj, int bytes, long expiresAt) {
+            this.obj = obj;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The place of an encoded object in the off-heap ring.
+     */
+    private static class Slot {
+        final String objectKey;
+        final String projection;
+        final int offset;
+        final int length;
+        final long expiresAt;
+
+        Slot(String objectKey, String projection, int offset, int length, long expiresAt) {
+            this.objectKey = objectKey;
+            this.projection = projection;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param hotCapacity
+     *            Bytes of encoded objects the on-heap tier holds at most; the
+     *            objects themselves take a few times more.
+     * @param offHeapCapacity
+     *            Bytes of direct memory of the off-heap tier.
+     * @param ttlMillis
+     *            Time after which an object is read from Contrail again.
+     */
+    public ContrailObjectCache(long hotCapacity, int offHeapCapacity, long ttlMillis, ContrailMetrics metrics) {
+        this.hotCapacity = hotCapacity;
+        this.offHeap = ByteBuffer.allocateDirect(offHeapCapacity);
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks whether a projection may be cached.
+     *
+     * @param fields
+     *            Contrail field names of the projection.
+     */
+    static boolean isCacheable(String... fields) {
+        return ContrailJsonCodec.backRefs(fields).isEmpty();
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #put} for a read about to start.
+     */
+    public synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Returns a cached projection of an object.
+     *
+     * @param objectKey
+     *            Key of the object, as of {@link ContrailClient}.
+     * @return The object, or null if it is not cached.
+     */
+    public <T extends ApiObjectBase> T get(Class<T> cls, String objectKey, String projection) {
+        String key = objectKey + "?" + projection;
+        long now = System.nanoTime();
+        byte[] encoded;
+        synchronized (this) {
+            Hot cached = hot.get(key);
+            if (cached != null && cached.expiresAt - now > 0) {
+                metrics.increment("cache.hot.hits");
+                return cls.cast(cached.obj);
+            }
+            if (cached != null) {
+                removeHot(key);
+            }
+            Map<String, Slot> projections = slots.get(objectKey);
+            Slot slot = projections == null ? null : projections.get(projection);
+            if (slot == null || slot.expiresAt - now <= 0) {
+                if (slot != null) {
+                    removeSlot(slot);
+                }
+                metrics.increment("cache.misses");
+                return null;
+            }
+            encoded = new byte[slot.length];
+            ByteBuffer in = offHeap.duplicate();
+            in.position(slot.offset);
+            in.get(encoded);
+        }
+        T obj;
+        try {
+            obj = codec.read(new ByteArrayInputStream(encoded), cls, Collections.<String> emptySet());
+        } catch (IOException e) {
+            LOGGER.warn("Cached " + key + " could not be decoded..", e);
+            invalidate(objectKey);
+            return null;
+        }
+        metrics.increment("cache.offheap.hits");
+        synchronized (this) {
+            // unless invalidated while it was decoded
+            Map<String, Slot> projections = slots.get(objectKey);
+            if (projections != null && projections.containsKey(projection)) {
+                putHot(key, obj, encoded.length, projections.get(projection).expiresAt);
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Caches a projection of an object read from Contrail.
+     *
+     * @param stamp
+     *            Stamp taken before the read started; the object is not
+     *            cached if it has been invalidated since.
+     */
+    public void put(String objectKey, String projection, ApiObjectBase obj, long stamp) {
+        byte[] encoded;
+        try {
+            encoded = codec.encode(obj);
+        } catch (IOException e) {
+            LOGGER.warn("Object " + objectKey + " could not be encoded..", e);
+            return;
+        }
+        long expiresAt = System.nanoTime() + ttlNanos;
+        synchronized (this) {
+            Long invalidated = invalidations.get(objectKey);
+            if ((invalidated != null ? invalidated : forgotten) > stamp) {
+                metrics.increment("cache.raced");
+                return;
+            }
+            putHot(objectKey + "?" + projection, obj, encoded.length, expiresAt);
+            putOffHeap(objectKey, projection, encoded, expiresAt);
+        }
+    }
+
+    /**
+     * Drops every projection of an object.
+     */
+    public synchronized void invalidate(String objectKey) {
+        stamp++;
+        invalidations.remove(objectKey);
+        invalidations.put(objectKey, stamp);
+        if (invalidations.size() > INVALIDATIONS) {
+            Iterator<Map.Entry<String, Long>> eldest = invalidations.entrySet().iterator();
+            forgotten = eldest.next().getValue();
+            eldest.remove();
+        }
+        Map<String, Slot> projections = slots.get(objectKey);
+        if (projections != null) {
+            for (Slot slot : projections.values().toArray(new Slot[projections.size()])) {
+                removeSlot(slot);
+            }
+        }
+        String prefix = objectKey + "?";
+        for (Iterator<Map.Entry<String, Hot>> i = hot.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, Hot> entry = i.next();
+            if (entry.getKey().startsWith(prefix)) {
+                hotBytes -= entry.getValue().bytes;
+                i.remove();
+            }
+        }
+        metrics.set("cache.hot.bytes", hotBytes);
+    }
+
+    private void putHot(String key, ApiObjectBase obj, int bytes, long expiresAt) {
+        if (bytes > hotCapacity / 4) {
+            return;
+        }
+        removeHot(key);
+        hot.put(key, new Hot(obj, bytes, expiresAt));
+        hotBytes += bytes;
+        for (Iterator<Hot> eldest = hot.values().iterator(); hotBytes > hotCapacity;) {
+            hotBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+        metrics.set("cache.hot.bytes", hotBytes);
+    }
+
+    private void removeHot(String key) {
+        Hot removed = hot.remove(key);
+        if (removed != null) {
+            hotBytes -= removed.bytes;
+        }
+    }
+
+    private void putOffHeap(String objectKey, String projection, byte[] encoded, long expiresAt) {
+        int capacity = offHeap.capacity();
+        if (encoded.length > capacity / 4) {
+            metrics.increment("cache.offheap.oversized");
+            return;
+        }
+        Map<String, Slot> projections = slots.get(objectKey);
+        if (projections != null && projections.containsKey(projection)) {
+            removeSlot(projections.get(projection));
+        }
+        if (head + encoded.length > capacity) {
+            // the slots past the head were written the lap before, and are the oldest
+            while (!ring.isEmpty() && ring.peekFirst().offset >= head) {
+                evict(ring.pollFirst());
+            }
+            head = 0;
+        }
+        while (!ring.isEmpty() && ring.peekFirst().offset >= head && ring.peekFirst().offset < head + encoded.length) {
+            evict(ring.pollFirst());
+        }
+        ByteBuffer out = offHeap.duplicate();
+        out.position(head);
+        out.put(encoded);
+        Slot slot = new Slot(objectKey, projection, head, encoded.length, expiresAt);
+        ring.addLast(slot);
+        if (projections == null) {
+            projections = new HashMap<String, Slot>(2);
+            slots.put(objectKey, projections);
+        }
+        projections.put(projection, slot);
+        head += encoded.length;
+        offHeapBytes += encoded.length;
+        metrics.set("cache.offheap.bytes", offHeapBytes);
+    }
+
+    /**
+     * Drops a slot overwritten in the ring, unless it was dropped already.
+     */
+    private void evict(Slot slot) {
+        Map<String, Slot> projections = slots.get(slot.objectKey);
+        if (projections != null && projections.get(slot.projection) == slot) {
+            removeSlot(slot);
+            metrics.increment("cache.evictions");
+        }
+    }
+
+    /**
+     * Drops a slot from the index; its bytes stay in the ring until
+     * overwritten.
+     */
+    private void removeSlot(Slot slot) {
+        Map<String, Slot> projections = slots.get(slot.objectKey);
+        if (projections != null && projections.get(slot.projection) == slot) {
+            projections.remove(slot.projection);
+            offHeapBytes -= slot.length;
+            if (projections.isEmpty()) {
+                slots.remove(slot.objectKey);
+            }
+            metrics.set("cache.offheap.bytes", offHeapBytes);
+        }
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (Map<String, Slot> projections : slots.values()) {
+            size += projections.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a Contrail call is rejected because too many calls are already
+ * in flight. Handlers answer such requests with HTTP 503.
+ */
+public class ContrailOverloadException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ContrailOverloadException(String message) {
+        super(message);
+    }
+}
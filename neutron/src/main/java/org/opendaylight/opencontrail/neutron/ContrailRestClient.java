@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Modifier;
+import java.net.HttpURLConnection;
+
+import net.juniper.contrail.api.ApiObjectBase;
+import net.juniper.contrail.api.ApiPropertyBase;
+import net.juniper.contrail.api.ObjectReference;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Talks to the Contrail API server directly for the requests
+ * {@link net.juniper.contrail.api.ApiConnector} cannot express, such as reads
+ * of selected fields only and updates of a single reference. Objects are
+ * read and written with the streaming {@link ContrailJsonCodec}.
+ */
+public class ContrailRestClient {
+    private final String baseUrl;
+    private final CloseableHttpClient httpClient;
+    // like the connector, fill in transient fields such as back-references
+    private final Gson gson = new GsonBuilder().excludeFieldsWithModifiers(Modifier.STATIC).create();
+    private final ContrailJsonCodec codec = new ContrailJsonCodec();
+    private final ContrailCompression compression;
+
+    /**
+     * Receives the objects of a list as they are read.
+     */
+    public interface ListVisitor {
+        /**
+         * @param obj
+         *            The listed fields of an object, with its identity.
+         */
+        void visit(JsonObject obj) throws IOException;
+    }
+
+    public ContrailRestClient(String host, int port, int connections, int timeoutMillis) {
+        this(host, port, connections, timeoutMillis, null);
+    }
+
+    /**
+     * @param host
+     *            Address of the Contrail API server.
+     * @param port
+     *            Port of the Contrail API server.
+     * @param connections
+     *            Number of connections kept to the API server.
+     * @param timeoutMillis
+     *            Connect and read timeout of a request.
+     * @param compression
+     *            Gzip compression of the requests and responses, or null for
+     *            none.
+     */
+    public ContrailRestClient(String host, int port, int connections, int timeoutMillis,
+            ContrailCompression compression) {
+        this.baseUrl = "http://" + host + ":" + port;
+        this.compression = compression;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(connections);
+        connectionManager.setDefaultMaxPerRoute(connections);
+        RequestConfig config = RequestConfig.custom().setConnectTimeout(timeoutMillis).setSocketTimeout(timeoutMillis)
+                .build();
+        // compression is negotiated by hand, to count the bytes it saves
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(config)
+                .disableContentCompression().build();
+    }
+
+    /**
+     * Returns the REST type name of a Contrail object class, e.g.
+     * {@code virtual-machine-interface} for VirtualMachineInterface.
+     */
+    static String typeName(Class<? extends ApiObjectBase> cls) {
+        String name = cls.getSimpleName();
+        StringBuilder type = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0) {
+                    type.append('-');
+                }
+                type.append(Character.toLowerCase(c));
+            } else {
+                type.append(c);
+            }
+        }
+        return type.toString();
+    }
+
+    /**
+     * Builds the query that reads only the given fields of an object. Children
+     * are never returned and back-references only when asked for.
+     */
+    static String projection(String... fields) {
+        StringBuilder query = new StringBuilder("exclude_children=true");
+        boolean backRefs = false;
+        StringBuilder fieldList = new StringBuilder();
+        for (String field : fields) {
+            backRefs |= field.endsWith("_back_refs");
+            fieldList.append(fieldList.length() == 0 ? "" : ",").append(field);
+        }
+        if (!backRefs) {
+            query.append("&exclude_back_refs=true");
+        }
+        query.append("&fields=").append(fieldList.length() == 0 ? "fq_name" : fieldList);
+        return query.toString();
+    }
+
+    /**
+     * Reads the given fields of an object. Identity fields such as the UUID,
+     * name and parent are always filled in.
+     *
+     * @return The object, or null if it does not exist.
+     */
+    public <T extends ApiObjectBase> T findFields(Class<T> cls, String uuid, String... fields) throws IOException {
+        HttpGet request = new HttpGet(baseUrl + "/" + typeName(cls) + "/" + uuid + "?" + projection(fields));
+        CloseableHttpResponse response = send(request);
+        if (response == null) {
+            return null;
+        }
+        try {
+            return codec.read(content(response), cls, ContrailJsonCodec.backRefs(fields));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Lists the given fields of every object of a type. The response is
+     * streamed, so only the object being visited is held at a time.
+     */
+    public void list(Class<? extends ApiObjectBase> cls, ListVisitor visitor, String... fields) throws IOException {
+        list(cls, "", visitor, fields);
+    }
+
+    /**
+     * Like {@link #list(Class, ListVisitor, String...)}, but lists only the
+     * objects holding a reference to the given object, such as the instance
+     * IPs of a network.
+     */
+    public void listReferring(Class<? extends ApiObjectBase> cls, String refUuid, ListVisitor visitor,
+            String... fields) throws IOException {
+        list(cls, "&back_ref_id=" + refUuid, visitor, fields);
+    }
+
+    private void list(Class<? extends ApiObjectBase> cls, String filter, ListVisitor visitor, String... fields)
+            throws IOException {
+        String type = typeName(cls);
+        HttpGet request = new HttpGet(baseUrl + "/" + type + "s?detail=true&" + projection(fields) + filter);
+        CloseableHttpResponse response = send(request);
+        if (response == null) {
+            return;
+        }
+        try {
+            JsonReader json = new JsonReader(new InputStreamReader(content(response), ContrailJsonCodec.UTF8));
+            JsonParser parser = new JsonParser();
+            json.beginObject();
+            while (json.hasNext()) {
+                if (!(type + "s").equals(json.nextName())) {
+                    json.skipValue();
+                    continue;
+                }
+                json.beginArray();
+                while (json.hasNext()) {
+                    // each item wraps the object in its type name
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        json.nextName();
+                        visitor.visit(parser.parse(json).getAsJsonObject());
+                    }
+                    json.endObject();
+                }
+                json.endArray();
+            }
+            json.endObject();
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Writes an object back to Contrail, streaming it into the request.
+     *
+     * @return False if the object does not exist.
+     */
+    public boolean update(ApiObjectBase obj) throws IOException {
+        HttpPut request = new HttpPut(baseUrl + "/" + typeName(obj.getClass()) + "/" + obj.getUuid());
+        request.setEntity(compression != null && compression.compressesRequests() ? compression.entity(codec
+                .encode(obj)) : codec.entity(obj));
+        return execute(request) != null;
+    }
+
+    /**
+     * Adds a reference, or replaces the attribute of an existing one, without
+     * writing the rest of the referring object.
+     *
+     * @return False if either object does not exist.
+     */
+    public boolean addReference(ApiObjectBase obj, Class<? extends ApiObjectBase> refCls,
+            ObjectReference<? extends ApiPropertyBase> ref) throws IOException {
+        return updateReference("ADD", obj, refCls, ref);
+    }
+
+    /**
+     * Removes a reference without writing the rest of the referring object.
+     *
+     * @return False if either object does not exist.
+     */
+    public boolean deleteReference(ApiObjectBase obj, Class<? extends ApiObjectBase> refCls,
+            ObjectReference<? extends ApiPropertyBase> ref) throws IOException {
+        return updateReference("DELETE", obj, refCls, ref);
+    }
+
+    private boolean updateReference(String operation, ApiObjectBase obj, Class<? extends ApiObjectBase> refCls,
+            ObjectReference<? extends ApiPropertyBase> ref) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("operation", operation);
+        body.addProperty("type", typeName(obj.getClass()));
+        body.addProperty("uuid", obj.getUuid());
+        body.addProperty("ref-type", typeName(refCls));
+        // references built from a fully qualified name only are resolved by Contrail
+        if (ref.getUuid() != null) {
+            body.addProperty("ref-uuid", ref.getUuid());
+        }
+        if (ref.getReferredName() != null) {
+            body.add("ref-fq-name", gson.toJsonTree(ref.getReferredName()));
+        }
+        if (ref.getAttr() != null) {
+            body.add("attr", gson.toJsonTree(ref.getAttr()));
+        }
+        HttpPost request = new HttpPost(baseUrl + "/ref-update");
+        byte[] json = body.toString().getBytes(ContrailJsonCodec.UTF8);
+        request.setEntity(compression == null ? new ByteArrayEntity(json, ContentType.APPLICATION_JSON) : compression
+                .entity(json));
+        return execute(request) != null;
+    }
+
+    private JsonObject execute(HttpUriRequest request) throws IOException {
+        CloseableHttpResponse response = send(request);
+        if (response == null) {
+            return null;
+        }
+        try {
+            Reader content = new InputStreamReader(content(response), ContrailJsonCodec.UTF8);
+            try {
+                return new JsonParser().parse(content).getAsJsonObject();
+            } finally {
+                content.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private InputStream content(HttpResponse response) throws IOException {
+        return compression == null ? response.getEntity().getContent() : compression.content(response);
+    }
+
+    /**
+     * Sends a request and returns the response if Contrail answered 200; the
+     * caller must close it.
+     *
+     * @return Null if Contrail answered 404.
+     */
+    private CloseableHttpResponse send(HttpUriRequest request) throws IOException {
+        request.setHeader("Accept", "application/json");
+        if (compression != null) {
+            compression.acceptGzip(request);
+        }
+        CloseableHttpResponse response = httpClient.execute(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        try {
+            EntityUtils.consume(response.getEntity());
+        } finally {
+            response.close();
+        }
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            return null;
+        }
+        throw new IOException("Contrail answered " + response.getStatusLine() + " to " + request.getMethod() + " "
+                + request.getURI());
+    }
+
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Set of the UUIDs known to exist in Contrail for one object type, answering
+ * "definitely absent" or "maybe present".
+ *
+ * The set is a scalable cuckoo filter: 16 bit fingerprints in buckets of four,
+ * which unlike a Bloom filter supports deletes. When a table fills up a table
+ * of twice the size is added, so the false positive rate stays low as the
+ * number of objects grows. Until the filter has been seeded with the objects
+ * already in Contrail every UUID is reported as maybe present.
+ */
+public class ExistenceFilter {
+    static final int BUCKET_SIZE = 4;
+    static final int MAX_KICKS = 500;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<Table> tables = new ArrayList<Table>();
+    private final Random random = new Random();
+    private boolean seeded;
+    private int size;
+
+    /**
+     * @param capacity
+     *            Number of UUIDs the first table is sized for.
+     */
+    public ExistenceFilter(int capacity) {
+        tables.add(new Table(Math.max(1, capacity / BUCKET_SIZE)));
+    }
+
+    /**
+     * Marks the filter as holding every UUID of its type; from now on absent
+     * UUIDs are reported as absent.
+     */
+    public synchronized void seeded() {
+        seeded = true;
+    }
+
+    public synchronized boolean isSeeded() {
+        return seeded;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return False if the UUID is definitely not in Contrail.
+     */
+    public synchronized boolean mightContain(String uuid) {
+        if (!seeded) {
+            return true;
+        }
+        long hash = hash(uuid);
+        for (Table table : tables) {
+            if (table.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void add(String uuid) {
+        long hash = hash(uuid);
+        Table table = tables.get(tables.size() - 1);
+        if (!table.insert(hash, random)) {
+            table = new Table(table.buckets.length / BUCKET_SIZE * 2);
+            tables.add(table);
+            table.insert(hash, random);
+        }
+        size++;
+    }
+
+    /**
+     * Removes a UUID. Only UUIDs that were added may be removed, as removing
+     * another could drop a colliding fingerprint; before seeding removals are
+     * ignored for that reason.
+     */
+    public synchronized void remove(String uuid) {
+        if (!seeded) {
+            return;
+        }
+        long hash = hash(uuid);
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            if (tables.get(i).delete(hash)) {
+                size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the tables of a seeded filter to a snapshot.
+     */
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(tables.size());
+        for (Table table : tables) {
+            out.writeInt(table.buckets.length);
+            out.writeShort(table.victim);
+            out.writeInt(table.victimIndex);
+            for (short fingerprint : table.buckets) {
+                out.writeShort(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Reads a filter written by {@link #writeTo}, seeded.
+     *
+     * @throws IllegalArgumentException
+     *             If the filter read is malformed.
+     */
+    static ExistenceFilter readFrom(ByteBuffer in) {
+        int size = in.getInt();
+        int tableCount = in.getInt();
+        ExistenceFilter filter = new ExistenceFilter(BUCKET_SIZE);
+        filter.tables.clear();
+        for (int i = 0; i < tableCount; i++) {
+            int length = in.getInt();
+            Table table = new Table(length / BUCKET_SIZE);
+            if (table.buckets.length != length) {
+                throw new IllegalArgumentException("Malformed existence filter of " + length + " fingerprints");
+            }
+            table.victim = in.getShort();
+            table.victimIndex = in.getInt();
+            in.asShortBuffer().get(table.buckets);
+            in.position(in.position() + table.buckets.length * 2);
+            filter.tables.add(table);
+        }
+        filter.size = size;
+        filter.seeded = true;
+        return filter;
+    }
+
+    private static long hash(String uuid) {
+        return HASH.hashString(uuid, UTF8).asLong();
+    }
+
+    /**
+     * One cuckoo hash table. A fingerprint lives in one of two buckets, the
+     * second derived from the first and the fingerprint alone so it can be
+     * moved without the original key.
+     */
+    private static final class Table {
+        final short[] buckets;
+        final int mask;
+        short victim;
+        int victimIndex;
+
+        Table(int bucketCount) {
+            int count = Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1;
+            buckets = new short[count * BUCKET_SIZE];
+            mask = count - 1;
+        }
+
+        private static short fingerprint(long hash) {
+            short fingerprint = (short) (hash >>> 48);
+            return fingerprint == 0 ? 1 : fingerprint;
+        }
+
+        private int index(long hash) {
+            return (int) hash & mask;
+        }
+
+        private int alternate(int index, short fingerprint) {
+            return (index ^ ((fingerprint & 0xFFFF) * 0x5bd1e995)) & mask;
+        }
+
+        boolean contains(long hash) {
+            short fingerprint = fingerprint(hash);
+            int first = index(hash);
+            int second = alternate(first, fingerprint);
+            if (victim == fingerprint && (victimIndex == first || victimIndex == second)) {
+                return true;
+            }
+            return find(first, fingerprint) >= 0 || find(second, fingerprint) >= 0;
+        }
+
+        boolean insert(long hash, Random random) {
+            if (victim != 0) {
+                return false;
+            }
+            short fingerprint = fingerprint(hash);
+            int index = index(hash);
+            if (put(index, fingerprint) || put(alternate(index, fingerprint), fingerprint)) {
+                return true;
+            }
+            if (random.nextBoolean()) {
+                index = alternate(index, fingerprint);
+            }
+            for (int kick = 0; kick < MAX_KICKS; kick++) {
+                int slot = index * BUCKET_SIZE + random.nextInt(BUCKET_SIZE);
+                short evicted = buckets[slot];
+                buckets[slot] = fingerprint;
+                fingerprint = evicted;
+                index = alternate(index, fingerprint);
+                if (put(index, fingerprint)) {
+                    return true;
+                }
+            }
+            // the table is full; keep the homeless fingerprint aside so it is not lost
+            victim = fingerprint;
+            victimIndex = index;
+            return true;
+        }
+
+        boolean delete(long hash) {
+            short fingerprint = fingerprint(hash);
+            int first = index(hash);
+            int second = alternate(first, fingerprint);
+            int slot = find(first, fingerprint);
+            if (slot < 0) {
+                slot = find(second, fingerprint);
+            }
+            if (slot >= 0) {
+                buckets[slot] = 0;
+                if (victim != 0) {
+                    short homeless = victim;
+                    victim = 0;
+                    insertFingerprint(victimIndex, homeless);
+                }
+                return true;
+            }
+            if (victim == fingerprint && (victimIndex == first || victimIndex == second)) {
+                victim = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void insertFingerprint(int index, short fingerprint) {
+            if (!put(index, fingerprint) && !put(alternate(index, fingerprint), fingerprint)) {
+                victim = fingerprint;
+                victimIndex = index;
+            }
+        }
+
+        private boolean put(int index, short fingerprint) {
+            for (int slot = index * BUCKET_SIZE; slot < (index + 1) * BUCKET_SIZE; slot++) {
+                if (buckets[slot] == 0) {
+                    buckets[slot] = fingerprint;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int find(int index, short fingerprint) {
+            for (int slot = index * BUCKET_SIZE; slot < (index + 1) * BUCKET_SIZE; slot++) {
+                if (buckets[slot] == fingerprint) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+    }
+}
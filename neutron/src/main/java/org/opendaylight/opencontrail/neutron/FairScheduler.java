@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits operations to Contrail through a fixed number of slots, using
+ * priority lanes and per-tenant weighted fair queuing.
+ *
+ * A waiting {@link Lane#INTERACTIVE} operation is always admitted before a
+ * {@link Lane#BACKGROUND} one, and background operations never hold more than
+ * their own share of the slots. Inside a lane, tenants are served in the order
+ * of their virtual finish times, so a tenant with weight 2 gets twice the
+ * slots of a tenant with weight 1 and a bulk request of one tenant cannot
+ * starve the others. Queue wait times are recorded per tenant and per lane.
+ */
+public class FairScheduler {
+    static final String DEFAULT_TENANT = "default";
+
+    /**
+     * Priority lanes, in the order they are served.
+     */
+    public enum Lane {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int slots;
+    private final int backgroundSlots;
+    private final Map<String, Integer> weights;
+    private final ContrailMetrics metrics;
+    private final Map<Lane, PriorityQueue<Waiter>> queues = new EnumMap<Lane, PriorityQueue<Waiter>>(Lane.class);
+    private final Map<Lane, Map<String, Double>> lastFinish = new EnumMap<Lane, Map<String, Double>>(Lane.class);
+    private final Map<Lane, Double> virtualTime = new EnumMap<Lane, Double>(Lane.class);
+    private int inUse;
+    private int backgroundInUse;
+    private long sequence;
+
+    /**
+     * @param slots
+     *            Number of operations admitted at the same time.
+     * @param backgroundSlots
+     *            Number of those slots background operations may hold.
+     * @param weights
+     *            Weight of each tenant; tenants not listed have weight 1.
+     * @param metrics
+     *            Where queue wait times are recorded.
+     */
+    public FairScheduler(int slots, int backgroundSlots, Map<String, Integer> weights, ContrailMetrics metrics) {
+        this.slots = Math.max(1, slots);
+        this.backgroundSlots = Math.max(1, Math.min(backgroundSlots, this.slots));
+        this.weights = weights;
+        this.metrics = metrics;
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new PriorityQueue<Waiter>());
+            lastFinish.put(lane, new HashMap<String, Double>());
+            virtualTime.put(lane, 0.0);
+        }
+    }
+
+    /**
+     * Parses tenant weights given as {@code tenant=weight,tenant=weight}.
+     */
+    static Map<String, Integer> parseWeights(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String entry : spec.split(",")) {
+            String[] pair = entry.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Tenant weight " + entry + " not in tenant=weight format..");
+            }
+            weights.put(pair[0].trim(), Math.max(1, Integer.parseInt(pair[1].trim())));
+        }
+        return weights;
+    }
+
+    /**
+     * Waits for a slot for the given tenant in the given lane.
+     *
+     * @return A ticket that must be released once the operation is done.
+     */
+    public Ticket acquire(String tenant, Lane lane) throws InterruptedException {
+        String tenantId = tenant == null || tenant.isEmpty() ? DEFAULT_TENANT : tenant;
+        long start = System.nanoTime();
+        Waiter waiter;
+        lock.lock();
+        try {
+            waiter = enqueue(tenantId, lane);
+            dispatch();
+            while (!waiter.granted) {
+                try {
+                    waiter.condition.await();
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        release(waiter);
+                    } else {
+                        queues.get(lane).remove(waiter);
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        long waitedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        metrics.recordTime("scheduler.wait.tenant." + tenantId, waitedMicros);
+        metrics.recordTime("scheduler.wait.lane." + lane.name().toLowerCase(), waitedMicros);
+        return new Ticket(waiter);
+    }
+
+    /**
+     * Wraps an operation so that it runs holding a slot for the given tenant
+     * and lane.
+     */
+    public <T> Callable<T> wrap(final String tenant, final Lane lane, final Callable<T> operation) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Ticket ticket = acquire(tenant, lane);
+                try {
+                    return operation.call();
+                } finally {
+                    ticket.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Number of operations waiting for a slot.
+     */
+    int waitingCount() {
+        lock.lock();
+        try {
+            int waiting = 0;
+            for (PriorityQueue<Waiter> queue : queues.values()) {
+                waiting += queue.size();
+            }
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Waiter enqueue(String tenant, Lane lane) {
+        Map<String, Double> finishes = lastFinish.get(lane);
+        Double previous = finishes.get(tenant);
+        double startTag = Math.max(virtualTime.get(lane), previous == null ? 0.0 : previous);
+        Integer weight = weights.get(tenant);
+        double finishTag = startTag + 1.0 / (weight == null ? 1 : weight);
+        finishes.put(tenant, finishTag);
+        Waiter waiter = new Waiter(lane, finishTag, sequence++, lock.newCondition());
+        queues.get(lane).add(waiter);
+        return waiter;
+    }
+
+    private void dispatch() {
+        while (inUse < slots) {
+            Waiter next = queues.get(Lane.INTERACTIVE).poll();
+            if (next == null && backgroundInUse < backgroundSlots) {
+                next = queues.get(Lane.BACKGROUND).poll();
+            }
+            if (next == null) {
+                return;
+            }
+            inUse++;
+            if (next.lane == Lane.BACKGROUND) {
+                backgroundInUse++;
+            }
+            virtualTime.put(next.lane, next.finishTag);
+            forgetIdleTenants(next.lane);
+            next.granted = true;
+            next.condition.signal();
+        }
+    }
+
+    private void forgetIdleTenants(Lane lane) {
+        if (queues.get(lane).isEmpty()) {
+            lastFinish.get(lane).clear();
+        }
+    }
+
+    private void release(Waiter waiter) {
+        inUse--;
+        if (waiter.lane == Lane.BACKGROUND) {
+            backgroundInUse--;
+        }
+        dispatch();
+    }
+
+    /**
+     * A granted slot.
+     */
+    public final class Ticket {
+        private final Waiter waiter;
+        private boolean released;
+
+        Ticket(Waiter waiter) {
+            this.waiter = waiter;
+        }
+
+        public void release() {
+            lock.lock();
+            try {
+                if (!released) {
+                    released = true;
+                    FairScheduler.this.release(waiter);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final Lane lane;
+        final double finishTag;
+        final long sequence;
+        final Condition condition;
+        boolean granted;
+
+        Waiter(Lane lane, double finishTag, long sequence, Condition condition) {
+            this.lane = lane;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int result = Double.compare(finishTag, other.finishTag);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.juniper.contrail.api.ApiPropertyBase;
+import net.juniper.contrail.api.ObjectReference;
+import net.juniper.contrail.api.types.InstanceIp;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import com.google.common.net.InetAddresses;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Instance IPs of each network, ordered by address.
+ *
+ * The instance IPs falling inside a CIDR are found with a range query instead
+ * of reading every port of the network. A network is loaded from Contrail the
+ * first time it is queried; from then on the port handler keeps it up to date
+ * as it creates and deletes instance IPs.
+ */
+public class InstanceIpIndex {
+    private final UuidMap<NetworkIps> networks = new UuidMap<NetworkIps>();
+
+    /**
+     * Instance IPs of one network by address, IPv4 and IPv6 apart.
+     */
+    private static class NetworkIps {
+        final NavigableMap<BigInteger, List<String>> v4 = new TreeMap<BigInteger, List<String>>();
+        final NavigableMap<BigInteger, List<String>> v6 = new TreeMap<BigInteger, List<String>>();
+
+        NavigableMap<BigInteger, List<String>> family(byte[] address) {
+            return address.length == 4 ? v4 : v6;
+        }
+    }
+
+    /**
+     * Reads the instance IPs of a network from Contrail. They are listed in a
+     * single streamed request; without the REST client they are read one at a
+     * time from the back references of the network, so that the read never
+     * holds more than one permit of the limiter however many there are.
+     *
+     * @return Addresses by instance IP UUID, or null if the network does not
+     *         exist.
+     */
+    public static Map<String, String> read(ContrailClient contrail, String networkUuid) throws IOException {
+        final Map<String, String> addresses = new HashMap<String, String>();
+        boolean listed = contrail.listReferring(InstanceIp.class, networkUuid, new ContrailRestClient.ListVisitor() {
+            @Override
+            public void visit(JsonObject obj) {
+                JsonElement address = obj.get("instance_ip_address");
+                addresses.put(obj.get("uuid").getAsString(), address == null ? null : address.getAsString());
+            }
+        }, "instance_ip_address");
+        if (listed) {
+            // an empty list does not tell a network without instance IPs from a deleted one
+            if (addresses.isEmpty() && contrail.findFields(VirtualNetwork.class, networkUuid) == null) {
+                return null;
+            }
+            return addresses;
+        }
+        VirtualNetwork virtualNetwork = contrail.findFields(VirtualNetwork.class, networkUuid, "instance_ip_back_refs");
+        if (virtualNetwork == null) {
+            return null;
+        }
+        if (virtualNetwork.getInstanceIpBackRefs() != null) {
+            for (ObjectReference<ApiPropertyBase> ref : virtualNetwork.getInstanceIpBackRefs()) {
+                InstanceIp instanceIp = contrail.findFields(InstanceIp.class, ref.getUuid(), "instance_ip_address");
+                if (instanceIp != null) {
+                    addresses.put(instanceIp.getUuid(), instanceIp.getAddress());
+                }
+            }
+        }
+        return addresses;
+    }
+
+    public boolean isLoaded(String networkUuid) {
+        return networks.containsKey(networkUuid);
+    }
+
+    /**
+     * Sets the instance IPs of a network, read from Contrail.
+     *
+     * @param instanceIps
+     *            Addresses by instance IP UUID.
+     */
+    public void load(String networkUuid, Map<String, String> instanceIps) {
+        NetworkIps ips = new NetworkIps();
+        for (Map.Entry<String, String> instanceIp : instanceIps.entrySet()) {
+            add(ips, instanceIp.getKey(), instanceIp.getValue());
+        }
+        networks.put(networkUuid, ips);
+    }
+
+    /**
+     * Records an instance IP created in a network. Networks that are not
+     * loaded yet are left alone, as they are read in full when loaded.
+     */
+    public void add(String networkUuid, String instanceIpUuid, String address) {
+        NetworkIps ips = networks.get(networkUuid);
+        if (ips != null) {
+            synchronized (ips) {
+                add(ips, instanceIpUuid, address);
+            }
+        }
+    }
+
+    /**
+     * Forgets an instance IP deleted from a network.
+     */
+    public void remove(String networkUuid, String instanceIpUuid, String address) {
+        NetworkIps ips = networks.get(networkUuid);
+        byte[] bytes = parse(address);
+        if (ips == null || bytes == null) {
+            return;
+        }
+        synchronized (ips) {
+            NavigableMap<BigInteger, List<String>> family = ips.family(bytes);
+            BigInteger key = new BigInteger(1, bytes);
+            List<String> uuids = family.get(key);
+            if (uuids != null && uuids.remove(instanceIpUuid) && uuids.isEmpty()) {
+                family.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the UUIDs of the instance IPs of a network inside a CIDR.
+     *
+     * @param cidr
+     *            A CIDR such as {@code 10.0.0.0/24}.
+     * @return The UUIDs, or null if the network is not loaded.
+     * @throws IllegalArgumentException
+     *             If the CIDR is malformed.
+     */
+    public List<String> find(String networkUuid, String cidr) {
+        NetworkIps ips = networks.get(networkUuid);
+        if (ips == null) {
+            return null;
+        }
+        int slash = cidr.indexOf('/');
+        byte[] prefix = slash < 0 ? null : parse(cidr.substring(0, slash));
+        if (prefix == null) {
+            throw new IllegalArgumentException("String " + cidr + " not in correct format..");
+        }
+        int hostBits = prefix.length * 8 - Integer.parseInt(cidr.substring(slash + 1));
+        if (hostBits < 0 || hostBits > prefix.length * 8) {
+            throw new IllegalArgumentException("String " + cidr + " not in correct format..");
+        }
+        BigInteger hostMask = BigInteger.ONE.shiftLeft(hostBits).subtract(BigInteger.ONE);
+        BigInteger low = new BigInteger(1, prefix).andNot(hostMask);
+        BigInteger high = low.or(hostMask);
+        List<String> found = new ArrayList<String>();
+        synchronized (ips) {
+            for (Collection<String> uuids : ips.family(prefix).subMap(low, true, high, true).values()) {
+                found.addAll(uuids);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the UUIDs of the loaded networks.
+     */
+    public Set<String> loadedNetworks() {
+        return new HashSet<String>(networks.keys());
+    }
+
+    /**
+     * Returns the instance IPs of a network.
+     *
+     * @return Addresses by instance IP UUID, or null if the network is not
+     *         loaded.
+     */
+    public Map<String, String> addresses(String networkUuid) {
+        NetworkIps ips = networks.get(networkUuid);
+        if (ips == null) {
+            return null;
+        }
+        Map<String, String> addresses = new HashMap<String, String>();
+        synchronized (ips) {
+            addAll(addresses, ips.v4, 4);
+            addAll(addresses, ips.v6, 16);
+        }
+        return addresses;
+    }
+
+    /**
+     * Drops a network, which is loaded again when next queried.
+     */
+    public void forget(String networkUuid) {
+        networks.remove(networkUuid);
+    }
+
+    public void clear() {
+        networks.clear();
+    }
+
+    private static void add(NetworkIps ips, String instanceIpUuid, String address) {
+        byte[] bytes = parse(address);
+        if (bytes == null) {
+            return;
+        }
+        NavigableMap<BigInteger, List<String>> family = ips.family(bytes);
+        BigInteger key = new BigInteger(1, bytes);
+        List<String> uuids = family.get(key);
+        if (uuids == null) {
+            uuids = new ArrayList<String>(1);
+            family.put(key, uuids);
+        }
+        if (!uuids.contains(instanceIpUuid)) {
+            uuids.add(instanceIpUuid);
+        }
+    }
+
+    private static void addAll(Map<String, String> addresses, NavigableMap<BigInteger, List<String>> family,
+            int length) {
+        for (Map.Entry<BigInteger, List<String>> entry : family.entrySet()) {
+            // the key drops leading zero bytes and may carry a sign byte
+            byte[] key = entry.getKey().toByteArray();
+            byte[] bytes = new byte[length];
+            int copied = Math.min(length, key.length);
+            System.arraycopy(key, key.length - copied, bytes, length - copied, copied);
+            String address;
+            try {
+                address = InetAddresses.toAddrString(InetAddress.getByAddress(bytes));
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+            for (String uuid : entry.getValue()) {
+                addresses.put(uuid, address);
+            }
+        }
+    }
+
+    private static byte[] parse(String address) {
+        if (address == null || !InetAddresses.isInetAddress(address)) {
+            return null;
+        }
+        return InetAddresses.forString(address).getAddress();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.juniper.contrail.api.ObjectReference;
+import net.juniper.contrail.api.types.VirtualNetwork;
+import net.juniper.contrail.api.types.VnSubnetsType;
+
+/**
+ * The IPAM subnets of a virtual network by prefix and length.
+ *
+ * Built once from the network-ipam references of a network read from
+ * Contrail, so that the handlers find the entry of a Neutron subnet with a
+ * single lookup instead of matching every entry against its prefix. Subnets
+ * sharing a prefix, such as {@code 10.0.0.0/16} and {@code 10.0.0.0/24}, are
+ * kept apart.
+ */
+public class IpamSubnetIndex {
+    // by prefix and length, e.g. 10.0.0.0/24
+    private final Map<String, Entry> subnets = new HashMap<String, Entry>();
+    // the first subnet of each prefix
+    private final Map<String, Entry> prefixes = new HashMap<String, Entry>();
+
+    /**
+     * An IPAM subnet and the network-ipam reference holding it.
+     */
+    public static class Entry {
+        private final ObjectReference<VnSubnetsType> ref;
+        private final VnSubnetsType.IpamSubnetType subnet;
+
+        Entry(ObjectReference<VnSubnetsType> ref, VnSubnetsType.IpamSubnetType subnet) {
+            this.ref = ref;
+            this.subnet = subnet;
+        }
+
+        public ObjectReference<VnSubnetsType> getRef() {
+            return ref;
+        }
+
+        public VnSubnetsType.IpamSubnetType getSubnet() {
+            return subnet;
+        }
+
+        /**
+         * Takes the subnet out of the attribute of its reference.
+         */
+        public void remove() {
+            ref.getAttr().getIpamSubnets().remove(subnet);
+        }
+    }
+
+    public IpamSubnetIndex(VirtualNetwork virtualNetwork) {
+        List<ObjectReference<VnSubnetsType>> ipamRefs = virtualNetwork.getNetworkIpam();
+        if (ipamRefs == null) {
+            return;
+        }
+        for (ObjectReference<VnSubnetsType> ref : ipamRefs) {
+            List<VnSubnetsType.IpamSubnetType> ipamSubnets = ref.getAttr() == null ? null : ref.getAttr()
+                    .getIpamSubnets();
+            if (ipamSubnets == null) {
+                continue;
+            }
+            for (VnSubnetsType.IpamSubnetType subnet : ipamSubnets) {
+                if (subnet.getSubnet() != null && subnet.getSubnet().getIpPrefix() != null) {
+                    Entry entry = new Entry(ref, subnet);
+                    subnets.put(key(subnet.getSubnet().getIpPrefix(), subnet.getSubnet().getIpPrefixLen()), entry);
+                    if (!prefixes.containsKey(subnet.getSubnet().getIpPrefix())) {
+                        prefixes.put(subnet.getSubnet().getIpPrefix(), entry);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an IPAM subnet with the given prefix, e.g. {@code 10.0.0.0},
+     * whatever its length.
+     *
+     * @return The entry, or null if the network has no subnet with it.
+     */
+    public Entry get(String ipPrefix) {
+        return prefixes.get(ipPrefix);
+    }
+
+    /**
+     * Returns the IPAM subnet with the given prefix and length.
+     *
+     * @return The entry, or null if the network has no such subnet.
+     */
+    public Entry get(String ipPrefix, int ipPrefixLen) {
+        return subnets.get(key(ipPrefix, ipPrefixLen));
+    }
+
+    public int size() {
+        return subnets.size();
+    }
+
+    private static String key(String ipPrefix, Integer ipPrefixLen) {
+        return ipPrefix + "/" + ipPrefixLen;
+    }
+}
@@ -10,9 +10,8 @@ package org.opendaylight.opencontrail.neutron;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.util.UUID;
+import java.util.concurrent.Callable;
 
-import net.juniper.contrail.api.ApiConnector;
 import net.juniper.contrail.api.types.VirtualNetwork;
 
 import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkAware;
@@ -28,7 +27,37 @@ public class NetworkHandler implements INeutronNetworkAware {
      * Logger instance.
      */
     static final Logger LOGGER = LoggerFactory.getLogger(NetworkHandler.class);
-    static ApiConnector apiConnector;
+    private final ContrailBackend backend;
+    private final ChangeDetector changeDetector;
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     */
+    public NetworkHandler(ContrailBackend backend) {
+        this(backend, new ChangeDetector(Activator.changeCapacity, Activator.metrics));
+    }
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     * @param changeDetector
+     *            Fingerprints of the networks last written, to skip updates
+     *            that change nothing.
+     */
+    public NetworkHandler(ContrailBackend backend, ChangeDetector changeDetector) {
+        this.backend = backend;
+        this.changeDetector = changeDetector;
+    }
+
+    /**
+     * Invoked to get the Contrail client for the current connector.
+     *
+     * @return {@link ContrailClient}
+     */
+    private ContrailClient contrail() {
+        return backend.get();
+    }
 
     /**
      * Invoked when a network creation is requested to check if the specified
@@ -40,20 +69,29 @@ public class NetworkHandler implements INeutronNetworkAware {
      * @return A HTTP status code to the creation request.
      */
     @Override
-    public int canCreateNetwork(NeutronNetwork network) {
+    public int canCreateNetwork(final NeutronNetwork network) {
         if (network == null) {
             LOGGER.error("Network object can't be null..");
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
         LOGGER.debug("Network object " + network);
-        apiConnector = Activator.apiConnector;
         if (network.getNetworkUUID() == null || network.getNetworkName() == null || network.getNetworkUUID().equals("")
                 || network.getNetworkName().equals("")) {
             LOGGER.error("Network UUID and Network Name can't be null/empty...");
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
         try {
-            return createNetwork(network);
+            return Activator.operationScheduler.execute(OperationScheduler.networkKey(network.getNetworkUUID()),
+                    OperationScheduler.NO_PARENTS, Activator.fairScheduler.wrap(network.getTenantID(), FairScheduler.Lane.INTERACTIVE,
+                            new Callable<Integer>() {
+                                @Override
+                                public Integer call() throws IOException {
+                                    return createNetwork(network);
+                                }
+                            }));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
         } catch (IOException ie) {
             LOGGER.error("IOException :   " + ie);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -72,13 +110,19 @@ public class NetworkHandler implements INeutronNetworkAware {
     @Override
     public void neutronNetworkCreated(NeutronNetwork network) {
         VirtualNetwork virtualNetwork = null;
+        FairScheduler.Ticket ticket = null;
         try {
-            virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, network.getNetworkUUID());
+            ticket = Activator.fairScheduler.acquire(network.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            virtualNetwork = contrail().findFields(VirtualNetwork.class, network.getNetworkUUID());
             if (virtualNetwork != null) {
                 LOGGER.info("Network creation verified....");
             }
         } catch (Exception e) {
             LOGGER.error("Exception :     " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 
@@ -90,16 +134,16 @@ public class NetworkHandler implements INeutronNetworkAware {
      *
      * @return A HTTP status code to the creation request.
      */
-    private int createNetwork(NeutronNetwork network) throws IOException {
+    int createNetwork(NeutronNetwork network) throws IOException {
         VirtualNetwork virtualNetwork = null;
         String networkUUID = null;
         try {
-            networkUUID = UUID.fromString(network.getNetworkUUID()).toString();
+            networkUUID = Uuids.canonical(network.getNetworkUUID());
         } catch (Exception ex) {
             LOGGER.error("networkUUID input incorrect", ex);
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
-        virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, networkUUID);
+        virtualNetwork = contrail().findDuplicate(VirtualNetwork.class, networkUUID);
         if (virtualNetwork != null) {
             LOGGER.warn("Network already exists..");
             return HttpURLConnection.HTTP_FORBIDDEN;
@@ -107,12 +151,13 @@ public class NetworkHandler implements INeutronNetworkAware {
         virtualNetwork = new VirtualNetwork();
         // map neutronNetwork to virtualNetwork
         virtualNetwork = mapNetworkProperties(network, virtualNetwork);
-        boolean networkCreated = apiConnector.create(virtualNetwork);
+        boolean networkCreated = contrail().create(virtualNetwork);
         LOGGER.debug("networkCreated:   " + networkCreated);
         if (!networkCreated) {
             LOGGER.warn("Network creation failed..");
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
         }
+        changeDetector.written(OperationScheduler.networkKey(networkUUID), ChangeDetector.fingerprint(network.getNetworkName()));
         LOGGER.info("Network : " + virtualNetwork.getName() + "  having UUID : " + virtualNetwork.getUuid() + "  sucessfully created...");
         return HttpURLConnection.HTTP_OK;
     }
@@ -147,9 +192,7 @@ public class NetworkHandler implements INeutronNetworkAware {
      * @return A HTTP status code to the update request.
      */
     @Override
-    public int canUpdateNetwork(NeutronNetwork deltaNetwork, NeutronNetwork originalNetwork) {
-        VirtualNetwork virtualnetwork = new VirtualNetwork();
-        apiConnector = Activator.apiConnector;
+    public int canUpdateNetwork(final NeutronNetwork deltaNetwork, final NeutronNetwork originalNetwork) {
         if (deltaNetwork == null || originalNetwork == null) {
             LOGGER.error("Neutron Networks can't be null..");
             return HttpURLConnection.HTTP_BAD_REQUEST;
@@ -159,43 +202,75 @@ public class NetworkHandler implements INeutronNetworkAware {
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
         try {
-            virtualnetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, originalNetwork.getNetworkUUID());
-        } catch (IOException e) {
-            LOGGER.error("Exception :     " + e);
+            return Activator.operationScheduler.execute(OperationScheduler.networkKey(originalNetwork.getNetworkUUID()),
+                    OperationScheduler.NO_PARENTS, Activator.fairScheduler.wrap(originalNetwork.getTenantID(), FairScheduler.Lane.INTERACTIVE,
+                            new Callable<Integer>() {
+                                @Override
+                                public Integer call() throws IOException {
+                                    return updateNetwork(deltaNetwork, originalNetwork);
+                                }
+                            }));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        } catch (IOException ie) {
+            LOGGER.error("IOException:     " + ie);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } catch (Exception e) {
+            LOGGER.error("Exception:     " + e);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
         }
+    }
+
+    /**
+     * Invoked to look up the network to be updated and update it.
+     *
+     * @param deltaNetwork
+     *            Updates to the network object using patch semantics.
+     * @param originalNetwork
+     *            An instance of the Neutron Network object to be updated.
+     *
+     * @return A HTTP status code to the update request.
+     */
+    private int updateNetwork(NeutronNetwork deltaNetwork, NeutronNetwork originalNetwork) throws IOException {
+        // keyed as the network was created, by the UUID of Contrail
+        String networkUUID = Uuids.canonicalIfUuid(originalNetwork.getNetworkUUID());
+        String key = OperationScheduler.networkKey(networkUUID);
+        // a delta leaving the name out keeps the original one
+        String networkName = deltaNetwork.getNetworkName() != null ? deltaNetwork.getNetworkName() : originalNetwork
+                .getNetworkName();
+        long fingerprint = ChangeDetector.fingerprint(networkName);
+        if (changeDetector.isUnchanged(key, fingerprint)) {
+            LOGGER.debug("Network having UUID : " + originalNetwork.getNetworkUUID() + "  is unchanged...");
+            return HttpURLConnection.HTTP_OK;
+        }
+        VirtualNetwork virtualnetwork = contrail().findByIdForUpdate(VirtualNetwork.class, networkUUID);
         if (virtualnetwork == null) {
             LOGGER.error("No network exists for the specified UUID...");
             return HttpURLConnection.HTTP_FORBIDDEN;
-        } else {
-            try {
-                return updateNetwork(deltaNetwork, virtualnetwork);
-            } catch (IOException ie) {
-                LOGGER.error("IOException:     " + ie);
-                return HttpURLConnection.HTTP_INTERNAL_ERROR;
-            } catch (Exception e) {
-                LOGGER.error("Exception:     " + e);
-                return HttpURLConnection.HTTP_INTERNAL_ERROR;
-            }
         }
+        int status = updateNetwork(networkName, virtualnetwork);
+        if (status == HttpURLConnection.HTTP_OK) {
+            changeDetector.written(key, fingerprint);
+        }
+        return status;
     }
 
     /**
      * Invoked to update the network
      *
-     * @param delta_network
-     *            An instance of Network.
+     * @param networkName
+     *            The name of the network once updated.
      * @param virtualNetwork
      *            An instance of new virtualNetwork object.
      *
      * @return A HTTP status code to the creation request.
      */
-    private int updateNetwork(NeutronNetwork deltaNetwork, VirtualNetwork virtualNetwork) throws IOException {
-        String networkName = deltaNetwork.getNetworkName();
+    private int updateNetwork(String networkName, VirtualNetwork virtualNetwork) throws IOException {
         virtualNetwork.setName(networkName);
         virtualNetwork.setDisplayName(networkName);
         {
-            boolean networkUpdate = apiConnector.update(virtualNetwork);
+            boolean networkUpdate = contrail().update(virtualNetwork);
             if (!networkUpdate) {
                 LOGGER.warn("Network Updation failed..");
                 return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -213,9 +288,11 @@ public class NetworkHandler implements INeutronNetworkAware {
      */
     @Override
     public void neutronNetworkUpdated(NeutronNetwork network) {
+        FairScheduler.Ticket ticket = null;
         try {
+            ticket = Activator.fairScheduler.acquire(network.getTenantID(), FairScheduler.Lane.BACKGROUND);
             VirtualNetwork virtualnetwork = new VirtualNetwork();
-            virtualnetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, network.getNetworkUUID());
+            virtualnetwork = contrail().findFields(VirtualNetwork.class, network.getNetworkUUID(), "display_name");
             if (network.getNetworkName().equalsIgnoreCase(virtualnetwork.getDisplayName())) {
                 LOGGER.info("Network updatation verified....");
             } else {
@@ -223,6 +300,10 @@ public class NetworkHandler implements INeutronNetworkAware {
             }
         } catch (Exception e) {
             LOGGER.error("Exception :" + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 
@@ -235,30 +316,51 @@ public class NetworkHandler implements INeutronNetworkAware {
      * @return A HTTP status code to the deletion request.
      */
     @Override
-    public int canDeleteNetwork(NeutronNetwork network) {
-        apiConnector = Activator.apiConnector;
-        VirtualNetwork virtualNetwork = null;
+    public int canDeleteNetwork(final NeutronNetwork network) {
         try {
-            virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, network.getNetworkUUID());
-            if (virtualNetwork != null) {
-                if (virtualNetwork.getVirtualMachineInterfaceBackRefs() != null) {
-                    LOGGER.info("Network with UUID :  " + network.getNetworkUUID() + " cannot be deleted as it has port(s) associated with it....");
-                    return HttpURLConnection.HTTP_FORBIDDEN;
-                } else {
-                    apiConnector.delete(virtualNetwork);
-                    LOGGER.info("Network with UUID :  " + network.getNetworkUUID() + "  has been deleted successfully....");
-                    return HttpURLConnection.HTTP_OK;
-                }
-            } else {
-                LOGGER.info("No Network exists with UUID :  " + network.getNetworkUUID());
-                return HttpURLConnection.HTTP_BAD_REQUEST;
-            }
+            return Activator.operationScheduler.executeAfterDependents(OperationScheduler.networkKey(network.getNetworkUUID()),
+                    Activator.fairScheduler.wrap(network.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return deleteNetwork(network);
+                        }
+                    }));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
         } catch (Exception e) {
             LOGGER.error("Exception : " + e);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
         }
     }
 
+    /**
+     * Invoked to delete the specified network if no port is associated with
+     * it.
+     *
+     * @param network
+     *            An instance of the Neutron Network object to be deleted.
+     * @return A HTTP status code to the deletion request.
+     */
+    private int deleteNetwork(NeutronNetwork network) throws IOException {
+        VirtualNetwork virtualNetwork = contrail().findFields(VirtualNetwork.class, network.getNetworkUUID(),
+                "virtual_machine_interface_back_refs");
+        if (virtualNetwork != null) {
+            if (virtualNetwork.getVirtualMachineInterfaceBackRefs() != null) {
+                LOGGER.info("Network with UUID :  " + network.getNetworkUUID() + " cannot be deleted as it has port(s) associated with it....");
+                return HttpURLConnection.HTTP_FORBIDDEN;
+            } else {
+                contrail().delete(virtualNetwork);
+                changeDetector.forget(OperationScheduler.networkKey(network.getNetworkUUID()));
+                LOGGER.info("Network with UUID :  " + network.getNetworkUUID() + "  has been deleted successfully....");
+                return HttpURLConnection.HTTP_OK;
+            }
+        } else {
+            LOGGER.info("No Network exists with UUID :  " + network.getNetworkUUID());
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+    }
+
     /**
      * Invoked to take action after a network has been deleted.
      *
@@ -268,13 +370,19 @@ public class NetworkHandler implements INeutronNetworkAware {
     @Override
     public void neutronNetworkDeleted(NeutronNetwork network) {
         VirtualNetwork virtualNetwork = null;
+        FairScheduler.Ticket ticket = null;
         try {
-            virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, network.getNetworkUUID());
+            ticket = Activator.fairScheduler.acquire(network.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            virtualNetwork = contrail().findFields(VirtualNetwork.class, network.getNetworkUUID());
             if (virtualNetwork == null) {
                 LOGGER.info("Network deletion verified....");
             }
         } catch (Exception e) {
             LOGGER.error("Exception :   " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 }
\ No newline at end of file
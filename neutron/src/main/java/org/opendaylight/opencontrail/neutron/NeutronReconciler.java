@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiPropertyBase;
+import net.juniper.contrail.api.ObjectReference;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkCRUD;
+import org.opendaylight.controller.networkconfig.neutron.INeutronPortCRUD;
+import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
+import org.opendaylight.controller.networkconfig.neutron.NeutronNetwork;
+import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
+import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Repairs the drift between the Neutron state and Contrail in the background.
+ *
+ * A write failing half way leaves Neutron and Contrail apart, e.g. with the
+ * VMI of a port Neutron then rejected. Every cycle the networks, subnets and
+ * ports held by the Neutron CRUD services are hashed into one bucket per
+ * network and one per tenant, and compared with the hashes last found
+ * consistent with Contrail. Only the networks of the buckets that changed,
+ * and those whose last check is older than the revalidation period, are read
+ * from Contrail and diffed, so a cycle does not scan Contrail. The networks
+ * are checked at a bounded rate, in the background lane of the fair
+ * scheduler.
+ *
+ * Networks, subnets and ports missing in Contrail are created again. The VMIs
+ * of a network that Neutron does not know may belong to other Contrail
+ * clients, such as service instances, so they are only counted unless their
+ * deletion is enabled; they are then deleted once they are seen two checks in
+ * a row, leaving creates in flight alone.
+ *
+ * The state of the reconciler is confined to its thread.
+ */
+public class NeutronReconciler {
+    static final Logger LOGGER = LoggerFactory.getLogger(NeutronReconciler.class);
+    private final ContrailBackend backend;
+    private final NetworkHandler networkHandler;
+    private final SubnetHandler subnetHandler;
+    private final PortHandler portHandler;
+    private final ContrailMetrics metrics;
+    private final long pauseMillis;
+    private final long revalidateMillis;
+    private final boolean deleteOrphans;
+    private final Map<String, Long> tenantHashes = new HashMap<String, Long>();
+    // ordered by check, the one checked the longest ago first
+    private final LinkedHashMap<String, Checked> networkHashes = new LinkedHashMap<String, Checked>();
+    private final Map<String, Set<String>> orphans = new HashMap<String, Set<String>>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * The hash of a network bucket found consistent with Contrail, and when.
+     */
+    private static class Checked {
+        final long hash;
+        final long at;
+
+        Checked(long hash, long at) {
+            this.hash = hash;
+            this.at = at;
+        }
+    }
+
+    /**
+     * A network with its subnets and ports, as Neutron holds them.
+     */
+    private static class NetworkBucket {
+        final NeutronNetwork network;
+        final List<NeutronSubnet> subnets = new ArrayList<NeutronSubnet>();
+        final List<NeutronPort> ports = new ArrayList<NeutronPort>();
+
+        NetworkBucket(NeutronNetwork network) {
+            this.network = network;
+        }
+
+        long hash() {
+            Set<String> cidrs = new TreeSet<String>();
+            for (NeutronSubnet subnet : subnets) {
+                cidrs.add(subnet.getCidr());
+            }
+            Set<String> portUuids = new TreeSet<String>();
+            for (NeutronPort port : ports) {
+                portUuids.add(port.getID());
+            }
+            return ChangeDetector.fingerprint(network.getNetworkName(), cidrs, portUuids);
+        }
+    }
+
+    /**
+     * @param backend
+     *            Contrail backend the networks are read from.
+     * @param networkHandler
+     *            Handler creating the missing networks.
+     * @param subnetHandler
+     *            Handler creating the missing subnets.
+     * @param portHandler
+     *            Handler creating the missing ports and deleting the unknown
+     *            ones, which also tracks the Neutron CRUD services.
+     * @param networksPerSecond
+     *            Number of networks read from Contrail per second at most.
+     * @param revalidateMillis
+     *            Period after which a network is checked again although
+     *            unchanged in Neutron, to find changes made to Contrail.
+     * @param deleteOrphans
+     *            Whether the VMIs of a network unknown to Neutron are deleted.
+     */
+    public NeutronReconciler(ContrailBackend backend, NetworkHandler networkHandler, SubnetHandler subnetHandler,
+            PortHandler portHandler, ContrailMetrics metrics, int networksPerSecond, long revalidateMillis,
+            boolean deleteOrphans) {
+        this.backend = backend;
+        this.networkHandler = networkHandler;
+        this.subnetHandler = subnetHandler;
+        this.portHandler = portHandler;
+        this.metrics = metrics;
+        this.pauseMillis = 1000L / Math.max(1, networksPerSecond);
+        this.revalidateMillis = revalidateMillis;
+        this.deleteOrphans = deleteOrphans;
+    }
+
+    /**
+     * Starts reconciling every given interval, on a low priority thread.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("opencontrail-reconciler").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOGGER.warn("Reconciliation failed..", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs one reconciliation cycle.
+     */
+    void reconcile() throws InterruptedException {
+        INeutronNetworkCRUD networkCRUD = portHandler.getNetworkCRUD();
+        INeutronSubnetCRUD subnetCRUD = portHandler.getSubnetCRUD();
+        INeutronPortCRUD portCRUD = portHandler.getPortCRUD();
+        if (networkCRUD == null || subnetCRUD == null || portCRUD == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, NetworkBucket> buckets = new HashMap<String, NetworkBucket>();
+        for (NeutronNetwork network : networkCRUD.getAllNetworks()) {
+            buckets.put(network.getNetworkUUID(), new NetworkBucket(network));
+        }
+        for (NeutronSubnet subnet : subnetCRUD.getAllSubnets()) {
+            NetworkBucket bucket = buckets.get(subnet.getNetworkUUID());
+            if (bucket != null) {
+                bucket.subnets.add(subnet);
+            }
+        }
+        for (NeutronPort port : portCRUD.getAllPorts()) {
+            NetworkBucket bucket = buckets.get(port.getNetworkUUID());
+            if (bucket != null && port.getID() != null) {
+                bucket.ports.add(port);
+            }
+        }
+        Map<String, Map<String, Long>> tenants = new HashMap<String, Map<String, Long>>();
+        Map<String, Long> hashes = new HashMap<String, Long>();
+        for (NetworkBucket bucket : buckets.values()) {
+            String tenant = tenant(bucket.network.getTenantID());
+            Map<String, Long> tenantNetworks = tenants.get(tenant);
+            if (tenantNetworks == null) {
+                tenantNetworks = new TreeMap<String, Long>();
+                tenants.put(tenant, tenantNetworks);
+            }
+            long hash = bucket.hash();
+            tenantNetworks.put(bucket.network.getNetworkUUID(), hash);
+            hashes.put(bucket.network.getNetworkUUID(), hash);
+        }
+        networkHashes.keySet().retainAll(buckets.keySet());
+        orphans.keySet().retainAll(buckets.keySet());
+        tenantHashes.keySet().retainAll(tenants.keySet());
+
+        Map<String, NetworkBucket> divergent = new LinkedHashMap<String, NetworkBucket>();
+        for (Map.Entry<String, Map<String, Long>> tenant : tenants.entrySet()) {
+            Long checked = tenantHashes.get(tenant.getKey());
+            if (checked != null && checked == ChangeDetector.fingerprint(tenant.getValue())) {
+                metrics.increment("contrail.reconcile.tenants.unchanged");
+                continue;
+            }
+            for (Map.Entry<String, Long> network : tenant.getValue().entrySet()) {
+                Checked networkChecked = networkHashes.get(network.getKey());
+                if (networkChecked == null || networkChecked.hash != network.getValue()) {
+                    divergent.put(network.getKey(), buckets.get(network.getKey()));
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Checked> network : networkHashes.entrySet()) {
+            if (now - network.getValue().at < revalidateMillis) {
+                break;
+            }
+            if (!divergent.containsKey(network.getKey())) {
+                divergent.put(network.getKey(), buckets.get(network.getKey()));
+            }
+        }
+
+        boolean first = true;
+        for (NetworkBucket bucket : divergent.values()) {
+            if (!first) {
+                Thread.sleep(pauseMillis);
+            }
+            first = false;
+            String networkUuid = bucket.network.getNetworkUUID();
+            networkHashes.remove(networkUuid);
+            if (check(bucket)) {
+                networkHashes.put(networkUuid, new Checked(hashes.get(networkUuid), System.currentTimeMillis()));
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> tenant : tenants.entrySet()) {
+            boolean consistent = true;
+            for (Map.Entry<String, Long> network : tenant.getValue().entrySet()) {
+                Checked checked = networkHashes.get(network.getKey());
+                consistent &= checked != null && checked.hash == network.getValue();
+            }
+            if (consistent) {
+                tenantHashes.put(tenant.getKey(), ChangeDetector.fingerprint(tenant.getValue()));
+            } else {
+                tenantHashes.remove(tenant.getKey());
+            }
+        }
+        metrics.increment("contrail.reconcile.cycles");
+        metrics.recordTime("contrail.reconcile.cycle", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    /**
+     * Reads a network from Contrail, diffs it with Neutron and repairs it.
+     *
+     * @return true if the network is consistent with Neutron.
+     */
+    private boolean check(NetworkBucket bucket) throws InterruptedException {
+        final NeutronNetwork network = bucket.network;
+        String networkKey = OperationScheduler.networkKey(network.getNetworkUUID());
+        FairScheduler.Ticket ticket = Activator.fairScheduler.acquire(network.getTenantID(),
+                FairScheduler.Lane.BACKGROUND);
+        VirtualNetwork virtualNetwork;
+        try {
+            virtualNetwork = backend.get().findFields(VirtualNetwork.class, network.getNetworkUUID(),
+                    "network_ipam_refs", "virtual_machine_interface_back_refs");
+        } catch (Exception e) {
+            LOGGER.warn("Network " + network.getNetworkUUID() + " could not be read for reconciliation..", e);
+            return false;
+        } finally {
+            ticket.release();
+        }
+        metrics.increment("contrail.reconcile.networks.checked");
+        boolean consistent = true;
+        if (virtualNetwork == null) {
+            consistent = false;
+            if (!repair(networkKey, OperationScheduler.NO_PARENTS, network.getTenantID(), new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return networkHandler.createNetwork(network);
+                }
+            })) {
+                return false;
+            }
+        }
+        IpamSubnetIndex ipamSubnets = virtualNetwork == null ? null : new IpamSubnetIndex(virtualNetwork);
+        for (final NeutronSubnet subnet : bucket.subnets) {
+            String[] ipPrefix = subnet.getCidr() == null ? null : subnet.getCidr().split("/");
+            if (ipPrefix == null || ipPrefix.length != 2 || !ipPrefix[1].matches("\\d{1,3}")) {
+                continue;
+            }
+            if (ipamSubnets != null && ipamSubnets.get(ipPrefix[0], Integer.parseInt(ipPrefix[1])) != null) {
+                continue;
+            }
+            consistent = false;
+            repair(OperationScheduler.subnetKey(subnet.getSubnetUUID()), Collections.singletonList(networkKey),
+                    subnet.getTenantID(), SubnetHandler.onIpam(network.getNetworkUUID(), new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return subnetHandler.createSubnet(subnet);
+                        }
+                    }));
+        }
+        Set<String> unknown = new HashSet<String>();
+        if (virtualNetwork != null && virtualNetwork.getVirtualMachineInterfaceBackRefs() != null) {
+            for (ObjectReference<ApiPropertyBase> ref : virtualNetwork.getVirtualMachineInterfaceBackRefs()) {
+                unknown.add(ref.getUuid());
+            }
+        }
+        for (final NeutronPort port : bucket.ports) {
+            // the VMIs are named by the canonical form of the port UUID
+            if (unknown.remove(Uuids.canonicalIfUuid(port.getID()))) {
+                continue;
+            }
+            consistent = false;
+            repair(OperationScheduler.portKey(port.getID()), portHandler.getParentKeys(port), port.getTenantID(),
+                    new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return portHandler.createPort(port);
+                        }
+                    });
+        }
+        if (!deleteOrphans) {
+            if (!unknown.isEmpty()) {
+                LOGGER.debug(unknown.size() + " VMIs of network " + network.getNetworkUUID()
+                        + " are not known to Neutron, left alone...");
+                metrics.increment("contrail.reconcile.orphans");
+            }
+            unknown.clear();
+        }
+        Set<String> seen = orphans.remove(network.getNetworkUUID());
+        for (Iterator<String> it = unknown.iterator(); it.hasNext();) {
+            String vmiUuid = it.next();
+            consistent = false;
+            if (seen == null || !seen.contains(vmiUuid)) {
+                continue;
+            }
+            final NeutronPort orphan = new NeutronPort();
+            orphan.setPortUUID(vmiUuid);
+            orphan.setNetworkUUID(network.getNetworkUUID());
+            if (repair(OperationScheduler.portKey(vmiUuid), Collections.singletonList(networkKey),
+                    network.getTenantID(), new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return portHandler.deletePort(orphan);
+                        }
+                    })) {
+                it.remove();
+            }
+        }
+        if (!unknown.isEmpty()) {
+            orphans.put(network.getNetworkUUID(), unknown);
+        }
+        if (!consistent) {
+            metrics.increment("contrail.reconcile.networks.diverged");
+        }
+        return consistent;
+    }
+
+    /**
+     * Runs a repair as an operation on the given key, in the background lane.
+     *
+     * @return true if the repair succeeded.
+     */
+    private boolean repair(String key, Collection<String> parents, String tenant, Callable<Integer> operation)
+            throws InterruptedException {
+        int status;
+        try {
+            status = Activator.operationScheduler.execute(key, parents,
+                    Activator.fairScheduler.wrap(tenant, FairScheduler.Lane.BACKGROUND, operation));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            LOGGER.warn("Repair of " + key + " failed..", e);
+            status = HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            LOGGER.warn("Repair of " + key + " failed with status " + status + "..");
+            metrics.increment("contrail.reconcile.repairs.failed");
+            return false;
+        }
+        LOGGER.info("Repaired " + key + " in Contrail...");
+        metrics.increment("contrail.reconcile.repairs");
+        return true;
+    }
+
+    private static String tenant(String tenantId) {
+        return tenantId == null ? "" : tenantId;
+    }
+}
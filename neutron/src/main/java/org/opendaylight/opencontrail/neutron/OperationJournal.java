@@ -0,0 +1,479 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import net.juniper.contrail.api.ApiObjectBase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of the writes to Contrail.
+ *
+ * Each write is recorded before it is sent, and marked complete once its
+ * outcome is known, whether it succeeded or not: after a crash, only the
+ * writes that were in flight are left incomplete, and are replayed on
+ * restart instead of resynchronizing everything.
+ *
+ * The journal is a memory-mapped segment file that records are appended to.
+ * A write waits until its record is on disk, and records appended meanwhile
+ * are flushed together by the next writer, so concurrent writes share the
+ * cost of a flush. Completion marks are not flushed; losing one only makes a
+ * write replayed once more, which is harmless as replays are idempotent.
+ * When a segment is full, the records of the writes in flight are carried to
+ * a new segment and the old one is deleted.
+ *
+ * Each record is {@code length, crc32, kind, sequence} followed, for an
+ * intent, by the operation, the class and UUID of the object and the object
+ * as Contrail JSON. A record that is torn or corrupt ends the journal.
+ */
+public class OperationJournal implements Closeable {
+    static final Logger LOGGER = LoggerFactory.getLogger(OperationJournal.class);
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+    private static final byte INTENT = 1;
+    private static final byte COMPLETE = 2;
+    // length and checksum of each record
+    private static final int HEADER = 8;
+
+    /**
+     * Operations recorded, as replayed: creates and deletes only when the
+     * object is still missing or present, updates as they are.
+     */
+    public enum Op {
+        CREATE, UPDATE, DELETE
+    }
+
+    /**
+     * A write recorded in the journal.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final Op op;
+        private final String className;
+        private final String uuid;
+        private final byte[] content;
+
+        Entry(long sequence, Op op, String className, String uuid, byte[] content) {
+            this.sequence = sequence;
+            this.op = op;
+            this.className = className;
+            this.uuid = uuid;
+            this.content = content;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final ContrailMetrics metrics;
+    private final ContrailJsonCodec codec = new ContrailJsonCodec();
+    // intents not completed yet, carried over to each new segment
+    private final Map<Long, byte[]> inFlight = new TreeMap<Long, byte[]>();
+    private final List<Entry> recovered;
+    private long segment;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long sequence;
+    // bytes appended and known to be on disk, over all segments
+    private long appended;
+    private long durable;
+    private boolean flushing;
+
+    private OperationJournal(File directory, int segmentSize, ContrailMetrics metrics, List<Entry> recovered) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.metrics = metrics;
+        this.recovered = recovered;
+    }
+
+    /**
+     * Opens the journal in a directory, reading the writes left incomplete
+     * by the previous run.
+     *
+     * @param segmentSize
+     *            Size of the segment files, in bytes.
+     */
+    public static OperationJournal open(File directory, int segmentSize, ContrailMetrics metrics) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the journal directory " + directory);
+        }
+        File[] segments = segments(directory);
+        Map<Long, Entry> incomplete = new TreeMap<Long, Entry>();
+        long last = 0;
+        long lastSegment = 0;
+        for (File segmentFile : segments) {
+            lastSegment = Math.max(lastSegment, segmentNumber(segmentFile));
+            last = Math.max(last, read(segmentFile, incomplete));
+        }
+        OperationJournal journal = new OperationJournal(directory, segmentSize, metrics, Collections
+                .unmodifiableList(new ArrayList<Entry>(incomplete.values())));
+        journal.sequence = last;
+        synchronized (journal) {
+            for (Entry entry : incomplete.values()) {
+                journal.inFlight.put(entry.sequence, intent(entry.sequence, entry.op, entry.className, entry.uuid,
+                        entry.content));
+            }
+            journal.roll(lastSegment + 1, 0);
+        }
+        for (File segmentFile : segments) {
+            if (!segmentFile.delete()) {
+                LOGGER.warn("Unable to delete the journal segment " + segmentFile + "..");
+            }
+        }
+        if (!incomplete.isEmpty()) {
+            LOGGER.info(incomplete.size() + " Contrail writes left incomplete by the previous run...");
+        }
+        return journal;
+    }
+
+    /**
+     * Returns the writes left incomplete by the previous run, in order. They
+     * stay incomplete in the journal until {@link #replay}ed.
+     */
+    public List<Entry> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Records a write about to be sent, once on disk.
+     *
+     * @return The sequence number to {@link #complete} the write with.
+     */
+    public long begin(Op op, ApiObjectBase obj) throws IOException {
+        byte[] content = op == Op.DELETE ? new byte[0] : codec.encode(obj);
+        long target;
+        long recordSequence;
+        synchronized (this) {
+            recordSequence = ++sequence;
+            byte[] record = intent(recordSequence, op, obj.getClass().getName(), obj.getUuid(), content);
+            append(record);
+            inFlight.put(recordSequence, record);
+            target = appended;
+        }
+        metrics.increment("journal.appends");
+        flush(target);
+        return recordSequence;
+    }
+
+    /**
+     * Marks a write as done, once its outcome is known.
+     */
+    public void complete(long recordSequence) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + 9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(COMPLETE);
+            out.writeLong(recordSequence);
+            synchronized (this) {
+                if (inFlight.remove(recordSequence) != null && buffer != null) {
+                    append(record(bytes.toByteArray()));
+                }
+            }
+        } catch (IOException e) {
+            // the write is replayed after a crash, which is harmless
+            LOGGER.warn("Unable to mark the Contrail write " + recordSequence + " complete..", e);
+        }
+    }
+
+    /**
+     * Replays the writes left incomplete by the previous run, through the
+     * given client, and marks them complete.
+     *
+     * @return The number of writes replayed successfully.
+     */
+    public int replay(ContrailClient client) {
+        int replayed = 0;
+        for (Entry entry : recovered) {
+            try {
+                if (replay(client, entry)) {
+                    replayed++;
+                    metrics.increment("journal.replayed");
+                } else {
+                    LOGGER.warn("Replay of the Contrail write " + entry.sequence + " to " + entry.uuid + " failed..");
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Replay of the Contrail write " + entry.sequence + " to " + entry.uuid + " failed..", e);
+            }
+            complete(entry.sequence);
+        }
+        return replayed;
+    }
+
+    private boolean replay(ContrailClient client, Entry entry) throws Exception {
+        Class<? extends ApiObjectBase> cls = Class.forName(entry.className, true, getClass().getClassLoader())
+                .asSubclass(ApiObjectBase.class);
+        ApiObjectBase obj;
+        if (entry.op == Op.DELETE) {
+            obj = cls.newInstance();
+            obj.setUuid(entry.uuid);
+        } else {
+            obj = codec.read(new ByteArrayInputStream(entry.content), cls, null);
+        }
+        switch (entry.op) {
+        case CREATE:
+            return client.findById(cls, entry.uuid) != null || client.create(obj);
+        case UPDATE:
+            return client.update(obj);
+        default:
+            if (client.findById(cls, entry.uuid) != null) {
+                client.delete(obj);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Waits until the journal is on disk up to the given offset, flushing it
+     * unless another writer is.
+     */
+    private void flush(long target) throws IOException {
+        MappedByteBuffer toFlush;
+        long upTo;
+        synchronized (this) {
+            while (durable < target && flushing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the journal");
+                }
+            }
+            if (durable >= target) {
+                return;
+            }
+            if (buffer == null) {
+                throw new IOException("Journal closed");
+            }
+            flushing = true;
+            toFlush = buffer;
+            upTo = appended;
+        }
+        boolean flushed = false;
+        long start = System.nanoTime();
+        try {
+            toFlush.force();
+            flushed = true;
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                if (flushed) {
+                    durable = Math.max(durable, upTo);
+                }
+                notifyAll();
+            }
+        }
+        metrics.increment("journal.flushes");
+        metrics.recordTime("journal.flush", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    private void append(byte[] record) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Journal closed");
+        }
+        // keep room for the zero length ending the segment
+        if (buffer.remaining() < record.length + 4) {
+            roll(segment + 1, record.length + 4);
+        }
+        buffer.put(record);
+        appended += record.length;
+    }
+
+    /**
+     * Starts a new segment holding the writes in flight, and deletes the
+     * current one.
+     *
+     * @param extra
+     *            Room needed in the new segment besides the writes in flight.
+     */
+    private void roll(long number, int extra) throws IOException {
+        int needed = extra + 4;
+        for (byte[] record : inFlight.values()) {
+            needed += record.length;
+        }
+        File previous = file == null ? null : segmentFile(directory, segment);
+        RandomAccessFile next = new RandomAccessFile(segmentFile(directory, number), "rw");
+        MappedByteBuffer mapped;
+        try {
+            mapped = next.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, 2 * needed));
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        for (byte[] record : inFlight.values()) {
+            mapped.put(record);
+            appended += record.length;
+        }
+        mapped.force();
+        durable = appended;
+        if (file != null) {
+            file.close();
+        }
+        file = next;
+        buffer = mapped;
+        segment = number;
+        if (previous != null && !previous.delete()) {
+            LOGGER.warn("Unable to delete the journal segment " + previous + "..");
+        }
+        metrics.increment("journal.segments");
+    }
+
+    private static byte[] intent(long sequence, Op op, String className, String uuid, byte[] content)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(INTENT);
+        out.writeLong(sequence);
+        out.writeByte(op.ordinal());
+        out.writeUTF(className);
+        out.writeUTF(uuid == null ? "" : uuid);
+        out.writeInt(content.length);
+        out.write(content);
+        return record(bytes.toByteArray());
+    }
+
+    private static byte[] record(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        byte[] record = new byte[HEADER + body.length];
+        ByteBuffer.wrap(record).putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return record;
+    }
+
+    /**
+     * Reads the records of a segment into the incomplete writes.
+     *
+     * @return The highest sequence number read.
+     */
+    private static long read(File segmentFile, Map<Long, Entry> incomplete) throws IOException {
+        long last = 0;
+        RandomAccessFile in = new RandomAccessFile(segmentFile, "r");
+        try {
+            MappedByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            while (mapped.remaining() >= HEADER) {
+                int length = mapped.getInt();
+                int checksum = mapped.getInt();
+                if (length <= 0 || length > mapped.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                mapped.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.warn("Corrupt record in the journal segment " + segmentFile + "..");
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte kind = record.readByte();
+                long recordSequence = record.readLong();
+                last = Math.max(last, recordSequence);
+                if (kind == INTENT) {
+                    Op op = Op.values()[record.readByte()];
+                    String className = record.readUTF();
+                    String uuid = record.readUTF();
+                    byte[] content = new byte[record.readInt()];
+                    record.readFully(content);
+                    incomplete.put(recordSequence, new Entry(recordSequence, op, className, uuid, content));
+                } else {
+                    incomplete.remove(recordSequence);
+                }
+            }
+        } catch (BufferUnderflowException | EOFException | ArrayIndexOutOfBoundsException e) {
+            LOGGER.warn("Truncated journal segment " + segmentFile + "..");
+        } finally {
+            in.close();
+        }
+        return last;
+    }
+
+    private static File[] segments(File directory) {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(segmentNumber(a), segmentNumber(b));
+            }
+        });
+        return segments;
+    }
+
+    private static long segmentNumber(File segmentFile) {
+        String name = segmentFile.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static File segmentFile(File directory, long number) {
+        return new File(directory, PREFIX + number + SUFFIX);
+    }
+}
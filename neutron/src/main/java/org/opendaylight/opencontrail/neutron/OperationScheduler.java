@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders Neutron operations that depend on each other and lets every
+ * independent operation run in parallel.
+ *
+ * Each operation is registered under a key such as {@code network:<uuid>} and
+ * names the keys of its parents. An operation is held back only while an
+ * earlier operation on its own key or on one of its parent keys is still
+ * pending; deletes can additionally wait until every pending operation that
+ * depends on them has finished. Operations run on the calling thread, so a
+ * held back operation costs no extra thread.
+ */
+public class OperationScheduler {
+    /**
+     * Logger instance.
+     */
+    static final Logger LOGGER = LoggerFactory.getLogger(OperationScheduler.class);
+    static final Collection<String> NO_PARENTS = Collections.emptyList();
+
+    private final long timeoutMillis;
+    private final Map<String, Operation> pending = new HashMap<String, Operation>();
+    private final Map<String, Set<Operation>> dependents = new HashMap<String, Set<Operation>>();
+
+    /**
+     * @param timeoutMillis
+     *            Maximum time an operation waits for its parents before it is
+     *            run anyway.
+     */
+    public OperationScheduler(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    static String networkKey(String networkUUID) {
+        return "network:" + networkUUID;
+    }
+
+    static String subnetKey(String subnetUUID) {
+        return "subnet:" + subnetUUID;
+    }
+
+    static String portKey(String portUUID) {
+        return "port:" + portUUID;
+    }
+
+    /**
+     * Key of the network-ipam reference of a network, which holds all its
+     * subnets: the subnet operations of a network are serialized on it, as
+     * each rewrites the subnets of all the others.
+     */
+    static String ipamKey(String networkUUID) {
+        return "ipam:" + networkUUID;
+    }
+
+    /**
+     * Runs the operation once the pending operations on its key and parent
+     * keys have completed.
+     *
+     * @param key
+     *            Key of the resource the operation works on.
+     * @param parents
+     *            Keys of the resources the operation depends on.
+     * @param operation
+     *            The operation, returning a HTTP status code.
+     * @return The HTTP status code returned by the operation.
+     */
+    public int execute(String key, Collection<String> parents, Callable<Integer> operation) throws Exception {
+        return execute(key, parents, false, operation);
+    }
+
+    /**
+     * Runs the operation once the pending operations on its key, and every
+     * pending operation depending on that key, have completed. Used for
+     * deletes, which must not overtake the creates of their children.
+     *
+     * @param key
+     *            Key of the resource the operation works on.
+     * @param operation
+     *            The operation, returning a HTTP status code.
+     * @return The HTTP status code returned by the operation.
+     */
+    public int executeAfterDependents(String key, Callable<Integer> operation) throws Exception {
+        return execute(key, NO_PARENTS, true, operation);
+    }
+
+    private int execute(String key, Collection<String> parents, boolean awaitDependents, Callable<Integer> operation)
+            throws Exception {
+        Operation op = new Operation(key, parents);
+        List<Operation> waitFor = register(op, awaitDependents);
+        try {
+            await(op, waitFor);
+            return operation.call();
+        } finally {
+            complete(op);
+        }
+    }
+
+    /**
+     * Number of operations currently registered, whether waiting or running.
+     */
+    synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private synchronized List<Operation> register(Operation op, boolean awaitDependents) {
+        List<Operation> waitFor = new ArrayList<Operation>();
+        Operation previous = pending.put(op.key, op);
+        if (previous != null) {
+            waitFor.add(previous);
+        }
+        for (String parent : op.parents) {
+            Operation parentOp = pending.get(parent);
+            if (parentOp != null) {
+                waitFor.add(parentOp);
+            }
+            Set<Operation> children = dependents.get(parent);
+            if (children == null) {
+                children = new HashSet<Operation>();
+                dependents.put(parent, children);
+            }
+            children.add(op);
+        }
+        if (awaitDependents) {
+            Set<Operation> children = dependents.get(op.key);
+            if (children != null) {
+                waitFor.addAll(children);
+            }
+        }
+        return waitFor;
+    }
+
+    private void await(Operation op, List<Operation> waitFor) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Operation other : waitFor) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !other.done.await(remaining, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Operation on " + op.key + " timed out waiting for " + other.key + ", running it anyway");
+                return;
+            }
+        }
+    }
+
+    private synchronized void complete(Operation op) {
+        if (pending.get(op.key) == op) {
+            pending.remove(op.key);
+        }
+        for (String parent : op.parents) {
+            Set<Operation> children = dependents.get(parent);
+            if (children != null) {
+                children.remove(op);
+                if (children.isEmpty()) {
+                    dependents.remove(parent);
+                }
+            }
+        }
+        op.done.countDown();
+    }
+
+    private static final class Operation {
+        final String key;
+        final Collection<String> parents;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Operation(String key, Collection<String> parents) {
+            this.key = key;
+            this.parents = parents;
+        }
+    }
+}
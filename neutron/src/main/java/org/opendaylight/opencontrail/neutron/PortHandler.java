@@ -10,10 +10,16 @@ package org.opendaylight.opencontrail.neutron;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
-import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiObjectBase;
 import net.juniper.contrail.api.ApiPropertyBase;
 import net.juniper.contrail.api.ObjectReference;
 import net.juniper.contrail.api.types.InstanceIp;
@@ -22,15 +28,17 @@ import net.juniper.contrail.api.types.VirtualMachine;
 import net.juniper.contrail.api.types.VirtualMachineInterface;
 import net.juniper.contrail.api.types.VirtualNetwork;
 
+import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkCRUD;
 import org.opendaylight.controller.networkconfig.neutron.INeutronPortAware;
+import org.opendaylight.controller.networkconfig.neutron.INeutronPortCRUD;
 import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
-import org.opendaylight.controller.networkconfig.neutron.NeutronCRUDInterfaces;
 import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
 import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
-import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Handle requests for Neutron Port.
  */
@@ -39,7 +47,104 @@ public class PortHandler implements INeutronPortAware {
      * Logger instance.
      */
     static final Logger LOGGER = LoggerFactory.getLogger(PortHandler.class);
-    static ApiConnector apiConnector;
+    private final ContrailBackend backend;
+    private final SubnetMetadataCache subnetCache;
+    private final InstanceIpIndex instanceIpIndex;
+    private final ChangeDetector changeDetector;
+    // tracked by the dependency manager, so the port path does no registry lookups
+    private volatile INeutronSubnetCRUD subnetCRUD;
+    private volatile INeutronNetworkCRUD networkCRUD;
+    private volatile INeutronPortCRUD portCRUD;
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     */
+    public PortHandler(ContrailBackend backend) {
+        this(backend, new SubnetMetadataCache(), new InstanceIpIndex(), new ChangeDetector(Activator.changeCapacity,
+                Activator.metrics));
+    }
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     * @param subnetCache
+     *            Subnet metadata shared with the subnet handler.
+     * @param instanceIpIndex
+     *            Instance IPs by network, kept up to date here for the subnet
+     *            handler.
+     * @param changeDetector
+     *            Fingerprints of the ports last written, to skip updates that
+     *            change nothing.
+     */
+    public PortHandler(ContrailBackend backend, SubnetMetadataCache subnetCache, InstanceIpIndex instanceIpIndex,
+            ChangeDetector changeDetector) {
+        this.backend = backend;
+        this.subnetCache = subnetCache;
+        this.instanceIpIndex = instanceIpIndex;
+        this.changeDetector = changeDetector;
+    }
+
+    /**
+     * Invoked by the dependency manager when the Neutron subnet CRUD service
+     * appears.
+     */
+    public void setSubnetCRUD(INeutronSubnetCRUD crud) {
+        subnetCRUD = crud;
+        subnetCache.clear();
+    }
+
+    /**
+     * Invoked by the dependency manager when the Neutron subnet CRUD service
+     * goes away.
+     */
+    public void unsetSubnetCRUD(INeutronSubnetCRUD crud) {
+        if (subnetCRUD == crud) {
+            subnetCRUD = null;
+            subnetCache.clear();
+        }
+    }
+
+    public void setNetworkCRUD(INeutronNetworkCRUD crud) {
+        networkCRUD = crud;
+    }
+
+    public void unsetNetworkCRUD(INeutronNetworkCRUD crud) {
+        if (networkCRUD == crud) {
+            networkCRUD = null;
+        }
+    }
+
+    public void setPortCRUD(INeutronPortCRUD crud) {
+        portCRUD = crud;
+    }
+
+    public void unsetPortCRUD(INeutronPortCRUD crud) {
+        if (portCRUD == crud) {
+            portCRUD = null;
+        }
+    }
+
+    INeutronSubnetCRUD getSubnetCRUD() {
+        return subnetCRUD;
+    }
+
+    INeutronNetworkCRUD getNetworkCRUD() {
+        return networkCRUD;
+    }
+
+    INeutronPortCRUD getPortCRUD() {
+        return portCRUD;
+    }
+
+    /**
+     * Invoked to get the Contrail client for the current connector.
+     *
+     * @return {@link ContrailClient}
+     */
+    private ContrailClient contrail() {
+        return backend.get();
+    }
 
     /**
      * Invoked when a port creation is requested to check if the specified Port
@@ -50,7 +155,7 @@ public class PortHandler implements INeutronPortAware {
      * @return A HTTP status code to the creation request.
      */
     @Override
-    public int canCreatePort(NeutronPort neutronPort) {
+    public int canCreatePort(final NeutronPort neutronPort) {
         if (neutronPort == null) {
             LOGGER.error("NeutronPort object can't be null..");
             return HttpURLConnection.HTTP_BAD_REQUEST;
@@ -68,15 +173,46 @@ public class PortHandler implements INeutronPortAware {
             LOGGER.warn("Neutron Fixed Ips can't be null..");
             return HttpURLConnection.HTTP_FORBIDDEN;
         }
-        apiConnector = Activator.apiConnector;
         try {
-            return createPort(neutronPort);
+            return Activator.operationScheduler.execute(OperationScheduler.portKey(neutronPort.getID()), getParentKeys(neutronPort),
+                    Activator.fairScheduler.wrap(neutronPort.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return createPort(neutronPort);
+                        }
+                    }));
         } catch (Exception e) {
             LOGGER.error("exception :   ", e);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
         }
     }
 
+    /**
+     * Invoked to get the scheduler keys of the network and subnets the port
+     * depends on.
+     *
+     * @param neutronPort
+     *            An instance of proposed new Neutron Port object.
+     * @return The keys of the port's parents.
+     */
+    List<String> getParentKeys(NeutronPort neutronPort) {
+        List<String> parents = new ArrayList<String>();
+        parents.add(OperationScheduler.networkKey(neutronPort.getNetworkUUID()));
+        addSubnetKeys(parents, neutronPort.getFixedIPs());
+        return parents;
+    }
+
+    private static void addSubnetKeys(List<String> keys, List<Neutron_IPs> ips) {
+        if (ips == null) {
+            return;
+        }
+        for (Neutron_IPs ipValues : ips) {
+            if (ipValues.getSubnetUUID() != null) {
+                keys.add(OperationScheduler.subnetKey(ipValues.getSubnetUUID()));
+            }
+        }
+    }
+
     /**
      * Invoked to create the specified Neutron port.
      *
@@ -97,36 +233,61 @@ public class PortHandler implements INeutronPortAware {
         VirtualNetwork virtualNetwork = null;
         MacAddressesType macAddressesType = new MacAddressesType();
         try {
-            networkID = UUID.fromString(neutronPort.getNetworkUUID()).toString();
-            portID = UUID.fromString(neutronPort.getID()).toString();
-            deviceID = UUID.fromString(neutronPort.getDeviceID()).toString();
+            networkID = Uuids.canonical(neutronPort.getNetworkUUID());
+            portID = Uuids.canonical(neutronPort.getID());
+            deviceID = Uuids.canonical(neutronPort.getDeviceID());
         } catch (Exception ex) {
             LOGGER.error("exception :   ", ex);
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
+        // resolved before anything is created, so that an unknown subnet leaves nothing behind
+        List<Neutron_IPs> ips = neutronPort.getFixedIPs();
+        List<String> addresses = new ArrayList<String>(ips.size());
+        for (Neutron_IPs ipValues : ips) {
+            String address = address(ipValues);
+            if (address == null) {
+                LOGGER.warn("Subnet " + ipValues.getSubnetUUID() + " of the port is unknown..");
+                return HttpURLConnection.HTTP_BAD_REQUEST;
+            }
+            // the instance IPs are created at once, and would all fail on the same address
+            if (addresses.contains(address)) {
+                LOGGER.warn("Address " + address + " is given to the port more than once..");
+                return HttpURLConnection.HTTP_BAD_REQUEST;
+            }
+            addresses.add(address);
+        }
+        VirtualMachine createdMachine = null;
+        VirtualMachineInterface createdInterface = null;
+        boolean created = false;
         try {
             LOGGER.debug("portId:    " + portID);
-            virtualMachineInterface = (VirtualMachineInterface) apiConnector.findById(VirtualMachineInterface.class, portID);
+            virtualMachineInterface = contrail().findDuplicate(VirtualMachineInterface.class, portID);
             if (virtualMachineInterface != null) {
                 LOGGER.warn("Port already exist.");
                 return HttpURLConnection.HTTP_FORBIDDEN;
             } else {
-                virtualMachine = (VirtualMachine) apiConnector.findById(VirtualMachine.class, deviceID);
+                // the VM and network lookups do not depend on each other
+                ListenableFuture<VirtualMachine> virtualMachineLookup = contrail().findFieldsAsync(VirtualMachine.class,
+                        deviceID);
+                ListenableFuture<VirtualNetwork> virtualNetworkLookup = contrail().findFieldsAsync(VirtualNetwork.class,
+                        networkID);
+                virtualMachine = ContrailClient.await(virtualMachineLookup);
                 LOGGER.debug("virtualMachine:   " + virtualMachine);
                 if (virtualMachine == null) {
                     virtualMachine = new VirtualMachine();
                     virtualMachine.setName(deviceID);
                     virtualMachine.setUuid(deviceID);
-                    boolean virtualMachineCreated = apiConnector.create(virtualMachine);
+                    boolean virtualMachineCreated = contrail().create(virtualMachine);
                     LOGGER.debug("virtualMachineCreated: " + virtualMachineCreated);
                     if (!virtualMachineCreated) {
                         LOGGER.warn("virtualMachine creation failed..");
                         return HttpURLConnection.HTTP_INTERNAL_ERROR;
                     }
+                    createdMachine = virtualMachine;
                     LOGGER.info("virtualMachine : " + virtualMachine.getName() + "  having UUID : " + virtualMachine.getUuid()
                             + "  sucessfully created...");
                 }
-                virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, networkID);
+                virtualNetwork = ContrailClient.await(virtualNetworkLookup);
                 LOGGER.info("virtualNetwork: " + virtualNetwork);
                 if (virtualNetwork == null) {
                     LOGGER.warn("virtualNetwork does not exist..");
@@ -139,44 +300,149 @@ public class PortHandler implements INeutronPortAware {
                     virtualMachineInterface.setVirtualNetwork(virtualNetwork);
                     macAddressesType.addMacAddress(portMACAddress);
                     virtualMachineInterface.setMacAddresses(macAddressesType);
-                    boolean virtualMachineInterfaceCreated = apiConnector.create(virtualMachineInterface);
+                    boolean virtualMachineInterfaceCreated = contrail().create(virtualMachineInterface);
                     if (!virtualMachineInterfaceCreated) {
                         LOGGER.warn("virtualMachineInterface creation failed..");
                         return HttpURLConnection.HTTP_INTERNAL_ERROR;
                     }
+                    createdInterface = virtualMachineInterface;
                     LOGGER.info("virtualMachineInterface : " + virtualMachineInterface.getName() + "  having UUID : "
                             + virtualMachineInterface.getUuid() + "  sucessfully created...");
                 }
             }
-            INeutronSubnetCRUD systemCRUD = NeutronCRUDInterfaces.getINeutronSubnetCRUD(this);
-            NeutronSubnet subnet = null;
-            List<Neutron_IPs> ips = neutronPort.getFixedIPs();
-            InstanceIp instanceIp = new InstanceIp();
-            String instaneIpUuid = UUID.randomUUID().toString();
-            for (Neutron_IPs ipValues : ips) {
-                if (ipValues.getIpAddress() == null) {
-                    subnet = systemCRUD.getSubnet(ipValues.getSubnetUUID());
-                    instanceIp.setAddress(subnet.getLowAddr());
-                } else {
-                    instanceIp.setAddress(ipValues.getIpAddress());
-                }
+            List<InstanceIp> instanceIps = new ArrayList<InstanceIp>(addresses.size());
+            for (String address : addresses) {
+                instanceIps.add(newInstanceIp(address, virtualMachineInterface, virtualNetwork));
             }
-            instanceIp.setName(instaneIpUuid);
-            instanceIp.setUuid(instaneIpUuid);
-            instanceIp.setParent(virtualMachineInterface);
-            instanceIp.setVirtualMachineInterface(virtualMachineInterface);
-            instanceIp.setVirtualNetwork(virtualNetwork);
-            boolean instanceIpCreated = apiConnector.create(instanceIp);
-            if (!instanceIpCreated) {
+            if (!createInstanceIps(instanceIps, virtualNetwork.getUuid())) {
                 LOGGER.warn("instanceIp addition failed..");
                 return HttpURLConnection.HTTP_INTERNAL_ERROR;
             }
-            LOGGER.info("Instance IP added sucessfully...");
+            changeDetector.written(OperationScheduler.portKey(portID),
+                    fingerprint(portDesc, portMACAddress, deviceID, new HashSet<String>(addresses)));
+            LOGGER.info(instanceIps.size() + " Instance IPs added sucessfully...");
+            created = true;
             return HttpURLConnection.HTTP_OK;
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
         } catch (IOException ie) {
             LOGGER.error("IOException :    ", ie);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } finally {
+            if (!created) {
+                // the instance IPs have been rolled back already, the VMI goes before its VM
+                rollBack(createdInterface);
+                rollBack(createdMachine);
+            }
+        }
+    }
+
+    /**
+     * Invoked to delete an object a failed port creation has created, so that
+     * the creation can be retried.
+     *
+     * @param obj
+     *            The VMI or VM created, or null if none was.
+     */
+    private void rollBack(ApiObjectBase obj) {
+        if (obj == null) {
+            return;
+        }
+        try {
+            contrail().delete(obj);
+            LOGGER.info(obj.getClass().getSimpleName() + " " + obj.getUuid() + " rolled back...");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error(obj.getClass().getSimpleName() + " " + obj.getUuid() + " could not be rolled back :   " + e);
+        }
+    }
+
+    /**
+     * Invoked to get the address of a fixed IP, which is the lowest address
+     * of its subnet if none is given.
+     *
+     * @param ipValues
+     *            A fixed IP of a Neutron port.
+     * @return The address, or null if the subnet is unknown.
+     */
+    private String address(Neutron_IPs ipValues) {
+        if (ipValues.getIpAddress() != null) {
+            return ipValues.getIpAddress();
+        }
+        SubnetMetadataCache.SubnetMetadata subnet = subnetCache.get(ipValues.getSubnetUUID(), subnetCRUD);
+        return subnet == null ? null : subnet.getLowAddr();
+    }
+
+    /**
+     * Invoked to build a new instance IP of a port.
+     */
+    private InstanceIp newInstanceIp(String address, VirtualMachineInterface virtualMachineInterface,
+            VirtualNetwork virtualNetwork) {
+        InstanceIp instanceIp = new InstanceIp();
+        String instanceIpUuid = UUID.randomUUID().toString();
+        instanceIp.setAddress(address);
+        instanceIp.setName(instanceIpUuid);
+        instanceIp.setUuid(instanceIpUuid);
+        instanceIp.setParent(virtualMachineInterface);
+        instanceIp.setVirtualMachineInterface(virtualMachineInterface);
+        instanceIp.setVirtualNetwork(virtualNetwork);
+        return instanceIp;
+    }
+
+    /**
+     * Invoked to create the instance IPs of a port, all at once. If any of them
+     * is not created, the ones that were are deleted again.
+     *
+     * @param instanceIps
+     *            Instance IPs of the port.
+     * @param networkUuid
+     *            UUID of the network of the port.
+     * @return true if all the instance IPs were created.
+     */
+    private boolean createInstanceIps(List<InstanceIp> instanceIps, String networkUuid) throws IOException {
+        ContrailClient contrail = contrail();
+        List<ListenableFuture<Boolean>> creates = new ArrayList<ListenableFuture<Boolean>>(instanceIps.size());
+        for (InstanceIp instanceIp : instanceIps) {
+            creates.add(contrail.createAsync(instanceIp));
+        }
+        // wait for every create, so none completes after the rollback
+        List<InstanceIp> created = new ArrayList<InstanceIp>(instanceIps.size());
+        Exception failure = null;
+        for (int i = 0; i < creates.size(); i++) {
+            try {
+                if (ContrailClient.await(creates.get(i))) {
+                    created.add(instanceIps.get(i));
+                } else if (failure == null) {
+                    failure = new IOException("Contrail refused instance IP " + instanceIps.get(i).getAddress());
+                }
+            } catch (IOException | RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure == null) {
+            for (InstanceIp instanceIp : instanceIps) {
+                instanceIpIndex.add(networkUuid, instanceIp.getUuid(), instanceIp.getAddress());
+            }
+            return true;
         }
+        LOGGER.warn("Rolling back " + created.size() + " of " + instanceIps.size() + " instance IPs :   " + failure);
+        List<ListenableFuture<Void>> deletes = new ArrayList<ListenableFuture<Void>>(created.size());
+        for (InstanceIp instanceIp : created) {
+            deletes.add(contrail.deleteAsync(instanceIp));
+        }
+        for (int i = 0; i < deletes.size(); i++) {
+            try {
+                ContrailClient.await(deletes.get(i));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Instance IP " + created.get(i).getUuid() + " could not be rolled back :   " + e);
+            }
+        }
+        if (failure instanceof ContrailOverloadException) {
+            throw (ContrailOverloadException) failure;
+        }
+        return false;
     }
 
     /**
@@ -188,13 +454,19 @@ public class PortHandler implements INeutronPortAware {
     @Override
     public void neutronPortCreated(NeutronPort neutronPort) {
         VirtualMachineInterface virtualMachineInterface = null;
+        FairScheduler.Ticket ticket = null;
         try {
-            virtualMachineInterface = (VirtualMachineInterface) apiConnector.findById(VirtualMachineInterface.class, neutronPort.getPortUUID());
+            ticket = Activator.fairScheduler.acquire(neutronPort.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            virtualMachineInterface = contrail().findFields(VirtualMachineInterface.class, neutronPort.getPortUUID());
             if (virtualMachineInterface != null) {
                 LOGGER.info("Port creation verified....");
             }
         } catch (Exception e) {
             LOGGER.error("Exception :    " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 
@@ -207,14 +479,20 @@ public class PortHandler implements INeutronPortAware {
      * @return A HTTP status code to the deletion request.
      */
     @Override
-    public int canDeletePort(NeutronPort neutronPort) {
+    public int canDeletePort(final NeutronPort neutronPort) {
         if (neutronPort == null) {
             LOGGER.info("Port object can't be null...");
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
-        apiConnector = Activator.apiConnector;
         try {
-            return deletePort(neutronPort);
+            return Activator.operationScheduler.execute(OperationScheduler.portKey(neutronPort.getID()),
+                    Collections.singletonList(OperationScheduler.networkKey(neutronPort.getNetworkUUID())),
+                    Activator.fairScheduler.wrap(neutronPort.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return deletePort(neutronPort);
+                        }
+                    }));
         } catch (Exception e) {
             LOGGER.error("exception :   ", e);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -229,12 +507,15 @@ public class PortHandler implements INeutronPortAware {
      *
      * @return A HTTP status code to the deletion request.
      */
-    private int deletePort(NeutronPort neutronPort) {
-        String portID = neutronPort.getID();
+    int deletePort(NeutronPort neutronPort) {
+        // the VMI, the change detector and the instance IP index are keyed by
+        // the UUIDs of Contrail, which are canonical
+        String portID = Uuids.canonicalIfUuid(neutronPort.getID());
+        String networkID = Uuids.canonicalIfUuid(neutronPort.getNetworkUUID());
         VirtualMachineInterface virtualMachineInterface = null;
         InstanceIp instanceIP = null;
         try {
-            virtualMachineInterface = (VirtualMachineInterface) apiConnector.findById(VirtualMachineInterface.class, portID);
+            virtualMachineInterface = contrail().findFields(VirtualMachineInterface.class, portID, "instance_ip_back_refs");
             if (virtualMachineInterface == null) {
                 LOGGER.info("Specified port does not exist...");
                 return HttpURLConnection.HTTP_BAD_REQUEST;
@@ -244,15 +525,26 @@ public class PortHandler implements INeutronPortAware {
                     for (ObjectReference<ApiPropertyBase> ref : instanceIPs) {
                         String instanceIPUUID = ref.getUuid();
                         if (instanceIPUUID != null) {
-                            instanceIP = (InstanceIp) apiConnector.findById(InstanceIp.class, instanceIPUUID);
-                            apiConnector.delete(instanceIP);
+                            // the address is what the instance IP index is searched by
+                            instanceIP = contrail().findFields(InstanceIp.class, instanceIPUUID,
+                                    "instance_ip_address");
+                            if (instanceIP == null) {
+                                LOGGER.debug("Instance IP " + instanceIPUUID + " is already deleted...");
+                                continue;
+                            }
+                            contrail().delete(instanceIP);
+                            instanceIpIndex.remove(networkID, instanceIPUUID, instanceIP.getAddress());
                         }
                     }
                 }
-                apiConnector.delete(virtualMachineInterface);
+                contrail().delete(virtualMachineInterface);
+                changeDetector.forget(OperationScheduler.portKey(portID));
                 LOGGER.info("Specified port deleted sucessfully...");
                 return HttpURLConnection.HTTP_OK;
             }
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
         } catch (IOException io) {
             LOGGER.error("Exception  :   " + io);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -271,22 +563,351 @@ public class PortHandler implements INeutronPortAware {
     @Override
     public void neutronPortDeleted(NeutronPort neutronPort) {
         VirtualMachineInterface virtualMachineInterface = null;
+        FairScheduler.Ticket ticket = null;
         try {
-            virtualMachineInterface = (VirtualMachineInterface) apiConnector.findById(VirtualMachineInterface.class, neutronPort.getPortUUID());
+            ticket = Activator.fairScheduler.acquire(neutronPort.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            virtualMachineInterface = contrail().findFields(VirtualMachineInterface.class, neutronPort.getPortUUID());
             if (virtualMachineInterface == null) {
                 LOGGER.info("Port deletion verified....");
             }
         } catch (Exception e) {
             LOGGER.error("Exception :    " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 
+    /**
+     * Invoked when a port update is requested to check if the specified Port
+     * can be updated and then updates it.
+     *
+     * @param deltaPort
+     *            Updates to the port object using patch semantics.
+     * @param originalPort
+     *            An instance of the Neutron Port object to be updated.
+     * @return A HTTP status code to the update request.
+     */
     @Override
-    public int canUpdatePort(NeutronPort arg0, NeutronPort arg1) {
-        return 0;
+    public int canUpdatePort(final NeutronPort deltaPort, final NeutronPort originalPort) {
+        if (deltaPort == null || originalPort == null) {
+            LOGGER.error("Neutron Ports can't be null..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        if (("").equals(deltaPort.getName()) || ("").equals(deltaPort.getDeviceID())) {
+            LOGGER.error("Port name or Device Id can't be empty...");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        List<String> parents = getParentKeys(originalPort);
+        addSubnetKeys(parents, deltaPort.getFixedIPs());
+        try {
+            return Activator.operationScheduler.execute(OperationScheduler.portKey(originalPort.getID()), parents,
+                    Activator.fairScheduler.wrap(originalPort.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return updatePort(deltaPort, originalPort);
+                        }
+                    }));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        } catch (IOException ie) {
+            LOGGER.error("IOException:     " + ie);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } catch (Exception e) {
+            LOGGER.error("Exception:     " + e);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Invoked to update the specified Neutron port. Only the Contrail objects
+     * affected by the fields that changed are touched: the VMI for the name
+     * and MAC address, and the instance IPs of the fixed IPs added or
+     * removed. A new device is the parent of the VMI, which Contrail does not
+     * let change, so the VMI and its instance IPs are created again under it.
+     * A delta that changes nothing makes no call to Contrail.
+     *
+     * @param deltaPort
+     *            Updates to the port object using patch semantics.
+     * @param originalPort
+     *            An instance of the Neutron Port object to be updated.
+     * @return A HTTP status code to the update request.
+     */
+    int updatePort(NeutronPort deltaPort, NeutronPort originalPort) throws IOException {
+        // keyed as the port was created, by the UUIDs of Contrail
+        String portID = Uuids.canonicalIfUuid(originalPort.getID());
+        String networkID = Uuids.canonicalIfUuid(originalPort.getNetworkUUID());
+        boolean nameChanged = changed(deltaPort.getName(), originalPort.getName());
+        boolean macChanged = changed(deltaPort.getMacAddress(), originalPort.getMacAddress());
+        boolean deviceChanged = changed(deltaPort.getDeviceID(), originalPort.getDeviceID());
+        List<String> addedAddresses = new ArrayList<String>();
+        Set<String> removedAddresses = new HashSet<String>();
+        Set<String> originalAddresses = new HashSet<String>();
+        if (originalPort.getFixedIPs() != null) {
+            for (Neutron_IPs ipValues : originalPort.getFixedIPs()) {
+                originalAddresses.add(address(ipValues));
+            }
+        }
+        Set<String> addresses = originalAddresses;
+        if (deltaPort.getFixedIPs() != null) {
+            Set<String> deltaAddresses = new HashSet<String>();
+            for (Neutron_IPs ipValues : deltaPort.getFixedIPs()) {
+                String address = address(ipValues);
+                if (address == null) {
+                    LOGGER.warn("Subnet " + ipValues.getSubnetUUID() + " of the port is unknown..");
+                    return HttpURLConnection.HTTP_BAD_REQUEST;
+                }
+                if (deltaAddresses.add(address) && !originalAddresses.contains(address)) {
+                    addedAddresses.add(address);
+                }
+            }
+            removedAddresses.addAll(originalAddresses);
+            removedAddresses.removeAll(deltaAddresses);
+            removedAddresses.remove(null);
+            addresses = deltaAddresses;
+        }
+        if (!nameChanged && !macChanged && !deviceChanged && addedAddresses.isEmpty() && removedAddresses.isEmpty()) {
+            LOGGER.debug("Port " + portID + " is unchanged...");
+            return HttpURLConnection.HTTP_OK;
+        }
+        String key = OperationScheduler.portKey(portID);
+        long fingerprint = fingerprint(nameChanged ? deltaPort.getName() : originalPort.getName(),
+                macChanged ? deltaPort.getMacAddress() : originalPort.getMacAddress(),
+                Uuids.canonicalIfUuid(deviceChanged ? deltaPort.getDeviceID() : originalPort.getDeviceID()), addresses);
+        if (changeDetector.isUnchanged(key, fingerprint)) {
+            LOGGER.debug("Port " + portID + " is unchanged in Contrail...");
+            return HttpURLConnection.HTTP_OK;
+        }
+        if (deviceChanged) {
+            int status = recreateVirtualMachineInterface(portID, networkID, deltaPort.getDeviceID(),
+                    nameChanged ? deltaPort.getName() : originalPort.getName(),
+                    macChanged ? deltaPort.getMacAddress() : originalPort.getMacAddress(), addresses);
+            if (status == HttpURLConnection.HTTP_OK) {
+                changeDetector.written(key, fingerprint);
+                LOGGER.info("Port having UUID : " + portID + "  has been sucessfully moved to its new device...");
+            }
+            return status;
+        }
+        VirtualMachineInterface virtualMachineInterface = removedAddresses.isEmpty() ? contrail().findFieldsForUpdate(
+                VirtualMachineInterface.class, portID) : contrail().findFieldsForUpdate(VirtualMachineInterface.class,
+                portID, "instance_ip_back_refs");
+        if (virtualMachineInterface == null) {
+            LOGGER.warn("No port exists for the specified UUID...");
+            return HttpURLConnection.HTTP_FORBIDDEN;
+        }
+        if (nameChanged || macChanged) {
+            int status = updateVirtualMachineInterface(virtualMachineInterface, deltaPort, nameChanged, macChanged);
+            if (status != HttpURLConnection.HTTP_OK) {
+                return status;
+            }
+        }
+        if (!removedAddresses.isEmpty() && !deleteInstanceIps(virtualMachineInterface, removedAddresses, networkID)) {
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        if (!addedAddresses.isEmpty()) {
+            VirtualNetwork virtualNetwork = contrail().findFields(VirtualNetwork.class, networkID);
+            if (virtualNetwork == null) {
+                LOGGER.warn("virtualNetwork does not exist..");
+                return HttpURLConnection.HTTP_BAD_REQUEST;
+            }
+            List<InstanceIp> instanceIps = new ArrayList<InstanceIp>(addedAddresses.size());
+            for (String address : addedAddresses) {
+                instanceIps.add(newInstanceIp(address, virtualMachineInterface, virtualNetwork));
+            }
+            if (!createInstanceIps(instanceIps, virtualNetwork.getUuid())) {
+                LOGGER.warn("instanceIp addition failed..");
+                return HttpURLConnection.HTTP_INTERNAL_ERROR;
+            }
+        }
+        changeDetector.written(key, fingerprint);
+        LOGGER.info("Port having UUID : " + portID + "  has been sucessfully updated...");
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static boolean changed(String delta, String original) {
+        return delta != null && !delta.equals(original);
     }
 
+    /**
+     * Returns the fingerprint of the Contrail state of a port, whatever the
+     * order of its fixed IPs.
+     */
+    private static long fingerprint(String name, String macAddress, String deviceID, Set<String> addresses) {
+        Set<String> sorted = new TreeSet<String>();
+        for (String address : addresses) {
+            if (address != null) {
+                sorted.add(address);
+            }
+        }
+        return ChangeDetector.fingerprint(name, macAddress, deviceID, sorted);
+    }
+
+    /**
+     * Invoked to write the changed name and MAC address of a port to its VMI.
+     */
+    private int updateVirtualMachineInterface(VirtualMachineInterface virtualMachineInterface, NeutronPort deltaPort,
+            boolean nameChanged, boolean macChanged) throws IOException {
+        if (nameChanged) {
+            virtualMachineInterface.setDisplayName(deltaPort.getName());
+        }
+        if (macChanged) {
+            MacAddressesType macAddressesType = new MacAddressesType();
+            macAddressesType.addMacAddress(deltaPort.getMacAddress());
+            virtualMachineInterface.setMacAddresses(macAddressesType);
+        }
+        if (!contrail().update(virtualMachineInterface)) {
+            LOGGER.warn("virtualMachineInterface update failed..");
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Invoked to move a port to a new device. The fully qualified name and
+     * parent of a VMI are fixed once created, so the instance IPs and the VMI
+     * are deleted and created again, with the same UUID and name, under the
+     * virtual machine of the device, which is created if it does not exist
+     * yet. A port left deleted by a failure is created again by the
+     * {@link NeutronReconciler}.
+     *
+     * @param addresses
+     *            Addresses of the fixed IPs of the port once updated.
+     * @return A HTTP status code to the update request.
+     */
+    private int recreateVirtualMachineInterface(String portID, String networkID, String deviceUUID, String name,
+            String macAddress, Set<String> addresses) throws IOException {
+        String deviceID;
+        try {
+            deviceID = Uuids.canonical(deviceUUID);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.error("exception :   ", ex);
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        VirtualMachineInterface original = contrail().findFieldsForUpdate(VirtualMachineInterface.class, portID,
+                "instance_ip_back_refs");
+        if (original == null) {
+            LOGGER.warn("No port exists for the specified UUID...");
+            return HttpURLConnection.HTTP_FORBIDDEN;
+        }
+        VirtualNetwork virtualNetwork = contrail().findFields(VirtualNetwork.class, networkID);
+        if (virtualNetwork == null) {
+            LOGGER.warn("virtualNetwork does not exist..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        VirtualMachine virtualMachine = contrail().findFields(VirtualMachine.class, deviceID);
+        if (virtualMachine == null) {
+            virtualMachine = new VirtualMachine();
+            virtualMachine.setName(deviceID);
+            virtualMachine.setUuid(deviceID);
+            if (!contrail().create(virtualMachine)) {
+                LOGGER.warn("virtualMachine creation failed..");
+                return HttpURLConnection.HTTP_INTERNAL_ERROR;
+            }
+        }
+        // the instance IPs are children of the VMI
+        if (!deleteInstanceIps(original, null, networkID)) {
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        contrail().delete(original);
+        List<String> fqName = original.getQualifiedName();
+        VirtualMachineInterface virtualMachineInterface = new VirtualMachineInterface();
+        virtualMachineInterface.setUuid(portID);
+        virtualMachineInterface.setName(fqName != null && !fqName.isEmpty() ? fqName.get(fqName.size() - 1)
+                : original.getName());
+        virtualMachineInterface.setDisplayName(name);
+        virtualMachineInterface.setParent(virtualMachine);
+        virtualMachineInterface.setVirtualNetwork(virtualNetwork);
+        MacAddressesType macAddressesType = new MacAddressesType();
+        macAddressesType.addMacAddress(macAddress);
+        virtualMachineInterface.setMacAddresses(macAddressesType);
+        if (!contrail().create(virtualMachineInterface)) {
+            LOGGER.warn("virtualMachineInterface creation failed..");
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        List<InstanceIp> instanceIps = new ArrayList<InstanceIp>(addresses.size());
+        for (String address : addresses) {
+            if (address != null) {
+                instanceIps.add(newInstanceIp(address, virtualMachineInterface, virtualNetwork));
+            }
+        }
+        if (!createInstanceIps(instanceIps, virtualNetwork.getUuid())) {
+            LOGGER.warn("instanceIp addition failed..");
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Invoked to delete the instance IPs of a port holding the given
+     * addresses. The instance IPs are read and deleted all at once.
+     *
+     * @param addresses
+     *            Addresses of the instance IPs to delete, or null for all.
+     * @param networkUuid
+     *            UUID of the network of the port.
+     * @return true if all of them were deleted.
+     */
+    private boolean deleteInstanceIps(VirtualMachineInterface virtualMachineInterface, Set<String> addresses,
+            String networkUuid) throws IOException {
+        List<ObjectReference<ApiPropertyBase>> refs = virtualMachineInterface.getInstanceIpBackRefs();
+        if (refs == null) {
+            return true;
+        }
+        ContrailClient contrail = contrail();
+        List<ListenableFuture<InstanceIp>> lookups = new ArrayList<ListenableFuture<InstanceIp>>(refs.size());
+        for (ObjectReference<ApiPropertyBase> ref : refs) {
+            lookups.add(contrail.findFieldsAsync(InstanceIp.class, ref.getUuid(), "instance_ip_address"));
+        }
+        List<InstanceIp> instanceIps = new ArrayList<InstanceIp>();
+        List<ListenableFuture<Void>> deletes = new ArrayList<ListenableFuture<Void>>();
+        for (ListenableFuture<InstanceIp> lookup : lookups) {
+            InstanceIp instanceIp = ContrailClient.await(lookup);
+            if (instanceIp != null && (addresses == null || addresses.contains(instanceIp.getAddress()))) {
+                instanceIps.add(instanceIp);
+                deletes.add(contrail.deleteAsync(instanceIp));
+            }
+        }
+        boolean deleted = true;
+        for (int i = 0; i < deletes.size(); i++) {
+            try {
+                ContrailClient.await(deletes.get(i));
+                instanceIpIndex.remove(networkUuid, instanceIps.get(i).getUuid(), instanceIps.get(i).getAddress());
+            } catch (ContrailOverloadException oe) {
+                throw oe;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("instanceIp deletion failed :   " + e);
+                deleted = false;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Invoked to take action after a port has been updated.
+     *
+     * @param neutronPort
+     *            An instance of modified Neutron port object.
+     */
     @Override
-    public void neutronPortUpdated(NeutronPort arg0) {
+    public void neutronPortUpdated(NeutronPort neutronPort) {
+        FairScheduler.Ticket ticket = null;
+        try {
+            ticket = Activator.fairScheduler.acquire(neutronPort.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            VirtualMachineInterface virtualMachineInterface = contrail().findFields(VirtualMachineInterface.class,
+                    neutronPort.getPortUUID());
+            if (virtualMachineInterface != null) {
+                LOGGER.info("Port updatation verified....");
+            } else {
+                LOGGER.info("Port updatation failed....");
+            }
+        } catch (Exception e) {
+            LOGGER.error("Exception :    " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
+        }
     }
-}
\ No newline at end of file
+}
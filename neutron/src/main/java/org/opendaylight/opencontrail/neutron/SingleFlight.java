@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent identical calls into one.
+ *
+ * The first caller for a key runs the call; callers arriving for the same key
+ * while it is in flight wait for it and get its result or exception. Nothing
+ * is kept once the call has completed, so this is not a cache.
+ */
+public class SingleFlight<V> {
+    private final ConcurrentMap<String, Flight<V>> inFlight = new ConcurrentHashMap<String, Flight<V>>();
+    private final String name;
+    private final ContrailMetrics metrics;
+
+    /**
+     * Call that may be coalesced.
+     */
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    /**
+     * @param name
+     *            Name under which the number of coalesced calls is reported.
+     * @param metrics
+     *            Where the number of coalesced calls is recorded.
+     */
+    public SingleFlight(String name, ContrailMetrics metrics) {
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the call, or joins the call already in flight for the same key.
+     */
+    public V execute(String key, Call<V> call) throws IOException {
+        Flight<V> flight = new Flight<V>();
+        Flight<V> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            metrics.increment(name + ".coalesced");
+            return leader.await();
+        }
+        try {
+            flight.result = call.call();
+            return flight.result;
+        } catch (IOException e) {
+            flight.failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            flight.failure = e;
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    /**
+     * Makes callers arriving from now on start a new call for the key instead
+     * of joining the one in flight, e.g. because the object has just been
+     * written.
+     */
+    public void forget(String key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Like {@link #forget} for every key starting with the given prefix.
+     */
+    public void forgetPrefix(String prefix) {
+        for (String key : inFlight.keySet()) {
+            if (key.startsWith(prefix)) {
+                inFlight.remove(key);
+            }
+        }
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static final class Flight<V> {
+        final CountDownLatch done = new CountDownLatch(1);
+        V result;
+        Exception failure;
+
+        V await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a coalesced Contrail call");
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiObjectBase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Compact binary snapshot of the state the plugin keeps about Contrail, so a
+ * restarted controller does not read it all again before serving.
+ *
+ * The snapshot holds the seeded existence filters of the Contrail client and
+ * the instance IPs of the networks loaded in the {@link InstanceIpIndex}, with
+ * UUIDs as two longs and addresses as raw bytes. It is written to a temporary
+ * file renamed over the previous snapshot, so a crash leaves the previous one
+ * whole, and read back through a memory mapping.
+ *
+ * What is restored may be stale, so it is validated against Contrail in the
+ * background: the filters are seeded again, replacing the restored ones once
+ * done, and the instance IPs of every restored network are diffed with those
+ * listed from Contrail.
+ */
+public class StateSnapshot {
+    static final Logger LOGGER = LoggerFactory.getLogger(StateSnapshot.class);
+    static final int MAGIC = 0x4f435353;
+    static final short VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final File file;
+    private final ContrailBackend backend;
+    private final InstanceIpIndex instanceIpIndex;
+    private final ContrailMetrics metrics;
+    private final int filterCapacity;
+    private final long pauseMillis;
+    private final List<Class<? extends ApiObjectBase>> restoredTypes = new ArrayList<Class<? extends ApiObjectBase>>();
+    private final List<String> restoredNetworks = new ArrayList<String>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param file
+     *            File the snapshot is written to and read from.
+     * @param backend
+     *            Contrail backend the state is saved from and validated
+     *            against.
+     * @param filterCapacity
+     *            Number of objects the filters seeded again are sized for at
+     *            first.
+     * @param networksPerSecond
+     *            Number of networks validated per second at most.
+     */
+    public StateSnapshot(File file, ContrailBackend backend, InstanceIpIndex instanceIpIndex, ContrailMetrics metrics,
+            int filterCapacity, int networksPerSecond) {
+        this.file = file;
+        this.backend = backend;
+        this.instanceIpIndex = instanceIpIndex;
+        this.metrics = metrics;
+        this.filterCapacity = filterCapacity;
+        this.pauseMillis = 1000L / Math.max(1, networksPerSecond);
+    }
+
+    /**
+     * Writes the state of the current Contrail client and of the instance IP
+     * index to the snapshot file.
+     */
+    public synchronized void save() throws IOException {
+        long start = System.nanoTime();
+        ContrailClient client = backend.get();
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            Map<Class<?>, ExistenceFilter> filters = client == null ? new HashMap<Class<?>, ExistenceFilter>()
+                    : client.seededFilters();
+            out.writeInt(filters.size());
+            for (Map.Entry<Class<?>, ExistenceFilter> filter : filters.entrySet()) {
+                writeString(out, filter.getKey().getName());
+                filter.getValue().writeTo(out);
+            }
+            Map<String, Map<String, String>> networks = new HashMap<String, Map<String, String>>();
+            for (String networkUuid : instanceIpIndex.loadedNetworks()) {
+                Map<String, String> addresses = instanceIpIndex.addresses(networkUuid);
+                if (addresses != null) {
+                    networks.put(networkUuid, addresses);
+                }
+            }
+            out.writeInt(networks.size());
+            for (Map.Entry<String, Map<String, String>> network : networks.entrySet()) {
+                writeId(out, network.getKey());
+                out.writeInt(network.getValue().size());
+                for (Map.Entry<String, String> instanceIp : network.getValue().entrySet()) {
+                    writeId(out, instanceIp.getKey());
+                    byte[] address = InetAddresses.forString(instanceIp.getValue()).getAddress();
+                    out.writeByte(address.length);
+                    out.write(address);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        metrics.set("snapshot.bytes", file.length());
+        metrics.recordTime("snapshot.save", (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Restores the snapshot file into a Contrail client and the instance IP
+     * index, to be validated later with {@link #validate}.
+     *
+     * @return false if there is no usable snapshot, in which case nothing is
+     *         restored.
+     */
+    public synchronized boolean restore(ContrailClient client) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        MappedByteBuffer in;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        Map<Class<? extends ApiObjectBase>, ExistenceFilter> filters = new HashMap<Class<? extends ApiObjectBase>, ExistenceFilter>();
+        Map<String, Map<String, String>> networks = new HashMap<String, Map<String, String>>();
+        try {
+            if (in.getInt() != MAGIC || in.getShort() != VERSION) {
+                LOGGER.warn("Snapshot " + file + " not in correct format..");
+                return false;
+            }
+            long savedAt = in.getLong();
+            for (int count = in.getInt(); count > 0; count--) {
+                Class<? extends ApiObjectBase> cls = Class.forName(readString(in), false,
+                        ApiObjectBase.class.getClassLoader()).asSubclass(ApiObjectBase.class);
+                filters.put(cls, ExistenceFilter.readFrom(in));
+            }
+            for (int count = in.getInt(); count > 0; count--) {
+                String networkUuid = readId(in);
+                Map<String, String> addresses = new HashMap<String, String>();
+                for (int ips = in.getInt(); ips > 0; ips--) {
+                    String instanceIpUuid = readId(in);
+                    byte[] address = new byte[in.get() & 0xff];
+                    in.get(address);
+                    addresses.put(instanceIpUuid, InetAddresses.toAddrString(InetAddress.getByAddress(address)));
+                }
+                networks.put(networkUuid, addresses);
+            }
+            LOGGER.info("Snapshot " + file + " of " + (System.currentTimeMillis() - savedAt) / 1000
+                    + " seconds ago restored..");
+        } catch (BufferUnderflowException | IllegalArgumentException | UnknownHostException | ClassNotFoundException
+                | ClassCastException e) {
+            LOGGER.warn("Snapshot " + file + " not in correct format..", e);
+            return false;
+        }
+        for (Map.Entry<Class<? extends ApiObjectBase>, ExistenceFilter> filter : filters.entrySet()) {
+            client.restore(filter.getKey(), filter.getValue());
+            restoredTypes.add(filter.getKey());
+        }
+        for (Map.Entry<String, Map<String, String>> network : networks.entrySet()) {
+            instanceIpIndex.load(network.getKey(), network.getValue());
+            restoredNetworks.add(network.getKey());
+        }
+        metrics.set("snapshot.restored.networks", networks.size());
+        metrics.recordTime("snapshot.restore", (System.nanoTime() - start) / 1000);
+        return true;
+    }
+
+    /**
+     * Validates what was last restored against Contrail, at the configured
+     * rate, through the current Contrail client.
+     */
+    void validate() throws InterruptedException {
+        List<Class<? extends ApiObjectBase>> types;
+        List<String> networks;
+        synchronized (this) {
+            types = new ArrayList<Class<? extends ApiObjectBase>>(restoredTypes);
+            networks = new ArrayList<String>(restoredNetworks);
+            restoredTypes.clear();
+            restoredNetworks.clear();
+        }
+        ContrailClient client = backend.get();
+        for (Class<? extends ApiObjectBase> cls : types) {
+            try {
+                client.seed(cls, filterCapacity);
+            } catch (IOException e) {
+                LOGGER.warn("Unable to seed the existence filter of " + cls.getSimpleName() + "..", e);
+            }
+        }
+        for (String networkUuid : networks) {
+            validate(client, networkUuid);
+            metrics.increment("snapshot.validated.networks");
+            Thread.sleep(pauseMillis);
+        }
+    }
+
+    /**
+     * Diffs the restored instance IPs of a network with those of the network
+     * in Contrail, read with {@link InstanceIpIndex#read}. The network is dropped from the index, to be loaded again
+     * when next queried, if it cannot be read.
+     */
+    private void validate(ContrailClient client, String networkUuid) throws InterruptedException {
+        // taken first, so that instance IPs the handlers add meanwhile are not taken for deleted ones
+        Map<String, String> restored = instanceIpIndex.addresses(networkUuid);
+        if (restored == null) {
+            return;
+        }
+        FairScheduler.Ticket ticket = Activator.fairScheduler.acquire(null, FairScheduler.Lane.BACKGROUND);
+        try {
+            Map<String, String> current = InstanceIpIndex.read(client, networkUuid);
+            if (current == null) {
+                instanceIpIndex.forget(networkUuid);
+                metrics.increment("snapshot.repairs");
+                return;
+            }
+            for (Map.Entry<String, String> instanceIp : restored.entrySet()) {
+                if (!current.containsKey(instanceIp.getKey())) {
+                    instanceIpIndex.remove(networkUuid, instanceIp.getKey(), instanceIp.getValue());
+                    metrics.increment("snapshot.repairs");
+                }
+            }
+            for (Map.Entry<String, String> instanceIp : current.entrySet()) {
+                if (!restored.containsKey(instanceIp.getKey())) {
+                    instanceIpIndex.add(networkUuid, instanceIp.getKey(), instanceIp.getValue());
+                    metrics.increment("snapshot.repairs");
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Network " + networkUuid + " could not be validated..", e);
+            instanceIpIndex.forget(networkUuid);
+        } finally {
+            ticket.release();
+        }
+    }
+
+    /**
+     * Validates what was restored, then saves a snapshot every given
+     * interval, on a low priority thread.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("opencontrail-snapshot").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    validate();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOGGER.warn("Snapshot validation failed..", e);
+                }
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (Exception e) {
+                    LOGGER.warn("Snapshot failed..", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Writes a UUID as two longs, and any other id as a string.
+     */
+    static void writeId(DataOutput out, String id) throws IOException {
+        if (Uuids.isCanonical(id)) {
+            out.writeByte(1);
+            out.writeLong(Uuids.mostSignificantBits(id));
+            out.writeLong(Uuids.leastSignificantBits(id));
+        } else {
+            out.writeByte(0);
+            writeString(out, id);
+        }
+    }
+
+    static String readId(ByteBuffer in) {
+        if (in.get() == 1) {
+            return Uuids.toString(in.getLong(), in.getLong());
+        }
+        return readString(in);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -10,8 +10,10 @@ package org.opendaylight.opencontrail.neutron;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.Collections;
 import java.util.List;
-import net.juniper.contrail.api.ApiConnector;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import net.juniper.contrail.api.ObjectReference;
 import net.juniper.contrail.api.types.NetworkIpam;
 import net.juniper.contrail.api.types.SubnetType;
@@ -30,7 +32,48 @@ public class SubnetHandler implements INeutronSubnetAware {
      * Logger instance.
      */
     static final Logger LOGGER = LoggerFactory.getLogger(SubnetHandler.class);
-    static ApiConnector apiConnector = Activator.apiConnector;
+    private final ContrailBackend backend;
+    private final SubnetMetadataCache subnetCache;
+    private final InstanceIpIndex instanceIpIndex;
+    private final ChangeDetector changeDetector;
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     */
+    public SubnetHandler(ContrailBackend backend) {
+        this(backend, new SubnetMetadataCache(), new InstanceIpIndex(), new ChangeDetector(Activator.changeCapacity,
+                Activator.metrics));
+    }
+
+    /**
+     * @param backend
+     *            Contrail backend the handler talks to.
+     * @param subnetCache
+     *            Subnet metadata shared with the port handler, invalidated
+     *            here when a subnet changes.
+     * @param instanceIpIndex
+     *            Instance IPs by network, shared with the port handler.
+     * @param changeDetector
+     *            Fingerprints of the subnets last written, to skip updates
+     *            that change nothing.
+     */
+    public SubnetHandler(ContrailBackend backend, SubnetMetadataCache subnetCache, InstanceIpIndex instanceIpIndex,
+            ChangeDetector changeDetector) {
+        this.backend = backend;
+        this.subnetCache = subnetCache;
+        this.instanceIpIndex = instanceIpIndex;
+        this.changeDetector = changeDetector;
+    }
+
+    /**
+     * Invoked to get the Contrail client for the current connector.
+     *
+     * @return {@link ContrailClient}
+     */
+    private ContrailClient contrail() {
+        return backend.get();
+    }
 
     /**
      * Invoked when a subnet creation is requested to check if the specified
@@ -42,15 +85,66 @@ public class SubnetHandler implements INeutronSubnetAware {
      * @return A HTTP status code to the creation request.
      **/
     @Override
-    public int canCreateSubnet(NeutronSubnet subnet) {
-        VirtualNetwork virtualnetwork = new VirtualNetwork();
-        apiConnector = Activator.apiConnector;
+    public int canCreateSubnet(final NeutronSubnet subnet) {
         if (subnet == null) {
             LOGGER.error("Neutron Subnet can't be null..");
             return HttpURLConnection.HTTP_BAD_REQUEST;
         }
+        try {
+            return Activator.operationScheduler.execute(OperationScheduler.subnetKey(subnet.getSubnetUUID()),
+                    Collections.singletonList(OperationScheduler.networkKey(subnet.getNetworkUUID())),
+                    onIpam(subnet.getNetworkUUID(), Activator.fairScheduler.wrap(subnet.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return createSubnet(subnet);
+                        }
+                    })));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        } catch (Exception e) {
+            LOGGER.error("Exception :     " + e);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Invoked to run a subnet operation once the pending operations on the
+     * network-ipam reference of its network have completed, as every
+     * operation reads and writes back the subnets of the whole network.
+     *
+     * @param networkUuid
+     *            UUID of the network of the subnet.
+     * @param operation
+     *            The operation, returning a HTTP status code.
+     * @return The operation, serialized on the network-ipam reference.
+     */
+    static Callable<Integer> onIpam(final String networkUuid, final Callable<Integer> operation) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return Activator.operationScheduler.execute(OperationScheduler.ipamKey(networkUuid),
+                        OperationScheduler.NO_PARENTS, operation);
+            }
+        };
+    }
+
+    /**
+     * Invoked to check that the subnet does not exist yet in its network and
+     * then add it.
+     *
+     * @param subnet
+     *            An instance of proposed new Neutron Subnet object.
+     *
+     * @return A HTTP status code to the creation request.
+     */
+    int createSubnet(NeutronSubnet subnet) {
+        VirtualNetwork virtualnetwork = null;
         try {
             virtualnetwork = getNetwork(subnet);
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
         } catch (IOException e) {
             LOGGER.error("Exception :     " + e);
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -60,9 +154,8 @@ public class SubnetHandler implements INeutronSubnetAware {
             return HttpURLConnection.HTTP_FORBIDDEN;
         } else {
             try {
-                List<ObjectReference<VnSubnetsType>> ipamRefs = virtualnetwork.getNetworkIpam();
-                if (ipamRefs != null) {
-                    int result = subnetExists(ipamRefs, subnet);
+                if (virtualnetwork.getNetworkIpam() != null) {
+                    int result = subnetExists(virtualnetwork, subnet);
                     if (result != 0) {
                         return result;
                     }
@@ -73,6 +166,9 @@ public class SubnetHandler implements INeutronSubnetAware {
             }
             try {
                 return createSubnet(subnet, virtualnetwork);
+            } catch (ContrailOverloadException oe) {
+                LOGGER.warn("Contrail overloaded :   " + oe);
+                return HttpURLConnection.HTTP_UNAVAILABLE;
             } catch (IOException ie) {
                 LOGGER.error("IOException:     " + ie);
                 return HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -83,26 +179,15 @@ public class SubnetHandler implements INeutronSubnetAware {
         }
     }
 
-    private int subnetExists(List<ObjectReference<VnSubnetsType>> ipamRefs, NeutronSubnet subnet) {
-        for (ObjectReference<VnSubnetsType> ref : ipamRefs) {
-            VnSubnetsType vnSubnetsType = ref.getAttr();
-            if (vnSubnetsType != null) {
-                List<VnSubnetsType.IpamSubnetType> subnets = vnSubnetsType.getIpamSubnets();
-                if (subnets != null) {
-                    if (subnet.getCidr() == null) {
-                        LOGGER.error("CIDR can't be null");
-                        return HttpURLConnection.HTTP_BAD_REQUEST;
-                    }
-                    for (VnSubnetsType.IpamSubnetType subnetValue : subnets) {
-                        String[] ipPrefix = getIpPrefix(subnet);
-                        Boolean doesSubnetExist = subnetValue.getSubnet().getIpPrefix().matches(ipPrefix[0]);
-                        if (doesSubnetExist) {
-                            LOGGER.error("The subnet already exists..");
-                            return HttpURLConnection.HTTP_FORBIDDEN;
-                        }
-                    }
-                }
-            }
+    private int subnetExists(VirtualNetwork virtualNetwork, NeutronSubnet subnet) {
+        if (subnet.getCidr() == null) {
+            LOGGER.error("CIDR can't be null");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        String[] ipPrefix = getIpPrefix(subnet);
+        if (new IpamSubnetIndex(virtualNetwork).get(ipPrefix[0]) != null) {
+            LOGGER.error("The subnet already exists..");
+            return HttpURLConnection.HTTP_FORBIDDEN;
         }
         return 0;
     }
@@ -116,26 +201,20 @@ public class SubnetHandler implements INeutronSubnetAware {
     @Override
     public void neutronSubnetCreated(NeutronSubnet subnet) {
         VirtualNetwork virtualNetwork = null;
+        FairScheduler.Ticket ticket = null;
         try {
-            virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, subnet.getNetworkUUID());
-            List<ObjectReference<VnSubnetsType>> ipamRefs = virtualNetwork.getNetworkIpam();
-            if (ipamRefs != null) {
-                for (ObjectReference<VnSubnetsType> ref : ipamRefs) {
-                    VnSubnetsType vnSubnetsType = ref.getAttr();
-                    if (vnSubnetsType != null) {
-                        List<VnSubnetsType.IpamSubnetType> subnets = vnSubnetsType.getIpamSubnets();
-                        for (VnSubnetsType.IpamSubnetType subnetValue : subnets) {
-                            String[] ipPrefix = getIpPrefix(subnet);
-                            boolean doesSubnetExist = subnetValue.getSubnet().getIpPrefix().matches(ipPrefix[0]);
-                            if (doesSubnetExist) {
-                                LOGGER.info("Subnet creation verified...");
-                            }
-                        }
-                    }
-                }
+            ticket = Activator.fairScheduler.acquire(subnet.getTenantID(), FairScheduler.Lane.BACKGROUND);
+            virtualNetwork = contrail().findFields(VirtualNetwork.class, subnet.getNetworkUUID(), "network_ipam_refs");
+            String[] ipPrefix = getIpPrefix(subnet);
+            if (new IpamSubnetIndex(virtualNetwork).get(ipPrefix[0], Integer.parseInt(ipPrefix[1])) != null) {
+                LOGGER.info("Subnet creation verified...");
             }
         } catch (Exception e) {
             LOGGER.error("Exception :     " + e);
+        } finally {
+            if (ticket != null) {
+                ticket.release();
+            }
         }
     }
 
@@ -152,11 +231,22 @@ public class SubnetHandler implements INeutronSubnetAware {
     private int createSubnet(NeutronSubnet subnet, VirtualNetwork virtualNetwork) throws IOException {
         // add subnet properties to the virtual-network object
         VirtualNetwork virtualnetwork = mapSubnetProperties(subnet, virtualNetwork);
-        boolean subnetCreate = apiConnector.update(virtualnetwork);
+        boolean subnetCreate;
+        List<ObjectReference<VnSubnetsType>> ipamRefs = virtualnetwork.getNetworkIpam();
+        if (ipamRefs != null && !ipamRefs.isEmpty()) {
+            // only the network-ipam reference carrying the subnets changes
+            subnetCreate = contrail().addReference(virtualnetwork, NetworkIpam.class, ipamRefs.get(0));
+        } else {
+            subnetCreate = contrail().update(virtualnetwork);
+        }
         if (!subnetCreate) {
             LOGGER.warn("Subnet creation failed..");
             return HttpURLConnection.HTTP_INTERNAL_ERROR;
         } else {
+            if (subnet.getGatewayIP() != null) {
+                changeDetector.written(OperationScheduler.subnetKey(subnet.getSubnetUUID()),
+                        ChangeDetector.fingerprint(subnet.getGatewayIP()));
+            }
             LOGGER.info("Subnet " + subnet.getCidr() + "sucessfully added to the network having UUID : " + virtualnetwork.getUuid());
             return HttpURLConnection.HTTP_OK;
         }
@@ -172,7 +262,7 @@ public class SubnetHandler implements INeutronSubnetAware {
      *
      * @return {@link VirtualNetwork}
      */
-    private VirtualNetwork mapSubnetProperties(NeutronSubnet subnet, VirtualNetwork vn) {
+    private VirtualNetwork mapSubnetProperties(NeutronSubnet subnet, VirtualNetwork vn) throws ContrailOverloadException {
         String[] ipPrefix = null;
         NetworkIpam ipam = null;
         VnSubnetsType vnSubnetsType = new VnSubnetsType();
@@ -180,8 +270,10 @@ public class SubnetHandler implements INeutronSubnetAware {
         try {
             ipPrefix = getIpPrefix(subnet);
             // Find default-network-ipam
-            String ipamId = apiConnector.findByName(NetworkIpam.class, null, "default-network-ipam");
-            ipam = (NetworkIpam) apiConnector.findById(NetworkIpam.class, ipamId);
+            String ipamId = contrail().findByName(NetworkIpam.class, null, "default-network-ipam");
+            ipam = contrail().findFields(NetworkIpam.class, ipamId);
+        } catch (ContrailOverloadException ex) {
+            throw ex;
         } catch (IOException ex) {
             LOGGER.error("IOException :    " + ex);
         } catch (Exception ex) {
@@ -232,8 +324,90 @@ public class SubnetHandler implements INeutronSubnetAware {
      * @return A HTTP status code to the update request.
      */
     @Override
-    public int canUpdateSubnet(NeutronSubnet delta, NeutronSubnet original) {
-        return HttpURLConnection.HTTP_CREATED;
+    public int canUpdateSubnet(final NeutronSubnet delta, final NeutronSubnet original) {
+        if (delta == null || original == null) {
+            LOGGER.error("Neutron Subnets can't be null..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        if (original.getCidr() == null || !original.getCidr().contains("/")) {
+            LOGGER.error("CIDR can't be null or malformed..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        if (delta.getCidr() != null && !delta.getCidr().equals(original.getCidr())) {
+            LOGGER.error("The CIDR of a subnet can't be changed..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        try {
+            return Activator.operationScheduler.execute(OperationScheduler.subnetKey(original.getSubnetUUID()),
+                    Collections.singletonList(OperationScheduler.networkKey(original.getNetworkUUID())),
+                    onIpam(original.getNetworkUUID(), Activator.fairScheduler.wrap(original.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return updateSubnet(delta, original);
+                        }
+                    })));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        } catch (IOException ie) {
+            LOGGER.error("IOException:     " + ie);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } catch (Exception e) {
+            LOGGER.error("Exception:     " + e);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Invoked to update the specified subnet. The gateway is the only
+     * attribute of a subnet Contrail keeps in its IPAM subnet entry; the
+     * network is read and written only when it differs. Other changes, such
+     * as the allocation pools, only drop the cached metadata of the subnet.
+     *
+     * @param delta
+     *            Updates to the subnet object using patch semantics.
+     * @param original
+     *            An instance of the Neutron Subnet object to be updated.
+     * @return A HTTP status code to the update request.
+     */
+    private int updateSubnet(NeutronSubnet delta, NeutronSubnet original) throws IOException {
+        subnetCache.invalidate(original.getSubnetUUID());
+        String gatewayIp = delta.getGatewayIP();
+        if (gatewayIp == null || gatewayIp.equals(original.getGatewayIP())) {
+            LOGGER.debug("Subnet " + original.getSubnetUUID() + " is unchanged in Contrail...");
+            return HttpURLConnection.HTTP_OK;
+        }
+        String key = OperationScheduler.subnetKey(original.getSubnetUUID());
+        long fingerprint = ChangeDetector.fingerprint(gatewayIp);
+        if (changeDetector.isUnchanged(key, fingerprint)) {
+            LOGGER.debug("Subnet " + original.getSubnetUUID() + " is unchanged in Contrail...");
+            return HttpURLConnection.HTTP_OK;
+        }
+        VirtualNetwork virtualNetwork = getNetwork(original);
+        if (virtualNetwork == null) {
+            LOGGER.error("No network exists for the specified UUID...");
+            return HttpURLConnection.HTTP_FORBIDDEN;
+        }
+        String[] ipPrefix = getIpPrefix(original);
+        IpamSubnetIndex.Entry entry = new IpamSubnetIndex(virtualNetwork).get(ipPrefix[0], Integer.parseInt(ipPrefix[1]));
+        if (entry == null) {
+            LOGGER.error("Subnet " + original.getCidr() + " does not exist in the network having UUID : "
+                    + virtualNetwork.getUuid());
+            return HttpURLConnection.HTTP_NOT_FOUND;
+        }
+        if (gatewayIp.equals(entry.getSubnet().getDefaultGateway())) {
+            changeDetector.written(key, fingerprint);
+            return HttpURLConnection.HTTP_OK;
+        }
+        entry.getSubnet().setDefaultGateway(gatewayIp);
+        if (!contrail().addReference(virtualNetwork, NetworkIpam.class, entry.getRef())) {
+            LOGGER.warn("Subnet Updation failed..");
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        changeDetector.written(key, fingerprint);
+        LOGGER.info("Subnet " + original.getCidr() + " of the network having UUID : " + virtualNetwork.getUuid()
+                + "  has been sucessfully updated...");
+        return HttpURLConnection.HTTP_OK;
     }
 
     /**
@@ -244,21 +418,105 @@ public class SubnetHandler implements INeutronSubnetAware {
      */
     @Override
     public void neutronSubnetUpdated(NeutronSubnet subnet) {
-        // TODO Auto-generated method stub
+        subnetCache.invalidate(subnet.getSubnetUUID());
     }
 
     /**
-     * Invoked when a subnet deletion is requested to indicate if the specified
-     * subnet can be deleted.
+     * Invoked when a subnet deletion is requested to check if the specified
+     * subnet can be deleted and then deletes it.
      *
      * @param subnet
      *            An instance of the Neutron Subnet object to be deleted.
      * @return A HTTP status code to the deletion request.
      */
     @Override
-    public int canDeleteSubnet(NeutronSubnet subnet) {
-        // TODO Auto-generated method stub
-        return HttpURLConnection.HTTP_CREATED;
+    public int canDeleteSubnet(final NeutronSubnet subnet) {
+        if (subnet == null) {
+            LOGGER.error("Neutron Subnet can't be null..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        if (subnet.getCidr() == null || !subnet.getCidr().contains("/")) {
+            LOGGER.error("CIDR can't be null or malformed..");
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+        try {
+            return Activator.operationScheduler.executeAfterDependents(OperationScheduler.subnetKey(subnet.getSubnetUUID()),
+                    onIpam(subnet.getNetworkUUID(), Activator.fairScheduler.wrap(subnet.getTenantID(), FairScheduler.Lane.INTERACTIVE, new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return deleteSubnet(subnet);
+                        }
+                    })));
+        } catch (ContrailOverloadException oe) {
+            LOGGER.warn("Contrail overloaded :   " + oe);
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        } catch (IOException ie) {
+            LOGGER.error("IOException:     " + ie);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } catch (Exception e) {
+            LOGGER.error("Exception:     " + e);
+            return HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Invoked to check that no instance IP is left in the subnet and then
+     * remove it from its network, with a single update of the network-ipam
+     * reference holding it.
+     *
+     * @param subnet
+     *            An instance of the Neutron Subnet object to be deleted.
+     * @return A HTTP status code to the deletion request.
+     */
+    private int deleteSubnet(NeutronSubnet subnet) throws IOException {
+        VirtualNetwork virtualNetwork = getNetwork(subnet);
+        if (virtualNetwork == null) {
+            LOGGER.error("No network exists for the specified UUID...");
+            return HttpURLConnection.HTTP_FORBIDDEN;
+        }
+        List<String> instanceIps = findInstanceIps(subnet);
+        if (!instanceIps.isEmpty()) {
+            LOGGER.info("Subnet " + subnet.getCidr() + " cannot be deleted as " + instanceIps.size()
+                    + " instance IP(s) are still allocated from it....");
+            return HttpURLConnection.HTTP_CONFLICT;
+        }
+        String[] ipPrefix = getIpPrefix(subnet);
+        IpamSubnetIndex.Entry entry = new IpamSubnetIndex(virtualNetwork).get(ipPrefix[0], Integer.parseInt(ipPrefix[1]));
+        if (entry != null) {
+            entry.remove();
+            if (!contrail().addReference(virtualNetwork, NetworkIpam.class, entry.getRef())) {
+                LOGGER.warn("Subnet deletion failed..");
+                return HttpURLConnection.HTTP_INTERNAL_ERROR;
+            }
+            changeDetector.forget(OperationScheduler.subnetKey(subnet.getSubnetUUID()));
+            LOGGER.info("Subnet " + subnet.getCidr() + " removed from the network having UUID : "
+                    + virtualNetwork.getUuid());
+            return HttpURLConnection.HTTP_OK;
+        }
+        LOGGER.error("Subnet " + subnet.getCidr() + " does not exist in the network having UUID : "
+                + virtualNetwork.getUuid());
+        return HttpURLConnection.HTTP_NOT_FOUND;
+    }
+
+    /**
+     * Invoked to get the instance IPs of the network of a subnet inside it,
+     * loading the instance IPs of the network first if they are not indexed
+     * yet.
+     *
+     * @param subnet
+     *            An instance of Neutron Subnet object.
+     * @return The UUIDs of the instance IPs.
+     */
+    private List<String> findInstanceIps(NeutronSubnet subnet) throws IOException {
+        // the index is keyed by the UUIDs of Contrail, which are canonical
+        String networkUuid = Uuids.canonicalIfUuid(subnet.getNetworkUUID());
+        List<String> instanceIps = instanceIpIndex.find(networkUuid, subnet.getCidr());
+        if (instanceIps != null) {
+            return instanceIps;
+        }
+        Map<String, String> addresses = InstanceIpIndex.read(contrail(), networkUuid);
+        instanceIpIndex.load(networkUuid, addresses == null ? Collections.<String, String> emptyMap() : addresses);
+        return instanceIpIndex.find(networkUuid, subnet.getCidr());
     }
 
     /**
@@ -269,7 +527,7 @@ public class SubnetHandler implements INeutronSubnetAware {
      */
     @Override
     public void neutronSubnetDeleted(NeutronSubnet subnet) {
-        // TODO Auto-generated method stub
+        subnetCache.invalidate(subnet.getSubnetUUID());
     }
 
     /**
@@ -285,7 +543,7 @@ public class SubnetHandler implements INeutronSubnetAware {
     VirtualNetwork getNetwork(NeutronSubnet subnet) throws IOException {
         VirtualNetwork virtualNetwork = new VirtualNetwork();
         String networkUuid = subnet.getNetworkUUID();
-        virtualNetwork = (VirtualNetwork) apiConnector.findById(VirtualNetwork.class, networkUuid);
+        virtualNetwork = contrail().findFieldsForUpdate(VirtualNetwork.class, networkUuid, "network_ipam_refs");
         return virtualNetwork;
     }
 }
\ No newline at end of file
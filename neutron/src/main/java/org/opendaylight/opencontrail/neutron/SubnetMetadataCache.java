@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
+import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
+
+/**
+ * Subnet metadata the port path needs, by Neutron subnet UUID.
+ *
+ * A subnet is read from the Neutron subnet CRUD service the first time a port
+ * on it is created and served from here afterwards. The subnet handler
+ * invalidates an entry when its subnet is updated or deleted. Entries are
+ * keyed by the two longs of the UUID, see {@link UuidMap}.
+ */
+public class SubnetMetadataCache {
+    private final UuidMap<SubnetMetadata> subnets = new UuidMap<SubnetMetadata>();
+
+    /**
+     * Immutable copy of the fields of a Neutron subnet used by the port path.
+     */
+    public static class SubnetMetadata {
+        private final String networkUuid;
+        private final String cidr;
+        private final String gatewayIp;
+        private final String lowAddr;
+
+        SubnetMetadata(NeutronSubnet subnet) {
+            this.networkUuid = subnet.getNetworkUUID();
+            this.cidr = subnet.getCidr();
+            this.gatewayIp = subnet.getGatewayIP();
+            this.lowAddr = subnet.getLowAddr();
+        }
+
+        public String getNetworkUuid() {
+            return networkUuid;
+        }
+
+        public String getCidr() {
+            return cidr;
+        }
+
+        public String getGatewayIp() {
+            return gatewayIp;
+        }
+
+        public String getLowAddr() {
+            return lowAddr;
+        }
+    }
+
+    /**
+     * Returns the metadata of a subnet, reading it from the CRUD service if it
+     * is not cached yet.
+     *
+     * @param crud
+     *            Subnet CRUD service to read from on a miss; may be null.
+     * @return The metadata, or null if the subnet is unknown.
+     */
+    public SubnetMetadata get(String subnetUuid, INeutronSubnetCRUD crud) {
+        if (subnetUuid == null) {
+            return null;
+        }
+        SubnetMetadata metadata = subnets.get(subnetUuid);
+        if (metadata == null && crud != null) {
+            NeutronSubnet subnet = crud.getSubnet(subnetUuid);
+            if (subnet != null) {
+                metadata = new SubnetMetadata(subnet);
+                subnets.put(subnetUuid, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    public void invalidate(String subnetUuid) {
+        if (subnetUuid != null) {
+            subnets.remove(subnetUuid);
+        }
+    }
+
+    public void clear() {
+        subnets.clear();
+    }
+
+    int size() {
+        return subnets.size();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Map keyed by UUID, holding each key as two longs.
+ *
+ * A {@code HashMap<String, V>} spends over 100 bytes per entry on the key
+ * string, its characters and the entry object. Here the keys sit in two
+ * {@code long[]} and the values in an {@code Object[]}, with open addressing
+ * and linear probing, which comes to about 40 bytes per entry besides the
+ * value. Keys that are not UUIDs in canonical form, see {@link Uuids}, are
+ * kept in a {@link HashMap} aside.
+ *
+ * Values cannot be null. The map is thread-safe.
+ */
+public class UuidMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private Object[] values;
+    private int size;
+    private final Map<String, V> others = new HashMap<String, V>();
+
+    public UuidMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize
+     *            Number of UUID keys the map holds without growing.
+     */
+    public UuidMap(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    public synchronized V get(String key) {
+        if (!Uuids.isCanonical(key)) {
+            return others.get(key);
+        }
+        int slot = find(Uuids.mostSignificantBits(key), Uuids.leastSignificantBits(key));
+        return slot < 0 ? null : value(slot);
+    }
+
+    /**
+     * @return The previous value of the key, or null.
+     */
+    public synchronized V put(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null value for " + key);
+        }
+        if (!Uuids.isCanonical(key)) {
+            return others.put(key, value);
+        }
+        long msb = Uuids.mostSignificantBits(key);
+        long lsb = Uuids.leastSignificantBits(key);
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != null) {
+            if (mostSignificantBits[slot] == msb && leastSignificantBits[slot] == lsb) {
+                V previous = value(slot);
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        mostSignificantBits[slot] = msb;
+        leastSignificantBits[slot] = lsb;
+        values[slot] = value;
+        // grow beyond a load of 3/4
+        if (++size > values.length - (values.length >> 2)) {
+            rehash(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Puts a value unless the key already has one.
+     *
+     * @return The value of the key, or null if the given value was put.
+     */
+    public synchronized V putIfAbsent(String key, V value) {
+        V current = get(key);
+        return current != null ? current : put(key, value);
+    }
+
+    /**
+     * @return The value removed, or null.
+     */
+    public synchronized V remove(String key) {
+        if (!Uuids.isCanonical(key)) {
+            return others.remove(key);
+        }
+        int slot = find(Uuids.mostSignificantBits(key), Uuids.leastSignificantBits(key));
+        if (slot < 0) {
+            return null;
+        }
+        V removed = value(slot);
+        delete(slot);
+        size--;
+        return removed;
+    }
+
+    /**
+     * Removes a key only if it has the given value.
+     */
+    public synchronized boolean remove(String key, V value) {
+        if (value == null || !value.equals(get(key))) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    public synchronized boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    public synchronized int size() {
+        return size + others.size();
+    }
+
+    public synchronized void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        others.clear();
+    }
+
+    /**
+     * Returns a copy of the keys.
+     */
+    public synchronized List<String> keys() {
+        List<String> keys = new ArrayList<String>(size + others.size());
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                keys.add(Uuids.toString(mostSignificantBits[slot], leastSignificantBits[slot]));
+            }
+        }
+        keys.addAll(others.keySet());
+        return keys;
+    }
+
+    private int find(long msb, long lsb) {
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != null) {
+            if (mostSignificantBits[slot] == msb && leastSignificantBits[slot] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, moving back the entries after it that would no longer
+     * be found, so that lookups need no tombstones.
+     */
+    private void delete(int slot) {
+        int mask = values.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(mostSignificantBits[next], leastSignificantBits[next]) & mask;
+            // move the entry if the hole lies between its home slot and its slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mostSignificantBits[hole] = mostSignificantBits[next];
+                leastSignificantBits[hole] = leastSignificantBits[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldMostSignificantBits = mostSignificantBits;
+        long[] oldLeastSignificantBits = leastSignificantBits;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldMostSignificantBits[i], oldLeastSignificantBits[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                mostSignificantBits[slot] = oldMostSignificantBits[i];
+                leastSignificantBits[slot] = oldLeastSignificantBits[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSignificantBits = new long[capacity];
+        leastSignificantBits = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int slot) {
+        return (V) values[slot];
+    }
+
+    private static int tableSize(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity - (capacity >> 2) < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long msb, long lsb) {
+        // random UUIDs are well spread already, but time based ones share bits
+        long h = msb * 0x9e3779b97f4a7c15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.UUID;
+
+/**
+ * UUIDs in their canonical form, e.g.
+ * {@code 123e4567-e89b-12d3-a456-426614174000}, as two longs.
+ *
+ * Neutron and Contrail both use the canonical form, in lower case, so the
+ * two longs of a UUID are read straight from the string, without a
+ * {@link UUID} in between, and give back the same string.
+ */
+public final class Uuids {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Uuids() {
+    }
+
+    /**
+     * Checks whether a string is a UUID in canonical form, in lower case.
+     */
+    public static boolean isCanonical(String s) {
+        if (s == null || s.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (digit(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a UUID in canonical form, which is the string itself if it
+     * already is.
+     *
+     * @throws IllegalArgumentException
+     *             If the string is not a UUID.
+     */
+    public static String canonical(String s) {
+        return isCanonical(s) ? s : UUID.fromString(s).toString();
+    }
+
+    /**
+     * Returns a UUID in canonical form, or the string itself if it is not a
+     * UUID, for keys that must match the canonical UUIDs of Contrail when
+     * they are UUIDs at all.
+     */
+    public static String canonicalIfUuid(String s) {
+        if (s == null || isCanonical(s)) {
+            return s;
+        }
+        try {
+            return UUID.fromString(s).toString();
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    /**
+     * Returns the most significant bits of a UUID checked with
+     * {@link #isCanonical}.
+     */
+    public static long mostSignificantBits(String s) {
+        return bits(s, 0, 18);
+    }
+
+    /**
+     * Returns the least significant bits of a UUID checked with
+     * {@link #isCanonical}.
+     */
+    public static long leastSignificantBits(String s) {
+        return bits(s, 19, 36);
+    }
+
+    /**
+     * Returns the canonical form of the UUID of the given bits.
+     */
+    public static String toString(long mostSignificantBits, long leastSignificantBits) {
+        char[] chars = new char[36];
+        hex(chars, 0, mostSignificantBits >>> 32, 8);
+        chars[8] = '-';
+        hex(chars, 9, mostSignificantBits >>> 16, 4);
+        chars[13] = '-';
+        hex(chars, 14, mostSignificantBits, 4);
+        chars[18] = '-';
+        hex(chars, 19, leastSignificantBits >>> 48, 4);
+        chars[23] = '-';
+        hex(chars, 24, leastSignificantBits, 12);
+        return new String(chars);
+    }
+
+    private static long bits(String s, int from, int to) {
+        long bits = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '-') {
+                bits = bits << 4 | digit(c);
+            }
+        }
+        return bits;
+    }
+
+    private static void hex(char[] chars, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+}
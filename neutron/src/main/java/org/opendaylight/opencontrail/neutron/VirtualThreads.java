@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads, on the JDKs that have them (21 and later).
+ *
+ * The plugin is built for Java 7, so they are reached by reflection: on an
+ * older JDK {@link #isAvailable} is false and no executor is built. A
+ * virtual thread blocked on Contrail costs a few hundred bytes of heap
+ * instead of a platform thread and its stack, so a call can be given a
+ * thread of its own however many are waiting.
+ */
+public final class VirtualThreads {
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method NAME = method(type("java.lang.Thread$Builder"), "name", String.class, long.class);
+    private static final Method FACTORY = method(type("java.lang.Thread$Builder"), "factory");
+    private static final Method PER_TASK = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null && NAME != null && FACTORY != null && PER_TASK != null;
+    }
+
+    /**
+     * Builds an executor that starts a virtual thread for every task.
+     *
+     * @param prefix
+     *            Name of the threads, followed by their number.
+     * @return The executor, or null if the JDK has no virtual threads.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        if (!isAvailable()) {
+            return null;
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ExecutorService) PER_TASK.invoke(null, FACTORY.invoke(builder));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                // a JDK where they are still a preview feature, not enabled
+                return null;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method method(Class<?> cls, String name, Class<?>... parameterTypes) {
+        if (cls == null) {
+            return null;
+        }
+        try {
+            return cls.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
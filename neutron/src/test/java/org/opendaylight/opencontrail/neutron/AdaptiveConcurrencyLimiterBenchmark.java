@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+/**
+ * Benchmark of the adaptive concurrency limit against a fixed one.
+ *
+ * Clients read a network from the local Contrail stand-in while its latency
+ * goes from healthy to degraded and back. Run with
+ * {@code java org.opendaylight.opencontrail.neutron.AdaptiveConcurrencyLimiterBenchmark [clients] [secondsPerPhase]}.
+ */
+public class AdaptiveConcurrencyLimiterBenchmark {
+    static final String[][] PHASES = { { "healthy", "2", "0" }, { "degraded", "5", "2" }, { "recovered", "2", "0" } };
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ContrailStandIn standIn = new ContrailStandIn();
+        try {
+            String uuid = standIn.store("virtual-network",
+                    ContrailStandIn.object(null, "default-domain", "default-project", "benchmark-network"));
+            List<ApiConnector> connectors = new ArrayList<ApiConnector>();
+            for (int i = 0; i < clients; i++) {
+                connectors.add(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+            }
+            run("adaptive", new AdaptiveConcurrencyLimiter("adaptive", 20, 4, 200, new ContrailMetrics()), connectors,
+                    standIn, uuid, clients, seconds);
+            run("fixed", new AdaptiveConcurrencyLimiter("fixed", clients, clients, clients, new ContrailMetrics()),
+                    connectors, standIn, uuid, clients, seconds);
+        } finally {
+            standIn.stop();
+        }
+    }
+
+    static void run(String name, AdaptiveConcurrencyLimiter limiter, List<ApiConnector> connectors,
+            ContrailStandIn standIn, final String uuid, int clients, int seconds) throws InterruptedException {
+        ContrailMetrics metrics = new ContrailMetrics();
+        ConnectorPool pool = new ConnectorPool(name, connectors, limiter, Long.MAX_VALUE, metrics);
+        final ContrailClient client = new ContrailClient(pool, pool, null, null, null, null, null, metrics);
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            for (String[] phase : PHASES) {
+                standIn.setLatency(Long.parseLong(phase[1]), Long.parseLong(phase[2]), TimeUnit.MILLISECONDS);
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                final AtomicLong completed = new AtomicLong();
+                final AtomicLong rejected = new AtomicLong();
+                final AtomicLong failed = new AtomicLong();
+                final AtomicLong latencyNanos = new AtomicLong();
+                final CountDownLatch done = new CountDownLatch(clients);
+                for (int i = 0; i < clients; i++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                while (System.nanoTime() < deadline) {
+                                    long start = System.nanoTime();
+                                    try {
+                                        client.findByIdForUpdate(VirtualNetwork.class, uuid);
+                                        completed.incrementAndGet();
+                                        latencyNanos.addAndGet(System.nanoTime() - start);
+                                    } catch (ContrailOverloadException e) {
+                                        rejected.incrementAndGet();
+                                        Thread.sleep(1);
+                                    } catch (IOException e) {
+                                        failed.incrementAndGet();
+                                    }
+                                }
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+                done.await();
+                long ok = Math.max(1, completed.get());
+                System.out.printf("%-9s %-10s %8.0f calls/s %8d rejected %6d failed %8.2f ms mean latency, limit %d%n",
+                        name, phase[0], (double) completed.get() / seconds, rejected.get(), failed.get(),
+                        latencyNanos.get() / 1e6 / ok, limiter.getLimit());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
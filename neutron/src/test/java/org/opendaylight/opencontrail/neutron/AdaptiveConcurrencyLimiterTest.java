@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for AdaptiveConcurrencyLimiter.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    ContrailMetrics metrics;
+    AdaptiveConcurrencyLimiter limiter;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+        limiter = new AdaptiveConcurrencyLimiter("contrail", 10, 2, 50, metrics);
+    }
+
+    /* Runs one round of calls filling the limit, all completing with the given latency */
+    private void round(long rttMillis, boolean success) {
+        int calls = 0;
+        while (limiter.tryAcquire()) {
+            calls++;
+        }
+        for (int i = 0; i < calls; i++) {
+            limiter.onSample(TimeUnit.MILLISECONDS.toNanos(rttMillis), success);
+        }
+    }
+
+    /* Test method to check the limit grows while latency stays flat */
+    @Test
+    public void testLimitGrowsWithFlatLatency() {
+        for (int i = 0; i < 5; i++) {
+            round(10, true);
+        }
+        assertTrue(limiter.getLimit() > 10);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /* Test method to check the limit shrinks when latency rises */
+    @Test
+    public void testLimitShrinksWithRisingLatency() {
+        round(10, true);
+        int healthy = limiter.getLimit();
+        round(50, true);
+        assertTrue(limiter.getLimit() < healthy);
+    }
+
+    /* Test method to check the limit shrinks on errors but not below the minimum */
+    @Test
+    public void testLimitShrinksOnErrors() {
+        for (int i = 0; i < 50; i++) {
+            round(10, false);
+        }
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2, metrics.get("contrail.limit"));
+    }
+
+    /* Test method to check calls over the limit are rejected */
+    @Test
+    public void testRejectsOverLimit() throws Exception {
+        limiter = new AdaptiveConcurrencyLimiter("contrail", 2, 2, 2, metrics);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail("Expected ContrailOverloadException");
+        } catch (ContrailOverloadException e) {
+            assertEquals(1, metrics.get("contrail.rejected"));
+        }
+        first.release(true);
+        first.release(true);
+        assertEquals(1, limiter.getInFlight());
+        limiter.acquire();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Test Class for AsyncContrailConnector.
+ */
+public class AsyncContrailConnectorTest {
+    ContrailStandIn standIn;
+    AsyncContrailConnector connector;
+
+    @Before
+    public void beforeTest() throws Exception {
+        standIn = new ContrailStandIn();
+        connector = new AsyncContrailConnector("127.0.0.1", standIn.getPort(), 2, 16, 5000);
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        connector.close();
+        standIn.stop();
+    }
+
+    private VirtualNetwork network(String name) {
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName(name);
+        network.setUuid(UUID.randomUUID().toString());
+        network.setDisplayName(name);
+        return network;
+    }
+
+    /* Test method to check a network is created, read, updated and deleted through futures */
+    @Test
+    public void testLifecycle() throws Exception {
+        VirtualNetwork network = network("network");
+        assertTrue(connector.create(network).get(5, TimeUnit.SECONDS));
+        VirtualNetwork created = connector.findById(VirtualNetwork.class, network.getUuid()).get(5, TimeUnit.SECONDS);
+        assertEquals(3, created.getQualifiedName().size());
+        assertEquals("network", created.getDisplayName());
+        network.setDisplayName("renamed");
+        assertTrue(connector.update(network).get(5, TimeUnit.SECONDS));
+        assertEquals("renamed", connector.findById(VirtualNetwork.class, network.getUuid(), "display_name")
+                .get(5, TimeUnit.SECONDS).getDisplayName());
+        connector.delete(network).get(5, TimeUnit.SECONDS);
+        assertNull(connector.findById(VirtualNetwork.class, network.getUuid()).get(5, TimeUnit.SECONDS));
+        assertFalse(connector.update(network).get(5, TimeUnit.SECONDS));
+    }
+
+    /* Test method to check many requests are outstanding at once and all complete */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        List<ListenableFuture<Boolean>> creates = new ArrayList<ListenableFuture<Boolean>>();
+        for (int i = 0; i < 200; i++) {
+            creates.add(connector.create(network("network" + i)));
+        }
+        for (Boolean created : Futures.allAsList(creates).get(30, TimeUnit.SECONDS)) {
+            assertTrue(created);
+        }
+        // the stand-in holds the default domain, project and IPAM too
+        assertEquals(203, standIn.size());
+    }
+
+    /* Test method to check a refused request fails its future */
+    @Test
+    public void testRefusedCreate() throws Exception {
+        VirtualNetwork network = network("network");
+        assertTrue(connector.create(network).get(5, TimeUnit.SECONDS));
+        try {
+            connector.create(network).get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /* Test method to check gzipped requests and responses go through the reactor */
+    @Test
+    public void testGzip() throws Exception {
+        ContrailMetrics metrics = new ContrailMetrics();
+        standIn.setGzipMinLength(0);
+        AsyncContrailConnector gzipConnector = new AsyncContrailConnector("127.0.0.1", standIn.getPort(), 2, 16, 5000,
+                new ContrailCompression(true, 0, metrics));
+        try {
+            VirtualNetwork network = network("network");
+            assertTrue(gzipConnector.create(network).get(5, TimeUnit.SECONDS));
+            assertEquals("network", gzipConnector.findById(VirtualNetwork.class, network.getUuid()).get(5,
+                    TimeUnit.SECONDS).getDisplayName());
+            assertEquals(1, standIn.getGzippedRequestCount());
+            assertEquals(2, standIn.getGzippedResponseCount());
+            assertEquals(2, metrics.get("contrail.gzip.response.compressed"));
+        } finally {
+            gzipConnector.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for ChangeDetector.
+ */
+public class ChangeDetectorTest {
+    ContrailMetrics metrics;
+    ChangeDetector detector;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+        detector = new ChangeDetector(2, metrics);
+    }
+
+    /* Test method to check fingerprints tell fields apart */
+    @Test
+    public void testFingerprint() {
+        assertEquals(ChangeDetector.fingerprint("net", "10.0.0.1"), ChangeDetector.fingerprint("net", "10.0.0.1"));
+        assertFalse(ChangeDetector.fingerprint("ab", "c") == ChangeDetector.fingerprint("a", "bc"));
+        assertFalse(ChangeDetector.fingerprint((Object) null) == ChangeDetector.fingerprint(""));
+        assertFalse(ChangeDetector.fingerprint("net") == ChangeDetector.fingerprint("net", null));
+    }
+
+    /* Test method to check an update is skipped only when it writes what was last written */
+    @Test
+    public void testIsUnchanged() {
+        String key = OperationScheduler.networkKey("network-1");
+        assertFalse(detector.isUnchanged(key, ChangeDetector.fingerprint("net")));
+        detector.written(key, ChangeDetector.fingerprint("net"));
+        assertTrue(detector.isUnchanged(key, ChangeDetector.fingerprint("net")));
+        assertFalse(detector.isUnchanged(key, ChangeDetector.fingerprint("net-2")));
+        detector.forget(key);
+        assertFalse(detector.isUnchanged(key, ChangeDetector.fingerprint("net")));
+        assertEquals(4, metrics.get("contrail.update.checked"));
+        assertEquals(1, metrics.get("contrail.update.skipped"));
+        assertEquals(1, metrics.get("contrail.update.skipped.network"));
+        assertEquals(250, metrics.get("contrail.update.skipRatePermille"));
+    }
+
+    /* Test method to check the least recently written objects are dropped beyond the capacity */
+    @Test
+    public void testCapacity() {
+        detector.written("port:1", 1);
+        detector.written("port:2", 2);
+        detector.written("port:3", 3);
+        assertEquals(2, detector.size());
+        assertFalse(detector.isUnchanged("port:1", 1));
+        assertTrue(detector.isUnchanged("port:3", 3));
+    }
+
+    /* Test method to check a change is only taken for a write of the plugin made since the given time */
+    @Test
+    public void testForgetUnlessWrittenSince() throws Exception {
+        detector.written("port:1", 1);
+        Thread.sleep(1);
+        long since = System.nanoTime();
+        detector.written("port:2", 2);
+        assertTrue(detector.forgetUnlessWrittenSince("port:1", since));
+        assertFalse(detector.forgetUnlessWrittenSince("port:2", since));
+        assertFalse(detector.isUnchanged("port:1", 1));
+        assertTrue(detector.isUnchanged("port:2", 2));
+    }
+}
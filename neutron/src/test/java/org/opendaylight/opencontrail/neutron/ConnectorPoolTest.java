@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiConnector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Test Class for ConnectorPool.
+ */
+public class ConnectorPoolTest {
+    ContrailMetrics metrics;
+    ApiConnector readConnector;
+    ApiConnector writeConnector;
+    ConnectorPool reads;
+    ConnectorPool writes;
+    ExecutorService executor;
+    CountDownLatch holding;
+    CountDownLatch release;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+        readConnector = mock(ApiConnector.class);
+        writeConnector = mock(ApiConnector.class);
+        reads = new ConnectorPool("read", Collections.singletonList(readConnector), new AdaptiveConcurrencyLimiter(
+                "read", 10, 1, 10, metrics), 50, metrics);
+        writes = new ConnectorPool("write", Collections.singletonList(writeConnector), new AdaptiveConcurrencyLimiter(
+                "write", 10, 1, 10, metrics), 50, metrics);
+        executor = Executors.newCachedThreadPool();
+        holding = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void afterTest() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /* Occupies the only connector of the pool until the test ends */
+    private void hold(final ConnectorPool pool) throws InterruptedException {
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                return pool.execute(new ConnectorPool.Call<Void>() {
+                    @Override
+                    public Void call(ApiConnector connector) throws IOException {
+                        holding.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                });
+            }
+        });
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+    }
+
+    private ApiConnector connectorOf(ConnectorPool pool) throws IOException {
+        return pool.execute(new ConnectorPool.Call<ApiConnector>() {
+            @Override
+            public ApiConnector call(ApiConnector connector) {
+                return connector;
+            }
+        });
+    }
+
+    /* Test method to check reads go ahead while every write connection is busy */
+    @Test
+    public void testReadsDoNotWaitForWrites() throws Exception {
+        hold(writes);
+        assertSame(readConnector, connectorOf(reads));
+    }
+
+    /* Test method to check a call gives up when no connector frees up in time, without backing off the limiter */
+    @Test
+    public void testTimesOutWhenPoolExhausted() throws Exception {
+        hold(writes);
+        try {
+            connectorOf(writes);
+            fail("Expected ContrailOverloadException");
+        } catch (ContrailOverloadException e) {
+            assertEquals(1, metrics.get("write.pool.timeouts"));
+        }
+        assertEquals(0, metrics.get("write.errors"));
+        assertEquals(10, writes.getLimiter().getLimit());
+        // only the call holding the connector is in flight
+        assertEquals(1, writes.getLimiter().getInFlight());
+    }
+
+    /* Test method to check a failed call returns its connector to the pool */
+    @Test
+    public void testConnectorReturnedAfterFailure() throws Exception {
+        try {
+            writes.execute(new ConnectorPool.Call<Void>() {
+                @Override
+                public Void call(ApiConnector connector) throws IOException {
+                    throw new IOException("Contrail unreachable");
+                }
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Contrail unreachable", e.getMessage());
+        }
+        assertSame(writeConnector, connectorOf(writes));
+        assertEquals(0, writes.getLimiter().getInFlight());
+    }
+
+    /* Test method to check an asynchronous call holds its permit until its future completes */
+    @Test
+    public void testAsyncPermitHeldUntilCompletion() throws Exception {
+        final SettableFuture<String> response = SettableFuture.create();
+        ListenableFuture<String> future = writes.executeAsync(new ConnectorPool.AsyncCall<String>() {
+            @Override
+            public ListenableFuture<String> call() {
+                return response;
+            }
+        });
+        assertEquals(1, writes.getLimiter().getInFlight());
+        response.set("done");
+        assertEquals("done", future.get());
+        assertEquals(0, writes.getLimiter().getInFlight());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import net.juniper.contrail.api.ApiConnector;
+
+import org.junit.Test;
+
+/**
+ * Test Class for ContrailBackend.
+ */
+public class ContrailBackendTest {
+
+    /* Test method to check calls fail before the connection to Contrail is set up */
+    @Test(expected = IllegalStateException.class)
+    public void testNotSetUp() {
+        new ContrailBackend(null).get();
+    }
+
+    /* Test method to check a swapped-in client serves the calls from then on */
+    @Test
+    public void testSwap() {
+        ContrailClient first = Activator.newContrailClient(mock(ApiConnector.class));
+        ContrailClient second = Activator.newContrailClient(mock(ApiConnector.class));
+        ContrailBackend backend = new ContrailBackend(null);
+        assertNull(backend.swap(first));
+        assertSame(first, backend.get());
+        assertSame(first, backend.swap(second));
+        assertSame(second, backend.get());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Test Class for ContrailChangeFeed.
+ */
+public class ContrailChangeFeedTest {
+    ContrailMetrics metrics;
+    ContrailStandIn standIn;
+    ContrailRestClient restClient;
+    ContrailClient client;
+    ChangeDetector changeDetector;
+    InstanceIpIndex instanceIpIndex;
+    ContrailChangeFeed feed;
+
+    @Before
+    public void beforeTest() throws Exception {
+        metrics = new ContrailMetrics();
+        standIn = new ContrailStandIn();
+        restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000);
+        ApiConnector connector = ApiConnectorFactory.build("127.0.0.1", standIn.getPort());
+        ConnectorPool pool = new ConnectorPool("feed", Collections.singletonList(connector),
+                new AdaptiveConcurrencyLimiter("feed", 4, 1, 4, metrics), 5000, metrics);
+        client = new ContrailClient(pool, pool, restClient, null, null, new ContrailObjectCache(1 << 20, 1 << 20,
+                3600000, metrics), null, metrics);
+        changeDetector = new ChangeDetector(1024, metrics);
+        instanceIpIndex = new InstanceIpIndex();
+        feed = new ContrailChangeFeed(new ContrailBackend(client), changeDetector, instanceIpIndex, metrics);
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        restClient.close();
+        standIn.stop();
+    }
+
+    /* Test method to check a cached object modified by another client is read again */
+    @Test
+    public void testModified() throws Exception {
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName("network-1");
+        network.setUuid(UUID.randomUUID().toString());
+        network.setDisplayName("network-1");
+        assertTrue(client.create(network));
+        String networkKey = OperationScheduler.networkKey(network.getUuid());
+        changeDetector.written(networkKey, 1);
+        feed.poll();
+        assertEquals("network-1", client.findFields(VirtualNetwork.class, network.getUuid(), "display_name")
+                .getDisplayName());
+
+        assertTrue(standIn.modify(network.getUuid(), "display_name", new JsonPrimitive("network-2")));
+        // cached until the feed polls the change
+        assertEquals("network-1", client.findFields(VirtualNetwork.class, network.getUuid(), "display_name")
+                .getDisplayName());
+        assertTrue(changeDetector.isUnchanged(networkKey, 1));
+        feed.poll();
+        assertEquals(1, metrics.get("feed.modified"));
+        assertEquals("network-2", client.findFields(VirtualNetwork.class, network.getUuid(), "display_name")
+                .getDisplayName());
+        assertFalse(changeDetector.isUnchanged(networkKey, 1));
+
+        // an unchanged object is left alone
+        feed.poll();
+        assertEquals(1, metrics.get("feed.modified"));
+    }
+
+    /* Test method to check a write of the plugin coming back as a change keeps its fingerprint */
+    @Test
+    public void testOwnWrite() throws Exception {
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName("network-1");
+        network.setUuid(UUID.randomUUID().toString());
+        network.setDisplayName("network-1");
+        assertTrue(client.create(network));
+        String networkKey = OperationScheduler.networkKey(network.getUuid());
+        feed.poll();
+
+        network.setDisplayName("network-2");
+        assertTrue(client.update(network));
+        changeDetector.written(networkKey, 2);
+        feed.poll();
+        assertEquals(1, metrics.get("feed.modified"));
+        assertEquals(1, metrics.get("feed.own"));
+        assertTrue(changeDetector.isUnchanged(networkKey, 2));
+
+        // a write older than the cycle before is forgotten
+        assertTrue(standIn.modify(network.getUuid(), "display_name", new JsonPrimitive("network-3")));
+        feed.poll();
+        assertEquals(2, metrics.get("feed.modified"));
+        assertFalse(changeDetector.isUnchanged(networkKey, 2));
+    }
+
+    /* Test method to check objects created by another client are added to the existence filter */
+    @Test
+    public void testCreatedAndDeleted() throws Exception {
+        client.seed(VirtualNetwork.class, 64);
+        feed.poll();
+        String uuid = standIn.store("virtual-network", ContrailStandIn.object(null, "default-domain",
+                "default-project", "network-1"));
+        assertNull(client.findDuplicate(VirtualNetwork.class, uuid));
+        feed.poll();
+        assertEquals(1, metrics.get("feed.created"));
+        assertNotNull(client.findDuplicate(VirtualNetwork.class, uuid));
+
+        assertTrue(standIn.remove(uuid));
+        feed.poll();
+        assertEquals(1, metrics.get("feed.deleted"));
+        assertNull(client.findDuplicate(VirtualNetwork.class, uuid));
+    }
+
+    /* Test method to check instance IPs created and deleted by another client are kept in the index */
+    @Test
+    public void testInstanceIps() throws Exception {
+        String networkUuid = standIn.store("virtual-network", ContrailStandIn.object(null, "default-domain",
+                "default-project", "network-1"));
+        instanceIpIndex.load(networkUuid, Collections.<String, String> emptyMap());
+        feed.poll();
+        JsonObject instanceIp = ContrailStandIn.object(null, "instance-ip-1");
+        instanceIp.addProperty("instance_ip_address", "10.0.0.5");
+        JsonObject ref = new JsonObject();
+        ref.add("to", standIn.get(networkUuid).get("fq_name"));
+        ref.addProperty("uuid", networkUuid);
+        JsonArray refs = new JsonArray();
+        refs.add(ref);
+        instanceIp.add("virtual_network_refs", refs);
+        String instanceIpUuid = standIn.store("instance-ip", instanceIp);
+        feed.poll();
+        assertEquals(Collections.singletonList(instanceIpUuid), instanceIpIndex.find(networkUuid, "10.0.0.0/24"));
+
+        assertTrue(standIn.remove(instanceIpUuid));
+        feed.poll();
+        assertTrue(instanceIpIndex.find(networkUuid, "10.0.0.0/24").isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import net.juniper.contrail.api.ObjectReference;
+import net.juniper.contrail.api.types.NetworkIpam;
+import net.juniper.contrail.api.types.SubnetType;
+import net.juniper.contrail.api.types.VirtualNetwork;
+import net.juniper.contrail.api.types.VnSubnetsType;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for ContrailCompression.
+ */
+public class ContrailCompressionTest {
+    ContrailMetrics metrics;
+    ContrailStandIn standIn;
+    ContrailRestClient restClient;
+    String networkUuid;
+
+    @Before
+    public void beforeTest() throws Exception {
+        metrics = new ContrailMetrics();
+        standIn = new ContrailStandIn();
+        standIn.setGzipMinLength(0);
+        restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000, new ContrailCompression(true,
+                512, metrics));
+        networkUuid = standIn.store("virtual-network", ContrailStandIn.object(null, "default-domain",
+                "default-project", "network"));
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        restClient.close();
+        standIn.stop();
+    }
+
+    /* Test method to check bodies below the threshold are sent as they are */
+    @Test
+    public void testBelowThreshold() throws Exception {
+        HttpEntity entity = new ContrailCompression(true, 512, metrics).entity(new byte[511]);
+        assertNull(entity.getContentEncoding());
+        assertEquals(511, entity.getContentLength());
+        assertEquals(0, metrics.get("contrail.gzip.request.compressed"));
+    }
+
+    /* Test method to check request compression stays off unless enabled */
+    @Test
+    public void testRequestsNotCompressedByDefault() throws Exception {
+        HttpEntity entity = new ContrailCompression(false, 0, metrics).entity(new byte[4096]);
+        assertNull(entity.getContentEncoding());
+    }
+
+    /* Test method to check a large body is gzipped and the bytes saved are counted */
+    @Test
+    public void testAboveThreshold() throws Exception {
+        byte[] json = new byte[4096];
+        Arrays.fill(json, (byte) ' ');
+        HttpEntity entity = new ContrailCompression(true, 512, metrics).entity(json);
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        assertEquals(4096 - EntityUtils.toByteArray(entity).length, metrics.get("contrail.gzip.request.saved"));
+    }
+
+    /* Test method to check gzipped responses are inflated and gzipped requests accepted */
+    @Test
+    public void testRoundTrip() throws Exception {
+        VirtualNetwork network = restClient.findFields(VirtualNetwork.class, networkUuid);
+        assertEquals("network", network.getName());
+        assertEquals(1, standIn.getGzippedResponseCount());
+        assertEquals(1, metrics.get("contrail.gzip.response.compressed"));
+
+        ObjectReference<VnSubnetsType> ref = new ObjectReference<VnSubnetsType>(Arrays.asList("default-domain",
+                "default-project", "default-network-ipam"), new VnSubnetsType());
+        for (int i = 0; i < 64; i++) {
+            ref.getAttr().addIpamSubnets(new SubnetType("10.0." + i + ".0", 24), "10.0." + i + ".1");
+        }
+        assertTrue(restClient.addReference(network, NetworkIpam.class, ref));
+        assertEquals(1, standIn.getGzippedRequestCount());
+        assertTrue(metrics.get("contrail.gzip.request.saved") > 0);
+        assertEquals(64, restClient.findFields(VirtualNetwork.class, networkUuid, "network_ipam_refs")
+                .getNetworkIpam().get(0).getAttr().getIpamSubnets().size());
+        assertTrue(metrics.get("contrail.gzip.response.saved") > 0);
+    }
+}
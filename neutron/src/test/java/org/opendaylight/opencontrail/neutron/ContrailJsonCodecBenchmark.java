@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Set;
+
+import net.juniper.contrail.api.ApiObjectBase;
+import net.juniper.contrail.api.types.InstanceIp;
+import net.juniper.contrail.api.types.VirtualMachineInterface;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Benchmark of the allocation of reading Contrail objects with the streaming
+ * codec against the ApiConnector path, which reads the response into a
+ * string, parses it into a JSON tree and binds the tree.
+ *
+ * Run with
+ * {@code java org.opendaylight.opencontrail.neutron.ContrailJsonCodecBenchmark [refs] [iterations]},
+ * where refs is the number of subnets and of each kind of back-reference.
+ */
+public class ContrailJsonCodecBenchmark {
+    static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int refs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network");
+        JsonArray subnets = new JsonArray();
+        for (int i = 0; i < refs; i++) {
+            JsonObject subnet = new JsonObject();
+            JsonObject prefix = new JsonObject();
+            prefix.addProperty("ip_prefix", "10." + (i >> 8) + "." + (i & 255) + ".0");
+            prefix.addProperty("ip_prefix_len", 24);
+            subnet.add("subnet", prefix);
+            subnet.addProperty("default_gateway", "10." + (i >> 8) + "." + (i & 255) + ".1");
+            subnets.add(subnet);
+        }
+        JsonObject attr = new JsonObject();
+        attr.add("ipam_subnets", subnets);
+        JsonObject ipamRef = new JsonObject();
+        ipamRef.add("to", ContrailStandIn.object(null, "default-domain", "default-project", "default-network-ipam")
+                .get("fq_name"));
+        ipamRef.add("attr", attr);
+        JsonArray ipamRefs = new JsonArray();
+        ipamRefs.add(ipamRef);
+        network.add("network_ipam_refs", ipamRefs);
+        network.add("virtual_machine_interface_back_refs", ContrailJsonCodecTest.backRefs(refs));
+        network.add("instance_ip_back_refs", ContrailJsonCodecTest.backRefs(refs));
+        JsonObject port = ContrailStandIn.object(null, "port");
+        port.add("virtual_network_refs", ContrailJsonCodecTest.backRefs(1));
+        port.add("instance_ip_back_refs", ContrailJsonCodecTest.backRefs(Math.max(1, refs / 100)));
+        JsonObject instanceIp = ContrailStandIn.object(null, "instance-ip");
+        instanceIp.addProperty("instance_ip_address", "10.0.0.5");
+        instanceIp.add("virtual_machine_interface_refs", ContrailJsonCodecTest.backRefs(1));
+        instanceIp.add("virtual_network_refs", ContrailJsonCodecTest.backRefs(1));
+
+        run(VirtualNetwork.class, payload("virtual-network", network), iterations);
+        run(VirtualMachineInterface.class, payload("virtual-machine-interface", port), iterations);
+        run(InstanceIp.class, payload("instance-ip", instanceIp), iterations);
+    }
+
+    static byte[] payload(String type, JsonObject obj) {
+        JsonObject wrapped = new JsonObject();
+        wrapped.add(type, obj);
+        return wrapped.toString().getBytes(ContrailJsonCodec.UTF8);
+    }
+
+    static void run(Class<? extends ApiObjectBase> cls, byte[] payload, int iterations) throws IOException {
+        String type = ContrailRestClient.typeName(cls);
+        System.out.println(type + " (" + payload.length + " bytes)");
+        Gson gson = new GsonBuilder().excludeFieldsWithModifiers(Modifier.STATIC).create();
+        ContrailJsonCodec codec = new ContrailJsonCodec();
+        Set<String> none = Collections.emptySet();
+        // warm up every path before measuring
+        for (int i = 0; i < iterations; i++) {
+            stock(gson, payload, type, cls);
+            codec.read(new ByteArrayInputStream(payload), cls, null);
+            codec.read(new ByteArrayInputStream(payload), cls, none);
+        }
+        long threadId = Thread.currentThread().getId();
+        for (String path : new String[] { "connector", "codec", "codec, no back-refs" }) {
+            long bytes = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                if ("connector".equals(path)) {
+                    stock(gson, payload, type, cls);
+                } else {
+                    codec.read(new ByteArrayInputStream(payload), cls, "codec".equals(path) ? null : none);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = THREADS.getThreadAllocatedBytes(threadId) - bytes;
+            System.out.printf("  %-20s %10d bytes/read %8d us/read%n", path, bytes / iterations, nanos / iterations
+                    / 1000);
+        }
+    }
+
+    /* What ApiConnector does with a response */
+    static ApiObjectBase stock(Gson gson, byte[] payload, String type, Class<? extends ApiObjectBase> cls) {
+        String body = new String(payload, ContrailJsonCodec.UTF8);
+        JsonObject response = new JsonParser().parse(body).getAsJsonObject();
+        return gson.fromJson(response.get(type), cls);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import net.juniper.contrail.api.types.NetworkIpam;
+import net.juniper.contrail.api.types.SubnetType;
+import net.juniper.contrail.api.types.VirtualNetwork;
+import net.juniper.contrail.api.types.VnSubnetsType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Test Class for ContrailJsonCodec.
+ */
+public class ContrailJsonCodecTest {
+    ContrailJsonCodec codec;
+    byte[] response;
+
+    @Before
+    public void beforeTest() {
+        codec = new ContrailJsonCodec();
+        JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network");
+        network.addProperty("uuid", "0d2e3d4c-6a2f-4b8e-9c1d-5e6f7a8b9c0d");
+        network.addProperty("display_name", "network");
+        network.add("virtual_machine_interface_back_refs", backRefs(3));
+        network.add("instance_ip_back_refs", backRefs(2));
+        JsonObject wrapped = new JsonObject();
+        wrapped.add("virtual-network", network);
+        response = wrapped.toString().getBytes(ContrailJsonCodec.UTF8);
+    }
+
+    static JsonArray backRefs(int count) {
+        JsonArray refs = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            JsonObject ref = new JsonObject();
+            JsonArray to = new JsonArray();
+            to.add(new JsonPrimitive("port" + i));
+            ref.add("to", to);
+            ref.addProperty("uuid", "3f1b2c4d-0000-4000-8000-00000000000" + i);
+            refs.add(ref);
+        }
+        return refs;
+    }
+
+    /* Test method to check a full read keeps every back-reference */
+    @Test
+    public void testReadAll() throws Exception {
+        VirtualNetwork network = codec.read(new ByteArrayInputStream(response), VirtualNetwork.class, null);
+        assertEquals("network", network.getDisplayName());
+        assertEquals(3, network.getVirtualMachineInterfaceBackRefs().size());
+        assertEquals(2, network.getInstanceIpBackRefs().size());
+    }
+
+    /* Test method to check back-references that were not asked for are skipped */
+    @Test
+    public void testSkipUnrequestedBackRefs() throws Exception {
+        VirtualNetwork network = codec.read(new ByteArrayInputStream(response), VirtualNetwork.class,
+                ContrailJsonCodec.backRefs("display_name", "instance_ip_back_refs"));
+        assertEquals("network", network.getDisplayName());
+        assertNull(network.getVirtualMachineInterfaceBackRefs());
+        assertEquals(2, network.getInstanceIpBackRefs().size());
+        network = codec.read(new ByteArrayInputStream(response), VirtualNetwork.class,
+                Collections.<String> emptySet());
+        assertNull(network.getInstanceIpBackRefs());
+        assertEquals(3, network.getQualifiedName().size());
+    }
+
+    /* Test method to check a written object has the request form and reads back */
+    @Test
+    public void testWrite() throws Exception {
+        VirtualNetwork network = codec.read(new ByteArrayInputStream(response), VirtualNetwork.class, null);
+        network.setNetworkIpam(new NetworkIpam(), new VnSubnetsType());
+        network.getNetworkIpam().get(0).getAttr().addIpamSubnets(new SubnetType("10.0.0.0", 24), "10.0.0.1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(out, network);
+        JsonObject written = new JsonParser().parse(new String(out.toByteArray(), ContrailJsonCodec.UTF8))
+                .getAsJsonObject().getAsJsonObject("virtual-network");
+        assertEquals("network", written.get("display_name").getAsString());
+        assertTrue(written.has("network_ipam_refs"));
+        // back-references are maintained by Contrail and never written
+        assertFalse(written.has("virtual_machine_interface_back_refs"));
+        VirtualNetwork reread = codec.read(new ByteArrayInputStream(out.toByteArray()), VirtualNetwork.class, null);
+        assertEquals(1, reread.getNetworkIpam().get(0).getAttr().getIpamSubnets().size());
+    }
+
+    /* Test method to check a response without the object reads as null */
+    @Test
+    public void testOtherType() throws Exception {
+        assertNull(codec.read(new ByteArrayInputStream(response), NetworkIpam.class, null));
+    }
+
+    /* Test method to check a truncated response fails with an IOException */
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        codec.read(new ByteArrayInputStream(response, 0, response.length / 2), VirtualNetwork.class, null);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Benchmark of the garbage collection caused by caching large networks on
+ * the heap against caching them in a {@link ContrailObjectCache} with a small
+ * on-heap tier.
+ *
+ * Each run caches the networks, then allocates short-lived garbage as the
+ * handlers do while looking up networks, most of them among a few busy ones,
+ * and reports the heap held, the collections meanwhile and the pause of a
+ * full collection. Run
+ * each mode in a JVM of its own, e.g. with {@code -Xmx1g}:
+ * {@code java org.opendaylight.opencontrail.neutron.ContrailObjectCacheBenchmark heap|tiered [networks] [subnets]}.
+ */
+public class ContrailObjectCacheBenchmark {
+    static final String PROJECTION = ContrailRestClient.projection("network_ipam_refs");
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "tiered";
+        int networks = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int subnets = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        ContrailJsonCodec codec = new ContrailJsonCodec();
+        ContrailMetrics metrics = new ContrailMetrics();
+        ContrailObjectCache cache = new ContrailObjectCache(4L << 20, 512 << 20, 3600000L, metrics);
+        List<VirtualNetwork> heap = new ArrayList<VirtualNetwork>();
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < networks; i++) {
+            VirtualNetwork network = network(codec, subnets);
+            String key = VirtualNetwork.class.getName() + ":" + network.getUuid();
+            keys.add(key);
+            if ("heap".equals(mode)) {
+                heap.add(network);
+            } else {
+                cache.put(key, PROJECTION, network, cache.stamp());
+            }
+        }
+        long held = usedHeap();
+        long collections = collections();
+        long collectionMillis = collectionMillis();
+        long start = System.nanoTime();
+        long sink = 0;
+        Random random = new Random(7);
+        for (int i = 0; i < 2000000; i++) {
+            // the garbage of handling a request, and a lookup of a cached network
+            byte[] garbage = new byte[512];
+            sink += garbage.length;
+            if (i % 1000 == 0) {
+                // nine lookups in ten are of the ten busiest networks
+                int index = random.nextInt(10) < 9 ? random.nextInt(10) : random.nextInt(keys.size());
+                VirtualNetwork network = "heap".equals(mode) ? heap.get(index) : cache.get(VirtualNetwork.class,
+                        keys.get(index), PROJECTION);
+                sink += network.getUuid().length();
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        long collectionStart = System.nanoTime();
+        System.gc();
+        long fullMillis = (System.nanoTime() - collectionStart) / 1000000;
+        System.out.printf("%s: %d networks of %d subnets%n", mode, networks, subnets);
+        System.out.printf("  heap held         %8d KB%n", held / 1024);
+        System.out.printf("  collections       %8d%n", collections() - collections);
+        System.out.printf("  collection time   %8d ms%n", collectionMillis() - collectionMillis);
+        System.out.printf("  full collection   %8d ms%n", fullMillis);
+        System.out.printf("  run time          %8d ms (%d)%n", millis, sink % 10);
+    }
+
+    static VirtualNetwork network(ContrailJsonCodec codec, int subnets) throws Exception {
+        JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network");
+        network.addProperty("uuid", UUID.randomUUID().toString());
+        JsonArray ipamSubnets = new JsonArray();
+        for (int i = 0; i < subnets; i++) {
+            JsonObject subnet = new JsonObject();
+            JsonObject prefix = new JsonObject();
+            prefix.addProperty("ip_prefix", "10." + (i >> 8) + "." + (i & 255) + ".0");
+            prefix.addProperty("ip_prefix_len", 24);
+            subnet.add("subnet", prefix);
+            subnet.addProperty("default_gateway", "10." + (i >> 8) + "." + (i & 255) + ".1");
+            ipamSubnets.add(subnet);
+        }
+        JsonObject attr = new JsonObject();
+        attr.add("ipam_subnets", ipamSubnets);
+        JsonObject ipamRef = new JsonObject();
+        ipamRef.add("to", ContrailStandIn.object(null, "default-domain", "default-project", "default-network-ipam")
+                .get("fq_name"));
+        ipamRef.add("attr", attr);
+        JsonArray ipamRefs = new JsonArray();
+        ipamRefs.add(ipamRef);
+        network.add("network_ipam_refs", ipamRefs);
+        byte[] payload = ContrailJsonCodecBenchmark.payload("virtual-network", network);
+        return codec.read(new ByteArrayInputStream(payload), VirtualNetwork.class, Collections.<String> emptySet());
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for ContrailObjectCache.
+ */
+public class ContrailObjectCacheTest {
+    static final String PROJECTION = ContrailRestClient.projection("display_name");
+    ContrailMetrics metrics;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+    }
+
+    /* Test method to check objects are served from the heap, then from off-heap once dropped from it */
+    @Test
+    public void testTiers() {
+        ContrailObjectCache cache = new ContrailObjectCache(1 << 20, 1 << 20, 60000, metrics);
+        VirtualNetwork network = network("network-1");
+        String key = key(network);
+        cache.put(key, PROJECTION, network, cache.stamp());
+        assertSame(network, cache.get(VirtualNetwork.class, key, PROJECTION));
+        assertEquals(1, metrics.get("cache.hot.hits"));
+
+        // objects larger than a quarter of the on-heap tier only go off-heap
+        cache = new ContrailObjectCache(16, 1 << 20, 60000, metrics);
+        cache.put(key, PROJECTION, network, cache.stamp());
+        VirtualNetwork cached = cache.get(VirtualNetwork.class, key, PROJECTION);
+        assertFalse(cached == network);
+        assertEquals(network.getUuid(), cached.getUuid());
+        assertEquals("network-1", cached.getDisplayName());
+        assertEquals(1, metrics.get("cache.offheap.hits"));
+        assertNull(cache.get(VirtualNetwork.class, key, ContrailRestClient.projection()));
+        assertEquals(1, metrics.get("cache.misses"));
+    }
+
+    /* Test method to check the oldest objects are evicted from the off-heap ring as it fills up */
+    @Test
+    public void testEviction() {
+        ContrailObjectCache cache = new ContrailObjectCache(0, 4096, 60000, metrics);
+        VirtualNetwork first = network("network-0");
+        cache.put(key(first), PROJECTION, first, cache.stamp());
+        VirtualNetwork last = null;
+        for (int i = 1; i < 100; i++) {
+            last = network("network-" + i);
+            cache.put(key(last), PROJECTION, last, cache.stamp());
+            assertTrue(metrics.get("cache.offheap.bytes") <= 4096);
+        }
+        assertNull(cache.get(VirtualNetwork.class, key(first), PROJECTION));
+        assertNotNull(cache.get(VirtualNetwork.class, key(last), PROJECTION));
+        assertTrue(metrics.get("cache.evictions") > 0);
+        assertTrue(cache.size() < 100);
+    }
+
+    /* Test method to check an invalidated object is dropped and not brought back by a read that raced it */
+    @Test
+    public void testInvalidate() {
+        ContrailObjectCache cache = new ContrailObjectCache(1 << 20, 1 << 20, 60000, metrics);
+        VirtualNetwork network = network("network-1");
+        String key = key(network);
+        long stamp = cache.stamp();
+        cache.put(key, PROJECTION, network, stamp);
+        cache.invalidate(key);
+        assertNull(cache.get(VirtualNetwork.class, key, PROJECTION));
+        cache.put(key, PROJECTION, network, stamp);
+        assertNull(cache.get(VirtualNetwork.class, key, PROJECTION));
+        assertEquals(1, metrics.get("cache.raced"));
+        cache.put(key, PROJECTION, network, cache.stamp());
+        assertSame(network, cache.get(VirtualNetwork.class, key, PROJECTION));
+    }
+
+    /* Test method to check expired objects are read again */
+    @Test
+    public void testExpiry() {
+        ContrailObjectCache cache = new ContrailObjectCache(1 << 20, 1 << 20, 0, metrics);
+        VirtualNetwork network = network("network-1");
+        cache.put(key(network), PROJECTION, network, cache.stamp());
+        assertNull(cache.get(VirtualNetwork.class, key(network), PROJECTION));
+        assertEquals(0, cache.size());
+    }
+
+    /* Test method to check the client reads through the cache and invalidates what it writes */
+    @Test
+    public void testClient() throws Exception {
+        ContrailStandIn standIn = new ContrailStandIn();
+        ContrailRestClient restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000);
+        try {
+            ApiConnector connector = ApiConnectorFactory.build("127.0.0.1", standIn.getPort());
+            ConnectorPool pool = new ConnectorPool("cache", Collections.singletonList(connector),
+                    new AdaptiveConcurrencyLimiter("cache", 4, 1, 4, metrics), 5000, metrics);
+            ContrailClient client = new ContrailClient(pool, pool, restClient, null, null, new ContrailObjectCache(
+                    1 << 20, 1 << 20, 60000, metrics), null, metrics);
+            VirtualNetwork network = network("network-1");
+            assertTrue(client.create(network));
+            assertEquals("network-1", client.findFields(VirtualNetwork.class, network.getUuid(), "display_name")
+                    .getDisplayName());
+            long requests = standIn.getRequestCount();
+            client.findFields(VirtualNetwork.class, network.getUuid(), "display_name");
+            assertEquals(requests, standIn.getRequestCount());
+            // back-references are always read
+            client.findFields(VirtualNetwork.class, network.getUuid(), "instance_ip_back_refs");
+            assertEquals(requests + 1, standIn.getRequestCount());
+
+            VirtualNetwork update = client.findByIdForUpdate(VirtualNetwork.class, network.getUuid());
+            update.setDisplayName("network-2");
+            assertTrue(client.update(update));
+            assertEquals("network-2", client.findFields(VirtualNetwork.class, network.getUuid(), "display_name")
+                    .getDisplayName());
+        } finally {
+            restClient.close();
+            standIn.stop();
+        }
+    }
+
+    private static VirtualNetwork network(String name) {
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName(name);
+        network.setUuid(UUID.randomUUID().toString());
+        network.setDisplayName(name);
+        return network;
+    }
+
+    private static String key(VirtualNetwork network) {
+        return VirtualNetwork.class.getName() + ":" + network.getUuid();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.juniper.contrail.api.ObjectReference;
+import net.juniper.contrail.api.types.NetworkIpam;
+import net.juniper.contrail.api.types.SubnetType;
+import net.juniper.contrail.api.types.VirtualMachineInterface;
+import net.juniper.contrail.api.types.VirtualNetwork;
+import net.juniper.contrail.api.types.VnSubnetsType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Test Class for ContrailRestClient.
+ */
+public class ContrailRestClientTest {
+    ContrailStandIn standIn;
+    ContrailRestClient restClient;
+    String networkUuid;
+
+    @Before
+    public void beforeTest() throws Exception {
+        standIn = new ContrailStandIn();
+        restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000);
+        JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network");
+        network.addProperty("display_name", "network");
+        networkUuid = standIn.store("virtual-network", network);
+        JsonObject port = ContrailStandIn.object(null, "port");
+        JsonObject ref = new JsonObject();
+        ref.add("to", network.get("fq_name"));
+        ref.addProperty("uuid", networkUuid);
+        JsonArray refs = new JsonArray();
+        refs.add(ref);
+        port.add("virtual_network_refs", refs);
+        standIn.store("virtual-machine-interface", port);
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        restClient.close();
+        standIn.stop();
+    }
+
+    /* Test method to check the REST type names derived from the object classes */
+    @Test
+    public void testTypeName() {
+        assertEquals("virtual-network", ContrailRestClient.typeName(VirtualNetwork.class));
+        assertEquals("virtual-machine-interface", ContrailRestClient.typeName(VirtualMachineInterface.class));
+        assertEquals("network-ipam", ContrailRestClient.typeName(NetworkIpam.class));
+    }
+
+    /* Test method to check a read of one back-reference type leaves out the other fields */
+    @Test
+    public void testBackRefProjection() throws Exception {
+        VirtualNetwork network = restClient.findFields(VirtualNetwork.class, networkUuid,
+                "virtual_machine_interface_back_refs");
+        assertEquals(networkUuid, network.getUuid());
+        assertEquals(1, network.getVirtualMachineInterfaceBackRefs().size());
+        assertNull(network.getDisplayName());
+    }
+
+    /* Test method to check an existence read carries the identity but no back-references */
+    @Test
+    public void testIdentityProjection() throws Exception {
+        VirtualNetwork network = restClient.findFields(VirtualNetwork.class, networkUuid);
+        assertEquals("network", network.getName());
+        assertEquals(3, network.getQualifiedName().size());
+        assertNull(network.getVirtualMachineInterfaceBackRefs());
+        assertEquals("network", restClient.findFields(VirtualNetwork.class, networkUuid, "display_name")
+                .getDisplayName());
+    }
+
+    /* Test method to check a reference is added, has its attribute replaced and is removed on its own */
+    @Test
+    public void testReferenceUpdate() throws Exception {
+        VirtualNetwork network = restClient.findFields(VirtualNetwork.class, networkUuid);
+        ObjectReference<VnSubnetsType> ref = new ObjectReference<VnSubnetsType>(Arrays.asList("default-domain",
+                "default-project", "default-network-ipam"), new VnSubnetsType());
+        ref.getAttr().addIpamSubnets(new SubnetType("10.0.0.0", 24), "10.0.0.1");
+        assertTrue(restClient.addReference(network, NetworkIpam.class, ref));
+        ref.getAttr().addIpamSubnets(new SubnetType("10.0.1.0", 24), "10.0.1.1");
+        assertTrue(restClient.addReference(network, NetworkIpam.class, ref));
+        List<ObjectReference<VnSubnetsType>> ipamRefs = restClient.findFields(VirtualNetwork.class, networkUuid,
+                "network_ipam_refs").getNetworkIpam();
+        assertEquals(1, ipamRefs.size());
+        assertEquals(2, ipamRefs.get(0).getAttr().getIpamSubnets().size());
+        assertEquals("network", standIn.get(networkUuid).get("display_name").getAsString());
+        assertTrue(restClient.deleteReference(network, NetworkIpam.class, ref));
+        assertEquals(0, restClient.findFields(VirtualNetwork.class, networkUuid, "network_ipam_refs").getNetworkIpam()
+                .size());
+    }
+
+    /* Test method to check a missing object reads as null */
+    @Test
+    public void testMissingObject() throws Exception {
+        assertNull(restClient.findFields(VirtualNetwork.class, "9a7c3e86-55c3-4d2f-8d49-3b1b1f0e1d2a"));
+    }
+
+    /* Test method to check an update streams the object and leaves back-references alone */
+    @Test
+    public void testUpdate() throws Exception {
+        VirtualNetwork network = restClient.findFields(VirtualNetwork.class, networkUuid, "display_name");
+        network.setDisplayName("renamed");
+        assertTrue(restClient.update(network));
+        assertEquals("renamed", standIn.get(networkUuid).get("display_name").getAsString());
+        assertEquals(1, restClient.findFields(VirtualNetwork.class, networkUuid, "virtual_machine_interface_back_refs")
+                .getVirtualMachineInterfaceBackRefs().size());
+    }
+}
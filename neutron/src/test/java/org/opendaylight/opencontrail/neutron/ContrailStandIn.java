@@ -0,0 +1,636 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Contrail API server, used by tests and benchmarks.
+ *
+ * Serves the part of the Contrail REST API the plugin uses (create, read,
+ * update, delete and list of config objects, fqname-to-id) from memory, keeps
+ * references, back-references and children consistent, and can inject
+ * latency that grows with the number of concurrent requests to emulate an
+ * overloaded Contrail. Like Contrail, it stamps every object written with
+ * the time of the write in {@code id_perms.last_modified}; {@link #modify}
+ * and {@link #remove} emulate the writes of other clients.
+ */
+public class ContrailStandIn {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String[] DEFAULT_PROJECT = { "default-domain", "default-project" };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, JsonObject> objects = new HashMap<String, JsonObject>();
+    private final Map<String, String> types = new HashMap<String, String>();
+    private final Map<String, String> fqNames = new HashMap<String, String>();
+    private final Map<String, Set<String>> backRefs = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private long modifications;
+    private volatile long baseLatencyMicros;
+    private volatile long latencyPerRequestMicros;
+    private volatile int gzipMinLength = -1;
+    private final AtomicLong gzippedRequests = new AtomicLong();
+    private final AtomicLong gzippedResponses = new AtomicLong();
+
+    public ContrailStandIn() throws IOException {
+        // without it every response waits for a delayed ACK, some 40 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        // where the JDK has virtual threads, thousands of slow requests cost no platform threads
+        ExecutorService virtual = VirtualThreads.newThreadPerTaskExecutor("contrail-stand-in-");
+        executor = virtual != null ? virtual : Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        String domain = store("domain", object(null, "default-domain"));
+        String project = store("project", object(domain, "default-domain", "default-project"));
+        store("network-ipam", object(project, "default-domain", "default-project", "default-network-ipam"));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sets the latency of every request to {@code base} plus
+     * {@code perConcurrentRequest} for every other request being served.
+     */
+    public void setLatency(long base, long perConcurrentRequest, TimeUnit unit) {
+        baseLatencyMicros = unit.toMicros(base);
+        latencyPerRequestMicros = unit.toMicros(perConcurrentRequest);
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Makes responses of at least the given length gzipped for clients that
+     * accept it, as a Contrail API server behind a compressing proxy does;
+     * -1 turns compression off.
+     */
+    public void setGzipMinLength(int length) {
+        gzipMinLength = length;
+    }
+
+    public long getGzippedRequestCount() {
+        return gzippedRequests.get();
+    }
+
+    public long getGzippedResponseCount() {
+        return gzippedResponses.get();
+    }
+
+    /**
+     * Stores a config object directly, bypassing the REST interface.
+     *
+     * @return The uuid of the object.
+     */
+    public synchronized String store(String type, JsonObject obj) {
+        if (!obj.has("uuid")) {
+            obj.addProperty("uuid", UUID.randomUUID().toString());
+        }
+        String uuid = obj.get("uuid").getAsString();
+        if (!obj.has("name")) {
+            JsonArray fqName = obj.getAsJsonArray("fq_name");
+            obj.add("name", fqName.get(fqName.size() - 1));
+        }
+        modified(obj);
+        objects.put(uuid, obj);
+        types.put(uuid, type);
+        fqNames.put(type + ":" + obj.get("fq_name").toString(), uuid);
+        index(uuid, obj, true);
+        return uuid;
+    }
+
+    /**
+     * Sets a property of a config object, as another client of Contrail
+     * would.
+     *
+     * @return False if the object does not exist.
+     */
+    public synchronized boolean modify(String uuid, String property, JsonElement value) {
+        JsonObject changes = new JsonObject();
+        changes.add(property, value);
+        return types.containsKey(uuid) && update(types.get(uuid), uuid, changes).status == 200;
+    }
+
+    /**
+     * Deletes a config object, as another client of Contrail would.
+     *
+     * @return False if the object does not exist or is still referred to.
+     */
+    public synchronized boolean remove(String uuid) {
+        return types.containsKey(uuid) && delete(types.get(uuid), uuid).status == 200;
+    }
+
+    /**
+     * Stamps an object with the time of a write, unique to the write.
+     */
+    private void modified(JsonObject obj) {
+        JsonObject idPerms = obj.has("id_perms") && obj.get("id_perms").isJsonObject() ? obj
+                .getAsJsonObject("id_perms") : new JsonObject();
+        idPerms.addProperty("last_modified", String.format("%tFT%<tT.%06d", System.currentTimeMillis(),
+                ++modifications % 1000000));
+        obj.add("id_perms", idPerms);
+    }
+
+    public synchronized JsonObject get(String uuid) {
+        JsonObject obj = objects.get(uuid);
+        return obj == null ? null : copy(obj);
+    }
+
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    static JsonObject object(String parentUuid, String... fqName) {
+        JsonObject obj = new JsonObject();
+        JsonArray fq = new JsonArray();
+        for (String name : fqName) {
+            fq.add(new JsonPrimitive(name));
+        }
+        obj.add("fq_name", fq);
+        if (parentUuid != null) {
+            obj.addProperty("parent_uuid", parentUuid);
+        }
+        return obj;
+    }
+
+    static JsonObject copy(JsonObject obj) {
+        return new JsonParser().parse(obj.toString()).getAsJsonObject();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int concurrent = inFlight.incrementAndGet();
+        try {
+            long latency = baseLatencyMicros + latencyPerRequestMicros * (concurrent - 1);
+            if (latency > 0) {
+                TimeUnit.MICROSECONDS.sleep(latency);
+            }
+            Response response = route(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), exchange
+                    .getRequestURI().getRawQuery(), readBody(exchange));
+            byte[] body = response.body == null ? new byte[0] : response.body.toString().getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (gzipMinLength >= 0 && body.length >= gzipMinLength && accepted != null && accepted.contains("gzip")) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+                gzip.write(body);
+                gzip.close();
+                body = buffer.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                gzippedResponses.incrementAndGet();
+            }
+            exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+            gzippedRequests.incrementAndGet();
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+
+    Response route(String method, String path, String query, byte[] body) {
+        String[] parts = path.substring(1).split("/");
+        if (parts.length == 1 && "fqname-to-id".equals(parts[0]) && "POST".equals(method)) {
+            return fqNameToId(parse(body));
+        }
+        if (parts.length == 1 && "ref-update".equals(parts[0]) && "POST".equals(method)) {
+            return refUpdate(parse(body));
+        }
+        if (parts.length == 1 && parts[0].endsWith("s")) {
+            String type = parts[0].substring(0, parts[0].length() - 1);
+            if ("POST".equals(method)) {
+                return create(type, parse(body).getAsJsonObject(type));
+            }
+            if ("GET".equals(method)) {
+                return list(type, query);
+            }
+        }
+        if (parts.length == 2) {
+            if ("GET".equals(method)) {
+                return read(parts[0], parts[1], query);
+            }
+            if ("PUT".equals(method)) {
+                return update(parts[0], parts[1], parse(body).getAsJsonObject(parts[0]));
+            }
+            if ("DELETE".equals(method)) {
+                return delete(parts[0], parts[1]);
+            }
+        }
+        return new Response(404, null);
+    }
+
+    static JsonObject parse(byte[] body) {
+        return new JsonParser().parse(new String(body, UTF8)).getAsJsonObject();
+    }
+
+    private String href(String type, String uuid) {
+        return "http://127.0.0.1:" + getPort() + "/" + type + "/" + uuid;
+    }
+
+    private static String underscored(String type) {
+        return type.replace('-', '_');
+    }
+
+    synchronized Response create(String type, JsonObject obj) {
+        if (!obj.has("uuid") || obj.get("uuid").isJsonNull()) {
+            obj.addProperty("uuid", UUID.randomUUID().toString());
+        }
+        if (objects.containsKey(obj.get("uuid").getAsString())) {
+            return new Response(409, null);
+        }
+        if (!obj.has("fq_name")) {
+            JsonArray fqName = new JsonArray();
+            if (obj.has("parent_uuid") && objects.containsKey(obj.get("parent_uuid").getAsString())) {
+                fqName.addAll(objects.get(obj.get("parent_uuid").getAsString()).getAsJsonArray("fq_name"));
+            }
+            fqName.add(obj.get("name"));
+            obj.add("fq_name", fqName);
+        }
+        if (fqNames.containsKey(type + ":" + obj.get("fq_name").toString())) {
+            return new Response(409, null);
+        }
+        if (!obj.has("parent_uuid") && obj.has("parent_type")) {
+            JsonArray fqName = obj.getAsJsonArray("fq_name");
+            JsonArray parentFqName = new JsonArray();
+            for (int i = 0; i < fqName.size() - 1; i++) {
+                parentFqName.add(fqName.get(i));
+            }
+            String parentUuid = fqNames.get(obj.get("parent_type").getAsString() + ":" + parentFqName.toString());
+            if (parentUuid != null) {
+                obj.addProperty("parent_uuid", parentUuid);
+            }
+        }
+        if (!resolveRefs(obj)) {
+            return new Response(404, null);
+        }
+        String uuid = store(type, obj);
+        JsonObject summary = new JsonObject();
+        summary.addProperty("uuid", uuid);
+        summary.addProperty("href", href(type, uuid));
+        summary.add("fq_name", obj.get("fq_name"));
+        summary.add("name", obj.get("name"));
+        if (obj.has("parent_uuid")) {
+            summary.add("parent_uuid", obj.get("parent_uuid"));
+        }
+        return new Response(200, wrap(type, summary));
+    }
+
+    synchronized Response read(String type, String uuid, String query) {
+        JsonObject obj = objects.get(uuid);
+        if (obj == null || !type.equals(types.get(uuid))) {
+            return new Response(404, null);
+        }
+        Map<String, String> params = parameters(query);
+        JsonObject rendered = render(uuid, obj, !"true".equals(params.get("exclude_back_refs")),
+                !"true".equals(params.get("exclude_children")));
+        if (params.containsKey("fields")) {
+            rendered = project(rendered, params.get("fields").split(","));
+        }
+        return new Response(200, wrap(type, rendered));
+    }
+
+    static Map<String, String> parameters(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(param.substring(0, eq), param.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    /* Keeps the identity of the object and the given fields, as Contrail does for ?fields= */
+    static JsonObject project(JsonObject obj, String[] fields) {
+        JsonObject projected = new JsonObject();
+        for (String field : new String[] { "uuid", "name", "fq_name", "parent_type", "parent_uuid", "href" }) {
+            if (obj.has(field)) {
+                projected.add(field, obj.get(field));
+            }
+        }
+        for (String field : fields) {
+            if (obj.has(field)) {
+                projected.add(field, obj.get(field));
+            }
+        }
+        return projected;
+    }
+
+    JsonObject render(String uuid, JsonObject stored) {
+        return render(uuid, stored, true, true);
+    }
+
+    JsonObject render(String uuid, JsonObject stored, boolean withBackRefs, boolean withChildren) {
+        JsonObject obj = copy(stored);
+        obj.addProperty("href", href(types.get(uuid), uuid));
+        Set<String> sources = withBackRefs ? backRefs.get(uuid) : null;
+        if (sources != null) {
+            for (String source : sources) {
+                JsonObject sourceObj = objects.get(source);
+                String field = underscored(types.get(source)) + "_back_refs";
+                if (!obj.has(field)) {
+                    obj.add(field, new JsonArray());
+                }
+                JsonObject ref = new JsonObject();
+                ref.add("to", sourceObj.get("fq_name"));
+                ref.addProperty("uuid", source);
+                ref.addProperty("href", href(types.get(source), source));
+                JsonElement attr = refAttr(sourceObj, uuid);
+                if (attr != null) {
+                    ref.add("attr", attr);
+                }
+                obj.getAsJsonArray(field).add(ref);
+            }
+        }
+        Set<String> kids = withChildren ? children.get(uuid) : null;
+        if (kids != null) {
+            for (String child : kids) {
+                String field = underscored(types.get(child)) + "s";
+                if (!obj.has(field)) {
+                    obj.add(field, new JsonArray());
+                }
+                JsonObject ref = new JsonObject();
+                ref.add("to", objects.get(child).get("fq_name"));
+                ref.addProperty("uuid", child);
+                ref.addProperty("href", href(types.get(child), child));
+                obj.getAsJsonArray(field).add(ref);
+            }
+        }
+        return obj;
+    }
+
+    private JsonElement refAttr(JsonObject source, String target) {
+        for (Map.Entry<String, JsonElement> member : source.entrySet()) {
+            if (member.getKey().endsWith("_refs") && member.getValue().isJsonArray()) {
+                for (JsonElement ref : member.getValue().getAsJsonArray()) {
+                    JsonObject refObj = ref.getAsJsonObject();
+                    if (refObj.has("uuid") && target.equals(refObj.get("uuid").getAsString()) && refObj.has("attr")) {
+                        return refObj.get("attr");
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    synchronized Response update(String type, String uuid, JsonObject changes) {
+        JsonObject obj = objects.get(uuid);
+        if (obj == null || !type.equals(types.get(uuid))) {
+            return new Response(404, null);
+        }
+        if (!resolveRefs(changes)) {
+            return new Response(404, null);
+        }
+        index(uuid, obj, false);
+        for (Map.Entry<String, JsonElement> member : changes.entrySet()) {
+            if (!member.getKey().endsWith("_back_refs") && !"href".equals(member.getKey())) {
+                obj.add(member.getKey(), member.getValue());
+            }
+        }
+        modified(obj);
+        index(uuid, obj, true);
+        JsonObject summary = new JsonObject();
+        summary.addProperty("uuid", uuid);
+        summary.addProperty("href", href(type, uuid));
+        return new Response(200, wrap(type, summary));
+    }
+
+    synchronized Response delete(String type, String uuid) {
+        JsonObject obj = objects.get(uuid);
+        if (obj == null || !type.equals(types.get(uuid))) {
+            return new Response(404, null);
+        }
+        if (backRefs.containsKey(uuid) || children.containsKey(uuid)) {
+            return new Response(409, null);
+        }
+        index(uuid, obj, false);
+        objects.remove(uuid);
+        types.remove(uuid);
+        fqNames.remove(type + ":" + obj.get("fq_name").toString());
+        return new Response(200, null);
+    }
+
+    synchronized Response list(String type, String query) {
+        Map<String, String> params = parameters(query);
+        boolean detail = "true".equals(params.get("detail"));
+        // only the objects referring to the given one, as Contrail does for ?back_ref_id=
+        Set<String> referring = null;
+        if (params.containsKey("back_ref_id")) {
+            referring = backRefs.containsKey(params.get("back_ref_id")) ? backRefs.get(params.get("back_ref_id"))
+                    : Collections.<String> emptySet();
+        }
+        JsonArray items = new JsonArray();
+        for (Map.Entry<String, JsonObject> entry : objects.entrySet()) {
+            if (type.equals(types.get(entry.getKey())) && (referring == null || referring.contains(entry.getKey()))) {
+                if (detail) {
+                    JsonObject rendered = render(entry.getKey(), entry.getValue(), !"true".equals(params
+                            .get("exclude_back_refs")), !"true".equals(params.get("exclude_children")));
+                    if (params.containsKey("fields")) {
+                        rendered = project(rendered, params.get("fields").split(","));
+                    }
+                    items.add(wrap(type, rendered));
+                } else {
+                    JsonObject item = new JsonObject();
+                    item.addProperty("href", href(type, entry.getKey()));
+                    item.add("fq_name", entry.getValue().get("fq_name"));
+                    item.addProperty("uuid", entry.getKey());
+                    items.add(item);
+                }
+            }
+        }
+        JsonObject result = new JsonObject();
+        result.add(type + "s", items);
+        return new Response(200, result);
+    }
+
+    synchronized Response fqNameToId(JsonObject request) {
+        String uuid = fqNames.get(request.get("type").getAsString() + ":" + request.get("fq_name").toString());
+        if (uuid == null) {
+            return new Response(404, null);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", uuid);
+        return new Response(200, result);
+    }
+
+    synchronized Response refUpdate(JsonObject request) {
+        String type = request.get("type").getAsString();
+        String uuid = request.get("uuid").getAsString();
+        JsonObject obj = objects.get(uuid);
+        if (obj == null || !type.equals(types.get(uuid))) {
+            return new Response(404, null);
+        }
+        String refType = request.get("ref-type").getAsString();
+        String refUuid = request.has("ref-uuid") ? request.get("ref-uuid").getAsString() : fqNames.get(refType + ":"
+                + request.get("ref-fq-name").toString());
+        if (refUuid == null || !objects.containsKey(refUuid)) {
+            return new Response(404, null);
+        }
+        String field = underscored(refType) + "_refs";
+        JsonArray refs = new JsonArray();
+        if (obj.has(field)) {
+            for (JsonElement ref : obj.getAsJsonArray(field)) {
+                if (!refUuid.equals(ref.getAsJsonObject().get("uuid").getAsString())) {
+                    refs.add(ref);
+                }
+            }
+        }
+        if ("ADD".equals(request.get("operation").getAsString())) {
+            JsonObject ref = new JsonObject();
+            ref.add("to", objects.get(refUuid).get("fq_name"));
+            ref.addProperty("uuid", refUuid);
+            if (request.has("attr")) {
+                ref.add("attr", request.get("attr"));
+            }
+            refs.add(ref);
+        }
+        index(uuid, obj, false);
+        obj.add(field, refs);
+        modified(obj);
+        index(uuid, obj, true);
+        JsonObject result = new JsonObject();
+        result.addProperty("uuid", uuid);
+        return new Response(200, result);
+    }
+
+    private boolean resolveRefs(JsonObject obj) {
+        for (Map.Entry<String, JsonElement> member : obj.entrySet()) {
+            if (member.getKey().endsWith("_refs") && member.getValue().isJsonArray()) {
+                String refType = member.getKey().substring(0, member.getKey().length() - "_refs".length()).replace('_', '-');
+                for (JsonElement ref : member.getValue().getAsJsonArray()) {
+                    JsonObject refObj = ref.getAsJsonObject();
+                    if (!refObj.has("uuid") || refObj.get("uuid").isJsonNull()) {
+                        String uuid = fqNames.get(refType + ":" + refObj.get("to").toString());
+                        if (uuid == null) {
+                            return false;
+                        }
+                        refObj.addProperty("uuid", uuid);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void index(String uuid, JsonObject obj, boolean add) {
+        for (Map.Entry<String, JsonElement> member : obj.entrySet()) {
+            if (member.getKey().endsWith("_refs") && member.getValue().isJsonArray()) {
+                for (JsonElement ref : member.getValue().getAsJsonArray()) {
+                    JsonElement target = ref.getAsJsonObject().get("uuid");
+                    if (target != null && !target.isJsonNull()) {
+                        link(backRefs, target.getAsString(), uuid, add);
+                    }
+                }
+            }
+        }
+        if (obj.has("parent_uuid")) {
+            link(children, obj.get("parent_uuid").getAsString(), uuid, add);
+        }
+    }
+
+    private static void link(Map<String, Set<String>> index, String target, String source, boolean add) {
+        Set<String> sources = index.get(target);
+        if (add) {
+            if (sources == null) {
+                sources = new LinkedHashSet<String>();
+                index.put(target, sources);
+            }
+            sources.add(source);
+        } else if (sources != null) {
+            sources.remove(source);
+            if (sources.isEmpty()) {
+                index.remove(target);
+            }
+        }
+    }
+
+    static JsonObject wrap(String type, JsonObject obj) {
+        JsonObject wrapper = new JsonObject();
+        wrapper.add(type, obj);
+        return wrapper;
+    }
+
+    static final class Response {
+        final int status;
+        final JsonObject body;
+
+        Response(int status, JsonObject body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
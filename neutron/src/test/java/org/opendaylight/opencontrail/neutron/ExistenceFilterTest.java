@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Test Class for ExistenceFilter.
+ */
+public class ExistenceFilterTest {
+
+    private static List<String> uuids(int count) {
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            uuids.add(UUID.randomUUID().toString());
+        }
+        return uuids;
+    }
+
+    /* Test method to check an unseeded filter reports every UUID as maybe present */
+    @Test
+    public void testUnseededMaybePresent() {
+        ExistenceFilter filter = new ExistenceFilter(64);
+        filter.add("known");
+        filter.remove("known");
+        assertTrue(filter.mightContain("known"));
+        assertTrue(filter.mightContain(UUID.randomUUID().toString()));
+    }
+
+    /* Test method to check added UUIDs are present and others mostly absent */
+    @Test
+    public void testFalsePositiveRate() {
+        ExistenceFilter filter = new ExistenceFilter(10000);
+        List<String> added = uuids(10000);
+        for (String uuid : added) {
+            filter.add(uuid);
+        }
+        filter.seeded();
+        for (String uuid : added) {
+            assertTrue(filter.mightContain(uuid));
+        }
+        int falsePositives = 0;
+        for (String uuid : uuids(10000)) {
+            if (filter.mightContain(uuid)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50);
+    }
+
+    /* Test method to check the filter grows past its initial capacity without losing UUIDs */
+    @Test
+    public void testGrowsBeyondCapacity() {
+        ExistenceFilter filter = new ExistenceFilter(16);
+        filter.seeded();
+        List<String> added = uuids(5000);
+        for (String uuid : added) {
+            filter.add(uuid);
+        }
+        assertEquals(5000, filter.size());
+        for (String uuid : added) {
+            assertTrue(filter.mightContain(uuid));
+        }
+    }
+
+    /* Test method to check removed UUIDs become absent while others stay present */
+    @Test
+    public void testRemove() {
+        ExistenceFilter filter = new ExistenceFilter(64);
+        filter.seeded();
+        List<String> added = uuids(3);
+        for (String uuid : added) {
+            filter.add(uuid);
+        }
+        filter.remove(added.get(0));
+        assertFalse(filter.mightContain(added.get(0)));
+        assertTrue(filter.mightContain(added.get(1)));
+        assertTrue(filter.mightContain(added.get(2)));
+        assertEquals(2, filter.size());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for FairScheduler.
+ */
+public class FairSchedulerTest {
+    ContrailMetrics metrics;
+    FairScheduler scheduler;
+    ExecutorService executor;
+    List<String> grants;
+    CountDownLatch finished;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+        scheduler = new FairScheduler(1, 1, FairScheduler.parseWeights("gold=2"), metrics);
+        executor = Executors.newCachedThreadPool();
+        grants = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+    }
+
+    /* Queues one operation and waits until it is waiting for a slot */
+    private void enqueue(final String tenant, final FairScheduler.Lane lane) throws InterruptedException {
+        int waiting = scheduler.waitingCount();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FairScheduler.Ticket ticket = scheduler.acquire(tenant, lane);
+                    grants.add(tenant);
+                    ticket.release();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.countDown();
+                }
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.waitingCount() == waiting && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    /* Test method to check interactive operations go ahead of background work */
+    @Test
+    public void testInteractiveLaneFirst() throws Exception {
+        finished = new CountDownLatch(2);
+        FairScheduler.Ticket held = scheduler.acquire("tenant", FairScheduler.Lane.INTERACTIVE);
+        enqueue("reconcile", FairScheduler.Lane.BACKGROUND);
+        enqueue("boot", FairScheduler.Lane.INTERACTIVE);
+        held.release();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("boot", grants.get(0));
+        assertEquals("reconcile", grants.get(1));
+    }
+
+    /* Test method to check a bulk tenant does not starve a tenant arriving later */
+    @Test
+    public void testBulkTenantDoesNotStarveOthers() throws Exception {
+        finished = new CountDownLatch(7);
+        FairScheduler.Ticket held = scheduler.acquire("bulk", FairScheduler.Lane.INTERACTIVE);
+        for (int i = 0; i < 6; i++) {
+            enqueue("bulk", FairScheduler.Lane.INTERACTIVE);
+        }
+        enqueue("single", FairScheduler.Lane.INTERACTIVE);
+        held.release();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(grants.indexOf("single") <= 1);
+    }
+
+    /* Test method to check a tenant with weight 2 gets two slots per slot of a tenant with weight 1 */
+    @Test
+    public void testWeightedShares() throws Exception {
+        finished = new CountDownLatch(6);
+        FairScheduler.Ticket held = scheduler.acquire("other", FairScheduler.Lane.INTERACTIVE);
+        for (int i = 0; i < 3; i++) {
+            enqueue("plain", FairScheduler.Lane.INTERACTIVE);
+            enqueue("gold", FairScheduler.Lane.INTERACTIVE);
+        }
+        held.release();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, Collections.frequency(grants.subList(0, 3), "gold"));
+    }
+
+    /* Test method to check queue wait times are recorded per tenant and per lane */
+    @Test
+    public void testWaitTimeMetrics() throws Exception {
+        scheduler.acquire("tenant", FairScheduler.Lane.BACKGROUND).release();
+        scheduler.acquire(null, FairScheduler.Lane.INTERACTIVE).release();
+        Map<String, Long> counters = metrics.getCounters();
+        assertEquals(Long.valueOf(1), counters.get("scheduler.wait.tenant.tenant.count"));
+        assertEquals(Long.valueOf(1), counters.get("scheduler.wait.tenant.default.count"));
+        assertEquals(Long.valueOf(1), counters.get("scheduler.wait.lane.background.count"));
+        assertEquals(Long.valueOf(1), counters.get("scheduler.wait.lane.interactive.count"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.opendaylight.controller.networkconfig.neutron.NeutronNetwork;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Stress test of the handlers on many cores.
+ *
+ * Threads ask the same NetworkHandler whether networks with ports can be
+ * deleted, against the local Contrail stand-in, while the Contrail backend
+ * is swapped for a rebuilt one every few milliseconds. Throughput is reported
+ * for 1, 2, 4... threads up to the number of cores, with the speedup over one
+ * thread; no call may fail across the swaps. Run with
+ * {@code java org.opendaylight.opencontrail.neutron.HandlerScalingBenchmark [seconds] [maxThreads]}.
+ */
+public class HandlerScalingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ContrailStandIn standIn = new ContrailStandIn();
+        ContrailRestClient restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), maxThreads, 5000);
+        try {
+            final List<NeutronNetwork> networks = new ArrayList<NeutronNetwork>();
+            for (int i = 0; i < maxThreads; i++) {
+                JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network" + i);
+                String uuid = standIn.store("virtual-network", network);
+                JsonObject port = ContrailStandIn.object(null, "port" + i);
+                JsonObject ref = new JsonObject();
+                ref.add("to", network.get("fq_name"));
+                ref.addProperty("uuid", uuid);
+                JsonArray refs = new JsonArray();
+                refs.add(ref);
+                port.add("virtual_network_refs", refs);
+                standIn.store("virtual-machine-interface", port);
+                NeutronNetwork neutronNetwork = new NeutronNetwork();
+                neutronNetwork.setNetworkUUID(uuid);
+                neutronNetwork.setTenantID("tenant" + i);
+                networks.add(neutronNetwork);
+            }
+            final ContrailBackend backend = new ContrailBackend(newClient(standIn, restClient, maxThreads));
+            final NetworkHandler handler = new NetworkHandler(backend);
+            // warm up with every thread before measuring
+            run(handler, backend, standIn, restClient, networks, maxThreads, 1);
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double rate = run(handler, backend, standIn, restClient, networks, threads, seconds);
+                if (threads == 1) {
+                    single = rate;
+                }
+                System.out.printf("%3d threads %10.0f calls/s  speedup %5.2f%n", threads, rate, rate / single);
+            }
+        } finally {
+            restClient.close();
+            standIn.stop();
+        }
+    }
+
+    static ContrailClient newClient(ContrailStandIn standIn, ContrailRestClient restClient, int connections) {
+        ContrailMetrics metrics = new ContrailMetrics();
+        List<ApiConnector> connectors = new ArrayList<ApiConnector>();
+        for (int i = 0; i < connections; i++) {
+            connectors.add(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+        }
+        ConnectorPool pool = new ConnectorPool("benchmark", connectors, new AdaptiveConcurrencyLimiter("benchmark",
+                connections, connections, connections, metrics), Long.MAX_VALUE, metrics);
+        return new ContrailClient(pool, pool, restClient, null, null, null, null, metrics);
+    }
+
+    static double run(final NetworkHandler handler, ContrailBackend backend, ContrailStandIn standIn,
+            ContrailRestClient restClient, final List<NeutronNetwork> networks, int threads, int seconds)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final NeutronNetwork network = networks.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            if (handler.canDeleteNetwork(network) == HttpURLConnection.HTTP_FORBIDDEN) {
+                                completed.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        while (!done.await(20, TimeUnit.MILLISECONDS)) {
+            backend.swap(newClient(standIn, restClient, networks.size()));
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        if (failed.get() > 0) {
+            System.out.println("  " + failed.get() + " calls failed");
+        }
+        return completed.get() * 1e9 / elapsed;
+    }
+}
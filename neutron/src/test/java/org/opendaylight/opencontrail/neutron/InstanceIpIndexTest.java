@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Test Class for InstanceIpIndex.
+ */
+public class InstanceIpIndexTest {
+    InstanceIpIndex index;
+
+    @Before
+    public void beforeTest() {
+        index = new InstanceIpIndex();
+        Map<String, String> instanceIps = new HashMap<String, String>();
+        instanceIps.put("ip-1", "10.0.0.5");
+        instanceIps.put("ip-2", "10.0.1.5");
+        instanceIps.put("ip-3", "10.0.1.255");
+        instanceIps.put("ip-4", "2001:db8::5");
+        index.load("network-1", instanceIps);
+    }
+
+    /* Test method to check the instance IPs inside a CIDR are found by range */
+    @Test
+    public void testFind() {
+        assertEquals(Arrays.asList("ip-1"), index.find("network-1", "10.0.0.0/24"));
+        assertEquals(new HashSet<String>(Arrays.asList("ip-2", "ip-3")),
+                new HashSet<String>(index.find("network-1", "10.0.1.0/24")));
+        assertEquals(3, index.find("network-1", "10.0.0.0/16").size());
+        assertTrue(index.find("network-1", "10.0.2.0/24").isEmpty());
+        assertEquals(Arrays.asList("ip-4"), index.find("network-1", "2001:db8::/64"));
+    }
+
+    /* Test method to check a network that is not loaded is not answered for */
+    @Test
+    public void testNotLoaded() {
+        index.add("network-2", "ip-5", "10.0.0.6");
+        assertFalse(index.isLoaded("network-2"));
+        assertNull(index.find("network-2", "10.0.0.0/24"));
+        index.forget("network-1");
+        assertNull(index.find("network-1", "10.0.0.0/24"));
+    }
+
+    /* Test method to check the index follows instance IPs added and removed */
+    @Test
+    public void testAddRemove() {
+        index.add("network-1", "ip-5", "10.0.2.1");
+        index.add("network-1", "ip-6", "10.0.2.1");
+        assertEquals(2, index.find("network-1", "10.0.2.0/24").size());
+        index.remove("network-1", "ip-5", "10.0.2.1");
+        assertEquals(Arrays.asList("ip-6"), index.find("network-1", "10.0.2.0/24"));
+        index.remove("network-1", "ip-6", "10.0.2.1");
+        index.remove("network-1", "ip-1", "10.0.0.5");
+        assertEquals(2, index.find("network-1", "10.0.0.0/23").size());
+    }
+
+    /* Test method to check the instance IPs of a network are read in one request, however many more than the read limit */
+    @Test
+    public void testRead() throws Exception {
+        ContrailMetrics metrics = new ContrailMetrics();
+        ContrailStandIn standIn = new ContrailStandIn();
+        ContrailRestClient restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000);
+        try {
+            String networkUuid = standIn.store("virtual-network", ContrailStandIn.object(null, "default-domain",
+                    "default-project", "network-1"));
+            String otherUuid = standIn.store("virtual-network", ContrailStandIn.object(null, "default-domain",
+                    "default-project", "network-2"));
+            for (int i = 0; i < 10; i++) {
+                standIn.store("instance-ip", instanceIp(standIn, "instance-ip-" + i, "10.0.0." + i, networkUuid));
+            }
+            standIn.store("instance-ip", instanceIp(standIn, "instance-ip-other", "10.0.0.1", otherUuid));
+            ConnectorPool pool = new ConnectorPool("read", Collections.singletonList(ApiConnectorFactory.build(
+                    "127.0.0.1", standIn.getPort())), new AdaptiveConcurrencyLimiter("read", 2, 1, 2, metrics), 5000,
+                    metrics);
+            ContrailClient client = new ContrailClient(pool, pool, restClient, null, null, null, null, metrics);
+            long requests = standIn.getRequestCount();
+            Map<String, String> addresses = InstanceIpIndex.read(client, networkUuid);
+            assertNotNull(addresses);
+            assertEquals(10, addresses.size());
+            assertTrue(addresses.containsValue("10.0.0.9"));
+            assertEquals(1, standIn.getRequestCount() - requests);
+            assertNull(InstanceIpIndex.read(client, "00000000-0000-0000-0000-000000000001"));
+        } finally {
+            restClient.close();
+            standIn.stop();
+        }
+    }
+
+    private static JsonObject instanceIp(ContrailStandIn standIn, String name, String address,
+            String networkUuid) {
+        JsonObject instanceIp = ContrailStandIn.object(null, name);
+        instanceIp.addProperty("instance_ip_address", address);
+        JsonObject ref = new JsonObject();
+        ref.add("to", standIn.get(networkUuid).get("fq_name"));
+        ref.addProperty("uuid", networkUuid);
+        JsonArray refs = new JsonArray();
+        refs.add(ref);
+        instanceIp.add("virtual_network_refs", refs);
+        return instanceIp;
+    }
+
+    /* Test method to check a malformed CIDR is refused */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedCidr() {
+        index.find("network-1", "10.0.0.0");
+    }
+}
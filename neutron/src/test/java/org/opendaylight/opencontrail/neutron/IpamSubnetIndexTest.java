@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.juniper.contrail.api.types.NetworkIpam;
+import net.juniper.contrail.api.types.SubnetType;
+import net.juniper.contrail.api.types.VirtualNetwork;
+import net.juniper.contrail.api.types.VnSubnetsType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for IpamSubnetIndex.
+ */
+public class IpamSubnetIndexTest {
+    VirtualNetwork virtualNetwork;
+
+    @Before
+    public void beforeTest() {
+        virtualNetwork = new VirtualNetwork();
+        VnSubnetsType vnSubnetsType = new VnSubnetsType();
+        vnSubnetsType.addIpamSubnets(new SubnetType("10.0.0.0", 24), "10.0.0.1");
+        vnSubnetsType.addIpamSubnets(new SubnetType("10.0.1.0", 24), "10.0.1.1");
+        virtualNetwork.setNetworkIpam(new NetworkIpam(), vnSubnetsType);
+    }
+
+    /* Test method to check the IPAM subnets are found by prefix and length */
+    @Test
+    public void testGet() {
+        IpamSubnetIndex index = new IpamSubnetIndex(virtualNetwork);
+        assertEquals(2, index.size());
+        assertEquals("10.0.1.1", index.get("10.0.1.0").getSubnet().getDefaultGateway());
+        assertEquals("10.0.0.1", index.get("10.0.0.0", 24).getSubnet().getDefaultGateway());
+        assertNull(index.get("10.0.0.0", 16));
+        assertNull(index.get("10.0.2.0"));
+    }
+
+    /* Test method to check subnets sharing a prefix are kept apart */
+    @Test
+    public void testSamePrefix() {
+        virtualNetwork.getNetworkIpam().get(0).getAttr().addIpamSubnets(new SubnetType("10.0.0.0", 16), "10.0.255.1");
+        IpamSubnetIndex index = new IpamSubnetIndex(virtualNetwork);
+        assertEquals(3, index.size());
+        assertEquals("10.0.0.1", index.get("10.0.0.0", 24).getSubnet().getDefaultGateway());
+        assertEquals("10.0.255.1", index.get("10.0.0.0", 16).getSubnet().getDefaultGateway());
+        assertNull(index.get("10.0.0.0", 8));
+    }
+
+    /* Test method to check an IPAM subnet is removed from its reference */
+    @Test
+    public void testRemove() {
+        new IpamSubnetIndex(virtualNetwork).get("10.0.0.0", 24).remove();
+        assertEquals(1, virtualNetwork.getNetworkIpam().get(0).getAttr().getIpamSubnets().size());
+        assertNull(new IpamSubnetIndex(virtualNetwork).get("10.0.0.0"));
+    }
+
+    /* Test method to check a network without IPAM references is empty */
+    @Test
+    public void testNoIpamRefs() {
+        assertEquals(0, new IpamSubnetIndex(new VirtualNetwork()).size());
+    }
+}
@@ -49,7 +49,7 @@ public class NetworkHandlerTest {
 
     @Before
     public void beforeTest() {
-        networkHandler = new NetworkHandler();
+        networkHandler = new NetworkHandler(new ContrailBackend(Activator.newContrailClient(mockedApiConnector)));
         assertNotNull(mockedApiConnector);
         assertNotNull(mockedNeutronNetwork);
         assertNotNull(mockedVirtualNetwork);
@@ -58,7 +58,6 @@ public class NetworkHandlerTest {
     @After
     public void AfterTest() {
         networkHandler = null;
-        Activator.apiConnector = null;
     }
 
     /* dummy params for Neutron Network */
@@ -94,14 +93,12 @@ public class NetworkHandlerTest {
     /* Test method to check if neutron network is null */
     @Test
     public void testCanCreateNetworkNull() {
-        Activator.apiConnector = mockedApiConnector;
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, networkHandler.canCreateNetwork(null));
     }
 
     /* Test method to check if neutron network shared is null */
     @Test
     public void testCanCreateNetworkGetSharedNull() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronNetwork.getShared()).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, networkHandler.canCreateNetwork(mockedNeutronNetwork));
     }
@@ -109,7 +106,6 @@ public class NetworkHandlerTest {
     /* Test method to check if neutron network uuid or name is null */
     @Test
     public void testCanCreateNetworkUuidNameNull() {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutron = new NeutronNetwork();
         neutron.setNetworkUUID(null);
         neutron.setNetworkName(null);
@@ -120,7 +116,6 @@ public class NetworkHandlerTest {
     /* Test method to check if neutron network uuid is empty or name is null */
     @Test
     public void testCanCreateNetworkUuidEmpty() {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutron = new NeutronNetwork();
         neutron.setNetworkUUID("");
         neutron.setNetworkName(null);
@@ -131,7 +126,6 @@ public class NetworkHandlerTest {
     /* Test method to check neutron network with virtual network Existence */
     @Test
     public void testCanCreateNetworkVirtualNetworkExists() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         assertEquals(HttpURLConnection.HTTP_FORBIDDEN, networkHandler.canCreateNetwork(neutronNetwork));
@@ -144,7 +138,6 @@ public class NetworkHandlerTest {
     @Test
     public void testCanCreateNetworkInternalError() throws Exception {
         VirtualNetwork mockInstance = PowerMock.createNiceMock(VirtualNetwork.class);
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         expectNew(VirtualNetwork.class).andReturn(mockInstance);
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(null);
@@ -157,7 +150,6 @@ public class NetworkHandlerTest {
     @Test
     public void testCanCreateNetworkHttpOk() throws Exception {
         VirtualNetwork mockInstance = PowerMock.createNiceMock(VirtualNetwork.class);
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         expectNew(VirtualNetwork.class).andReturn(mockInstance);
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(null);
@@ -169,7 +161,6 @@ public class NetworkHandlerTest {
     /* Test method to check neutron network with virtual network Existence */
     @Test
     public void testcanDeleteNetwork() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, networkHandler.canDeleteNetwork(neutronNetwork));
@@ -178,7 +169,6 @@ public class NetworkHandlerTest {
     /* Test method to check delete network with when Port exist */
     @Test
     public void testcanDeleteNetworkPortExists() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         List<ObjectReference<ApiPropertyBase>> test = new ArrayList<ObjectReference<ApiPropertyBase>>();
@@ -189,7 +179,6 @@ public class NetworkHandlerTest {
     /* Test method to check delete network with when Port does not exist */
     @Test
     public void testcanDeleteNetworkPortNotExists() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         when(mockedVirtualNetwork.getVirtualMachineInterfaceBackRefs()).thenReturn(null);
@@ -199,14 +188,12 @@ public class NetworkHandlerTest {
     /* Test method to check if neutron network is null */
     @Test
     public void testCanUpdateNetworkNull() {
-        Activator.apiConnector = mockedApiConnector;
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, networkHandler.canUpdateNetwork(null, null));
     }
 
     /* Test method to check neutron network with virtual network Existence */
     @Test
     public void testCanUpdateNetworkVirtualNetworkExists() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         NeutronNetwork delta_neutronNetwork = defaultNeutronObjectUpdate();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(null);
@@ -219,7 +206,6 @@ public class NetworkHandlerTest {
      */
     @Test
     public void testUpdateNetworkInternalError() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         NeutronNetwork delta_neutronNetwork = defaultNeutronObjectUpdate();
         mockedVirtualNetwork.setName(delta_neutronNetwork.getNetworkName());
@@ -231,7 +217,6 @@ public class NetworkHandlerTest {
     /* Test method to check neutron network update with HTTP OK */
     @Test
     public void testUpdateNetwork() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronNetwork neutronNetwork = defaultNeutronObject();
         NeutronNetwork delta_neutronNetwork = defaultNeutronObjectUpdate();
         mockedVirtualNetwork.setName(delta_neutronNetwork.getNetworkName());
@@ -239,4 +224,17 @@ public class NetworkHandlerTest {
         when(mockedApiConnector.update(mockedVirtualNetwork)).thenReturn(true);
         assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta_neutronNetwork, neutronNetwork));
     }
-}
\ No newline at end of file
+
+    /* Test method to check a repeated neutron network update is not written again */
+    @Test
+    public void testUpdateNetworkUnchanged() throws IOException {
+        NeutronNetwork neutronNetwork = defaultNeutronObject();
+        NeutronNetwork delta_neutronNetwork = defaultNeutronObjectUpdate();
+        mockedVirtualNetwork.setName(delta_neutronNetwork.getNetworkName());
+        when(mockedApiConnector.findById(VirtualNetwork.class, neutronNetwork.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
+        when(mockedApiConnector.update(mockedVirtualNetwork)).thenReturn(true);
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta_neutronNetwork, neutronNetwork));
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta_neutronNetwork, neutronNetwork));
+        Mockito.verify(mockedApiConnector, Mockito.times(1)).update(mockedVirtualNetwork);
+    }
+}
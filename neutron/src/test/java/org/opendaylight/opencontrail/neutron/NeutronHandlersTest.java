@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.networkconfig.neutron.NeutronNetwork;
+import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
+import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
+import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Test Class for the Neutron handlers against the Contrail stand-in, through
+ * a client with a REST client as the Activator builds.
+ */
+public class NeutronHandlersTest {
+    ContrailStandIn standIn;
+    ContrailRestClient restClient;
+    ContrailMetrics metrics;
+    InstanceIpIndex instanceIpIndex;
+    ChangeDetector changeDetector;
+    NetworkHandler networkHandler;
+    SubnetHandler subnetHandler;
+    PortHandler portHandler;
+    NeutronNetwork network;
+
+    @Before
+    public void beforeTest() throws Exception {
+        standIn = new ContrailStandIn();
+        restClient = new ContrailRestClient("127.0.0.1", standIn.getPort(), 2, 5000);
+        metrics = new ContrailMetrics();
+        List<ApiConnector> connectors = new ArrayList<ApiConnector>();
+        for (int i = 0; i < 2; i++) {
+            connectors.add(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+        }
+        ConnectorPool pool = new ConnectorPool("handlers", connectors, new AdaptiveConcurrencyLimiter("handlers", 4,
+                1, 4, metrics), 5000, metrics);
+        ContrailBackend backend = new ContrailBackend(new ContrailClient(pool, pool, restClient, null, null, null,
+                null, metrics));
+        SubnetMetadataCache subnetCache = new SubnetMetadataCache();
+        instanceIpIndex = new InstanceIpIndex();
+        changeDetector = new ChangeDetector(16, metrics);
+        networkHandler = new NetworkHandler(backend, changeDetector);
+        subnetHandler = new SubnetHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        portHandler = new PortHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        network = new NeutronNetwork();
+        network.setNetworkUUID(UUID.randomUUID().toString());
+        network.setNetworkName("network");
+        network.setTenantID("tenant");
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.createNetwork(network));
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        restClient.close();
+        standIn.stop();
+    }
+
+    /* Test method to check the addresses of a deleted port no longer hold its subnet */
+    @Test
+    public void testSubnetDeletedAfterPort() throws Exception {
+        NeutronSubnet subnet = subnet("10.0.0.0/24");
+        NeutronSubnet other = subnet("10.0.1.0/24");
+        NeutronPort port = port(subnet, "10.0.0.5");
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+        // loads the instance IPs of the network into the index, the port's included
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.canDeleteSubnet(other));
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, subnetHandler.canDeleteSubnet(subnet));
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.deletePort(port));
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.canDeleteSubnet(subnet));
+    }
+
+    /* Test method to check an update of a port given with UUIDs in upper case matches what its creation wrote */
+    @Test
+    public void testUpdatePortUpperCase() throws Exception {
+        NeutronSubnet subnet = subnet("10.0.0.0/24");
+        NeutronSubnet other = subnet("10.0.1.0/24");
+        NeutronPort port = port(subnet, "10.0.0.5");
+        port.setPortUUID(port.getID().toUpperCase());
+        port.setNetworkUUID(port.getNetworkUUID().toUpperCase());
+        port.setDeviceID(port.getDeviceID().toUpperCase());
+        List<Neutron_IPs> ips = new ArrayList<Neutron_IPs>(port.getFixedIPs());
+        ips.add(port(other, "10.0.1.5").getFixedIPs().get(0));
+        port.setFixedIPs(ips);
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+
+        // Neutron holds another name than the one written, e.g. on a retry
+        NeutronPort original = port(subnet, "10.0.0.5");
+        original.setPortUUID(port.getID());
+        original.setNetworkUUID(port.getNetworkUUID());
+        original.setDeviceID(port.getDeviceID());
+        original.setFixedIPs(ips);
+        original.setName("old");
+        NeutronPort delta = new NeutronPort();
+        delta.setName("port");
+        long requests = standIn.getRequestCount();
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.updatePort(delta, original));
+        assertEquals(requests, standIn.getRequestCount());
+
+        // the instance IP removed leaves the index, and its subnet free
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, subnetHandler.canDeleteSubnet(other));
+        delta = new NeutronPort();
+        delta.setFixedIPs(Collections.singletonList(ips.get(0)));
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.updatePort(delta, port));
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.canDeleteSubnet(other));
+    }
+
+    /* Test method to check a port moved to another device is created again under its virtual machine */
+    @Test
+    public void testUpdatePortDevice() throws Exception {
+        NeutronSubnet subnet = subnet("10.0.0.0/24");
+        instanceIpIndex.load(network.getNetworkUUID(), Collections.<String, String> emptyMap());
+        NeutronPort port = port(subnet, "10.0.0.5");
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+        JsonArray fqName = standIn.get(port.getID()).getAsJsonArray("fq_name");
+        NeutronPort delta = new NeutronPort();
+        delta.setDeviceID(UUID.randomUUID().toString());
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.updatePort(delta, port));
+
+        JsonObject vmi = standIn.get(port.getID());
+        assertEquals(delta.getDeviceID(), vmi.get("parent_uuid").getAsString());
+        JsonArray movedFqName = vmi.getAsJsonArray("fq_name");
+        assertEquals(fqName.get(fqName.size() - 1), movedFqName.get(movedFqName.size() - 1));
+        assertNotNull(standIn.get(delta.getDeviceID()));
+        List<String> instanceIps = instanceIpIndex.find(network.getNetworkUUID(), "10.0.0.0/24");
+        assertEquals(1, instanceIps.size());
+        assertEquals("10.0.0.5", standIn.get(instanceIps.get(0)).get("instance_ip_address").getAsString());
+        assertEquals(port.getID(), standIn.get(instanceIps.get(0)).get("parent_uuid").getAsString());
+
+        // the port stays in use, and can be deleted
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, subnetHandler.canDeleteSubnet(subnet));
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.deletePort(port));
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.canDeleteSubnet(subnet));
+    }
+
+    /* Test method to check an update of a network given with a UUID in upper case matches what its creation wrote */
+    @Test
+    public void testUpdateNetworkUpperCase() throws Exception {
+        NeutronNetwork upperCase = new NeutronNetwork();
+        upperCase.setNetworkUUID(UUID.randomUUID().toString().toUpperCase());
+        upperCase.setNetworkName("network-2");
+        upperCase.setTenantID("tenant");
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.createNetwork(upperCase));
+        // Neutron holds another name than the one written, e.g. on a retry
+        NeutronNetwork original = new NeutronNetwork();
+        original.setNetworkUUID(upperCase.getNetworkUUID());
+        original.setNetworkName("old");
+        NeutronNetwork delta = new NeutronNetwork();
+        delta.setNetworkName("network-2");
+        long requests = standIn.getRequestCount();
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta, original));
+        assertEquals(requests, standIn.getRequestCount());
+    }
+
+    /* Test method to check a network update leaving the name out keeps the original one */
+    @Test
+    public void testUpdateNetworkWithoutName() throws Exception {
+        NeutronNetwork delta = new NeutronNetwork();
+        long requests = standIn.getRequestCount();
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta, network));
+        assertEquals(requests, standIn.getRequestCount());
+
+        // written with the original name when the fingerprint is forgotten
+        changeDetector.forget(OperationScheduler.networkKey(network.getNetworkUUID()));
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta, network));
+        assertEquals("network", standIn.get(network.getNetworkUUID()).get("display_name").getAsString());
+        delta.setNetworkName("network-2");
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.canUpdateNetwork(delta, network));
+        assertEquals("network-2", standIn.get(network.getNetworkUUID()).get("display_name").getAsString());
+    }
+
+    private NeutronSubnet subnet(String cidr) {
+        NeutronSubnet subnet = new NeutronSubnet();
+        subnet.setSubnetUUID(UUID.randomUUID().toString());
+        subnet.setNetworkUUID(network.getNetworkUUID());
+        subnet.setCidr(cidr);
+        subnet.setGatewayIP(cidr.substring(0, cidr.lastIndexOf('.')) + ".1");
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.createSubnet(subnet));
+        return subnet;
+    }
+
+    private NeutronPort port(NeutronSubnet subnet, String address) {
+        NeutronPort port = new NeutronPort();
+        port.setPortUUID(UUID.randomUUID().toString());
+        port.setNetworkUUID(network.getNetworkUUID());
+        port.setDeviceID(UUID.randomUUID().toString());
+        port.setName("port");
+        port.setMacAddress("02:00:00:00:00:01");
+        Neutron_IPs ip = new Neutron_IPs();
+        ip.setIpAddress(address);
+        ip.setSubnetUUID(subnet.getSubnetUUID());
+        port.setFixedIPs(Collections.singletonList(ip));
+        return port;
+    }
+}
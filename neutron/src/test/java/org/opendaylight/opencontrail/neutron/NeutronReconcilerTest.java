@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.networkconfig.neutron.INeutronNetworkCRUD;
+import org.opendaylight.controller.networkconfig.neutron.INeutronPortCRUD;
+import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
+import org.opendaylight.controller.networkconfig.neutron.NeutronNetwork;
+import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
+import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
+import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
+
+/**
+ * Test Class for NeutronReconciler.
+ */
+public class NeutronReconcilerTest {
+    ContrailStandIn standIn;
+    ContrailMetrics metrics;
+    ContrailBackend backend;
+    NetworkHandler networkHandler;
+    SubnetHandler subnetHandler;
+    PortHandler portHandler;
+    NeutronReconciler reconciler;
+    NeutronNetwork network;
+    NeutronSubnet subnet;
+    List<NeutronPort> ports;
+
+    @Before
+    public void beforeTest() throws Exception {
+        standIn = new ContrailStandIn();
+        metrics = new ContrailMetrics();
+        backend = new ContrailBackend(Activator.newContrailClient(ApiConnectorFactory.build(
+                "127.0.0.1", standIn.getPort())));
+        SubnetMetadataCache subnetCache = new SubnetMetadataCache();
+        InstanceIpIndex instanceIpIndex = new InstanceIpIndex();
+        ChangeDetector changeDetector = new ChangeDetector(16, metrics);
+        networkHandler = new NetworkHandler(backend, changeDetector);
+        subnetHandler = new SubnetHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        portHandler = new PortHandler(backend, subnetCache, instanceIpIndex, changeDetector);
+        reconciler = new NeutronReconciler(backend, networkHandler, subnetHandler, portHandler, metrics, 1000,
+                Long.MAX_VALUE, false);
+        network = new NeutronNetwork();
+        network.setNetworkUUID(UUID.randomUUID().toString());
+        network.setNetworkName("network");
+        network.setTenantID("tenant");
+        subnet = new NeutronSubnet();
+        subnet.setSubnetUUID(UUID.randomUUID().toString());
+        subnet.setNetworkUUID(network.getNetworkUUID());
+        subnet.setCidr("10.0.0.0/24");
+        subnet.setGatewayIP("10.0.0.1");
+        ports = new ArrayList<NeutronPort>();
+        portHandler.setNetworkCRUD(crud(INeutronNetworkCRUD.class, Collections.singletonList(network)));
+        portHandler.setSubnetCRUD(crud(INeutronSubnetCRUD.class, Collections.singletonList(subnet)));
+        portHandler.setPortCRUD(crud(INeutronPortCRUD.class, ports));
+        assertEquals(HttpURLConnection.HTTP_OK, networkHandler.createNetwork(network));
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.createSubnet(subnet));
+    }
+
+    @After
+    public void afterTest() {
+        standIn.stop();
+    }
+
+    /* Test method to check a port missing in Contrail is created again */
+    @Test
+    public void testMissingPortRepaired() throws Exception {
+        NeutronPort port = port();
+        ports.add(port);
+        reconciler.reconcile();
+        assertNotNull(standIn.get(port.getID()));
+        assertEquals(1, metrics.get("contrail.reconcile.repairs"));
+        reconciler.reconcile();
+        assertEquals(0, metrics.get("contrail.reconcile.tenants.unchanged"));
+        long requests = standIn.getRequestCount();
+        reconciler.reconcile();
+        assertEquals(requests, standIn.getRequestCount());
+        assertEquals(1, metrics.get("contrail.reconcile.tenants.unchanged"));
+    }
+
+    /* Test method to check a VMI unknown to Neutron is deleted once seen twice, if enabled */
+    @Test
+    public void testOrphanDeleted() throws Exception {
+        reconciler = new NeutronReconciler(backend, networkHandler, subnetHandler, portHandler, metrics, 1000,
+                Long.MAX_VALUE, true);
+        NeutronPort port = port();
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+        reconciler.reconcile();
+        assertNotNull(standIn.get(port.getID()));
+        reconciler.reconcile();
+        assertNull(standIn.get(port.getID()));
+        assertEquals(1, metrics.get("contrail.reconcile.repairs"));
+    }
+
+    /* Test method to check a VMI unknown to Neutron, e.g. of another Contrail client, is left alone by default */
+    @Test
+    public void testOrphanKept() throws Exception {
+        NeutronPort port = port();
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+        reconciler.reconcile();
+        reconciler.reconcile();
+        assertNotNull(standIn.get(port.getID()));
+        assertEquals(0, metrics.get("contrail.reconcile.repairs"));
+        assertEquals(1, metrics.get("contrail.reconcile.orphans"));
+    }
+
+    /* Test method to check a port given with a UUID in upper case is matched with its VMI */
+    @Test
+    public void testUpperCasePortId() throws Exception {
+        reconciler = new NeutronReconciler(backend, networkHandler, subnetHandler, portHandler, metrics, 1000,
+                Long.MAX_VALUE, true);
+        NeutronPort port = port();
+        port.setPortUUID(port.getID().toUpperCase());
+        ports.add(port);
+        assertEquals(HttpURLConnection.HTTP_OK, portHandler.createPort(port));
+        reconciler.reconcile();
+        reconciler.reconcile();
+        assertNotNull(standIn.get(port.getID().toLowerCase()));
+        assertEquals(0, metrics.get("contrail.reconcile.repairs"));
+        assertEquals(0, metrics.get("contrail.reconcile.repairs.failed"));
+    }
+
+    /* Test method to check a network unchanged in Neutron is not read again */
+    @Test
+    public void testUnchangedNetworkSkipped() throws Exception {
+        reconciler.reconcile();
+        assertEquals(1, metrics.get("contrail.reconcile.networks.checked"));
+        long requests = standIn.getRequestCount();
+        reconciler.reconcile();
+        assertEquals(requests, standIn.getRequestCount());
+        ports.add(port());
+        reconciler.reconcile();
+        assertEquals(2, metrics.get("contrail.reconcile.networks.checked"));
+    }
+
+    private NeutronPort port() {
+        NeutronPort port = new NeutronPort();
+        port.setPortUUID(UUID.randomUUID().toString());
+        port.setNetworkUUID(network.getNetworkUUID());
+        port.setDeviceID(UUID.randomUUID().toString());
+        port.setName("port");
+        port.setMacAddress("02:00:00:00:00:01");
+        Neutron_IPs ip = new Neutron_IPs();
+        ip.setIpAddress("10.0.0.5");
+        ip.setSubnetUUID(subnet.getSubnetUUID());
+        port.setFixedIPs(Collections.singletonList(ip));
+        return port;
+    }
+
+    /* A Neutron CRUD service holding the given objects */
+    private static <T> T crud(Class<T> service, final List<?> all) {
+        return service.cast(Proxy.newProxyInstance(NeutronReconcilerTest.class.getClassLoader(),
+                new Class<?>[] { service }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().startsWith("getAll") ? new ArrayList<Object>(all) : null;
+                    }
+                }));
+    }
+}
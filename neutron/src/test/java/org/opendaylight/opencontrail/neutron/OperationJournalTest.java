@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for OperationJournal.
+ */
+public class OperationJournalTest {
+    File directory;
+    ContrailMetrics metrics;
+    OperationJournal journal;
+
+    @Before
+    public void beforeTest() throws Exception {
+        directory = Files.createTempDirectory("journal").toFile();
+        metrics = new ContrailMetrics();
+        journal = OperationJournal.open(directory, 4096, metrics);
+    }
+
+    @After
+    public void afterTest() throws Exception {
+        journal.close();
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+
+    /* Test method to check only the writes left incomplete are recovered */
+    @Test
+    public void testRecoverIncomplete() throws Exception {
+        long created = journal.begin(OperationJournal.Op.CREATE, network("network-1"));
+        journal.begin(OperationJournal.Op.UPDATE, network("network-2"));
+        journal.complete(created);
+        journal.close();
+        journal = OperationJournal.open(directory, 4096, metrics);
+        List<OperationJournal.Entry> recovered = journal.getRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(OperationJournal.Op.UPDATE, recovered.get(0).getOp());
+        assertEquals(VirtualNetwork.class.getName(), recovered.get(0).getClassName());
+        // still incomplete until replayed
+        journal.close();
+        journal = OperationJournal.open(directory, 4096, metrics);
+        assertEquals(1, journal.getRecovered().size());
+        assertTrue(journal.begin(OperationJournal.Op.DELETE, network("network-3")) > recovered.get(0).getSequence());
+    }
+
+    /* Test method to check writes in flight are carried over when a segment is full */
+    @Test
+    public void testSegmentRoll() throws Exception {
+        VirtualNetwork network = network("network-1");
+        journal.begin(OperationJournal.Op.CREATE, network);
+        for (int i = 0; i < 200; i++) {
+            journal.complete(journal.begin(OperationJournal.Op.UPDATE, network));
+        }
+        assertTrue(metrics.get("journal.segments") > 2);
+        assertEquals(1, directory.listFiles().length);
+        journal.close();
+        journal = OperationJournal.open(directory, 4096, metrics);
+        assertEquals(1, journal.getRecovered().size());
+        assertEquals(OperationJournal.Op.CREATE, journal.getRecovered().get(0).getOp());
+    }
+
+    /* Test method to check a torn record ends the journal */
+    @Test
+    public void testTornRecord() throws Exception {
+        journal.begin(OperationJournal.Op.CREATE, network("network-1"));
+        journal.begin(OperationJournal.Op.CREATE, network("network-2"));
+        journal.close();
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // flip a byte in the body of the second record
+            file.seek(0);
+            int first = file.readInt();
+            file.seek(8 + first + 8 + 4);
+            int b = file.read();
+            file.seek(8 + first + 8 + 4);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+        journal = OperationJournal.open(directory, 4096, metrics);
+        assertEquals(1, journal.getRecovered().size());
+    }
+
+    /* Test method to check incomplete creates are replayed into Contrail */
+    @Test
+    public void testReplay() throws Exception {
+        VirtualNetwork network = network("network-1");
+        journal.begin(OperationJournal.Op.CREATE, network);
+        journal.close();
+        journal = OperationJournal.open(directory, 4096, metrics);
+        ContrailStandIn standIn = new ContrailStandIn();
+        try {
+            ContrailClient client = Activator.newContrailClient(ApiConnectorFactory.build("127.0.0.1",
+                    standIn.getPort()));
+            assertEquals(1, journal.replay(client));
+            assertNotNull(standIn.get(network.getUuid()));
+            // already there, so not created twice
+            assertEquals(1, journal.replay(client));
+        } finally {
+            standIn.stop();
+        }
+        journal.close();
+        journal = OperationJournal.open(directory, 4096, metrics);
+        assertTrue(journal.getRecovered().isEmpty());
+    }
+
+    private static VirtualNetwork network(String name) {
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName(name);
+        network.setUuid(UUID.randomUUID().toString());
+        network.setDisplayName(name);
+        return network;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for OperationScheduler.
+ */
+public class OperationSchedulerTest {
+    static final String NETWORK = OperationScheduler.networkKey("6b9570f2-17b1-4fc3-99ec-1b7f7778a29a");
+    static final String OTHER_NETWORK = OperationScheduler.networkKey("7b9570f2-17b1-4fc3-99ec-1b7f7778a29a");
+    static final String PORT = OperationScheduler.portKey("64a271fe-0216-46bc-a3e6-1ff582fbd324");
+    OperationScheduler scheduler;
+    ExecutorService executor;
+
+    @Before
+    public void beforeTest() {
+        scheduler = new OperationScheduler(5000);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void afterTest() {
+        executor.shutdownNow();
+    }
+
+    /* Submits an operation that blocks until the returned latch is released */
+    private Future<Integer> submitBlocking(final String key, final CountDownLatch started, final CountDownLatch release) {
+        return executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return scheduler.execute(key, OperationScheduler.NO_PARENTS, new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return HttpURLConnection.HTTP_OK;
+                    }
+                });
+            }
+        });
+    }
+
+    /* Test method to check a port waits for the pending create of its network */
+    @Test
+    public void testChildWaitsForPendingParent() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        submitBlocking(NETWORK, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        final CountDownLatch portRan = new CountDownLatch(1);
+        Future<Integer> port = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return scheduler.execute(PORT, Collections.singletonList(NETWORK), new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        portRan.countDown();
+                        return HttpURLConnection.HTTP_OK;
+                    }
+                });
+            }
+        });
+        assertFalse(portRan.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertEquals(HttpURLConnection.HTTP_OK, port.get(5, TimeUnit.SECONDS).intValue());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    /* Test method to check independent operations are not held back */
+    @Test
+    public void testIndependentOperationRunsInParallel() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        submitBlocking(NETWORK, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        int status = scheduler.execute(PORT, Collections.singletonList(OTHER_NETWORK), new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return HttpURLConnection.HTTP_OK;
+            }
+        });
+        assertEquals(HttpURLConnection.HTTP_OK, status);
+        release.countDown();
+    }
+
+    /* Test method to check a network delete waits for the pending ports of the network */
+    @Test
+    public void testDeleteWaitsForDependents() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return scheduler.execute(PORT, Collections.singletonList(NETWORK), new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        started.countDown();
+                        release.await();
+                        return HttpURLConnection.HTTP_OK;
+                    }
+                });
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        final CountDownLatch deleteRan = new CountDownLatch(1);
+        Future<Integer> delete = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return scheduler.executeAfterDependents(NETWORK, new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        deleteRan.countDown();
+                        return HttpURLConnection.HTTP_OK;
+                    }
+                });
+            }
+        });
+        assertFalse(deleteRan.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertEquals(HttpURLConnection.HTTP_OK, delete.get(5, TimeUnit.SECONDS).intValue());
+    }
+
+    /* Test method to check a failed operation is propagated and releases its key */
+    @Test
+    public void testFailedOperationReleasesKey() throws Exception {
+        try {
+            scheduler.execute(NETWORK, OperationScheduler.NO_PARENTS, new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    throw new IOException("connection refused");
+                }
+            });
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("connection refused", e.getMessage());
+        }
+        assertEquals(0, scheduler.pendingCount());
+    }
+}
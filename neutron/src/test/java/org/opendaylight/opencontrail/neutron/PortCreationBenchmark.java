@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
+import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
+
+/**
+ * Latency of creating ports with 1, 4 and 16 fixed IPs.
+ *
+ * Ports are created one after the other against the local Contrail stand-in,
+ * answering every request after a fixed latency, once with the instance IPs
+ * created one by one over the blocking connectors and once with them created
+ * all at once over the non-blocking connector. Run with
+ * {@code java org.opendaylight.opencontrail.neutron.PortCreationBenchmark [ports] [latencyMillis]}.
+ */
+public class PortCreationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int ports = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int latencyMillis = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        ContrailStandIn standIn = new ContrailStandIn();
+        standIn.setLatency(latencyMillis, 0, TimeUnit.MILLISECONDS);
+        AsyncContrailConnector asyncConnector = new AsyncContrailConnector("127.0.0.1", standIn.getPort(), 2, 32,
+                5000);
+        try {
+            String networkUuid = standIn.store("virtual-network",
+                    ContrailStandIn.object(null, "default-domain", "default-project", "network"));
+            PortHandler blocking = new PortHandler(new ContrailBackend(newClient(standIn, null)));
+            PortHandler concurrent = new PortHandler(new ContrailBackend(newClient(standIn, asyncConnector)));
+            // warm up both paths before measuring
+            run(blocking, networkUuid, 4, ports);
+            run(concurrent, networkUuid, 4, ports);
+            for (int addresses = 1; addresses <= 16; addresses *= 4) {
+                double sequential = run(blocking, networkUuid, addresses, ports);
+                double parallel = run(concurrent, networkUuid, addresses, ports);
+                System.out.printf("%2d IPs  one by one %7.2f ms/port  at once %7.2f ms/port  speedup %5.2f%n",
+                        addresses, sequential, parallel, sequential / parallel);
+            }
+        } finally {
+            asyncConnector.close();
+            standIn.stop();
+        }
+    }
+
+    static ContrailClient newClient(ContrailStandIn standIn, AsyncContrailConnector asyncConnector) {
+        ContrailMetrics metrics = new ContrailMetrics();
+        List<ApiConnector> connectors = new ArrayList<ApiConnector>();
+        for (int i = 0; i < 4; i++) {
+            connectors.add(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+        }
+        ConnectorPool pool = new ConnectorPool("benchmark", connectors, new AdaptiveConcurrencyLimiter("benchmark",
+                64, 64, 64, metrics), Long.MAX_VALUE, metrics);
+        return new ContrailClient(pool, pool, null, asyncConnector, null, null, null, metrics);
+    }
+
+    /**
+     * Creates ports one after the other.
+     *
+     * @return The mean time to create a port, in milliseconds.
+     */
+    static double run(PortHandler handler, String networkUuid, int addresses, int ports) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ports; i++) {
+            NeutronPort port = new NeutronPort();
+            port.setPortUUID(UUID.randomUUID().toString());
+            port.setNetworkUUID(networkUuid);
+            port.setDeviceID(UUID.randomUUID().toString());
+            port.setName("port-" + port.getPortUUID());
+            port.setMacAddress("02:00:00:00:00:01");
+            List<Neutron_IPs> ips = new ArrayList<Neutron_IPs>();
+            for (int j = 0; j < addresses; j++) {
+                Neutron_IPs ip = new Neutron_IPs();
+                ip.setIpAddress("10." + (i >> 8 & 255) + "." + (i & 255) + "." + (j + 1));
+                ips.add(ip);
+            }
+            port.setFixedIPs(ips);
+            if (handler.createPort(port) != HttpURLConnection.HTTP_OK) {
+                throw new IllegalStateException("Port " + i + " with " + addresses + " IPs was not created");
+            }
+        }
+        return (System.nanoTime() - start) / 1e6 / ports;
+    }
+}
@@ -27,6 +27,8 @@ import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.easymock.PowerMock.expectNew;
 
@@ -56,7 +58,7 @@ public class PortHandlerTest {
 
     @Before
     public void beforeTest() {
-        porthandler = new PortHandler();
+        porthandler = new PortHandler(new ContrailBackend(Activator.newContrailClient(mockedApiConnector)));
         assertNotNull(mockedApiConnector);
         assertNotNull(mockedNeutronNetwork);
         assertNotNull(mockedVirtualNetwork);
@@ -69,7 +71,6 @@ public class PortHandlerTest {
     @After
     public void AfterTest() {
         porthandler = null;
-        Activator.apiConnector = null;
     }
 
     /* dummy params for Neutron Port */
@@ -81,6 +82,8 @@ public class PortHandlerTest {
         neutronPort.setName("port12");
         neutronPort.setDeviceID("100071fe-0216-46bc-a3e6-1ff582fbd324");
         List<Neutron_IPs> ips = new ArrayList<Neutron_IPs>();
+        // the addresses of a port are resolved before anything is created
+        when(mockNeutron_IPs.getIpAddress()).thenReturn("10.0.0.1");
         ips.add(mockNeutron_IPs);
         neutronPort.setFixedIPs(ips);
         return neutronPort;
@@ -89,14 +92,12 @@ public class PortHandlerTest {
     /* Test method to check if neutron port is null */
     @Test
     public void testCanCreatePortNull() {
-        Activator.apiConnector = mockedApiConnector;
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
 
     /* Test method to check if neutron port name is null */
     @Test
     public void testCanCreatePortNameNull() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getName()).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -104,7 +105,6 @@ public class PortHandlerTest {
     /* Test method to check if neutron port name is empty */
     @Test
     public void testCanCreatePortNameEmtpy() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getName()).thenReturn("");
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -112,7 +112,6 @@ public class PortHandlerTest {
     /* Test method to check if neutron port device ID is null */
     @Test
     public void testCanCreateDeviceIdNull() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getDeviceID()).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -120,7 +119,6 @@ public class PortHandlerTest {
     /* Test method to check if neutron port device ID is empty */
     @Test
     public void testCanCreateDeviceIdEmtpy() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getDeviceID()).thenReturn("");
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -128,7 +126,6 @@ public class PortHandlerTest {
     /* Test method to check if neutron port device ID is null */
     @Test
     public void testCanCreateIdNull() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getID()).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -136,7 +133,6 @@ public class PortHandlerTest {
     /* Test method to check if neutron port device ID is empty */
     @Test
     public void testCanCreateIdEmtpy() {
-        Activator.apiConnector = mockedApiConnector;
         when(mockedNeutronPort.getID()).thenReturn("");
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(null));
     }
@@ -144,17 +140,36 @@ public class PortHandlerTest {
     /* Test method to check if neutron port fixed IP is null */
     @Test
     public void testCanCreateFixedIPNull() {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         neutronPort.setFixedIPs(null);
         when(mockedNeutronPort.getFixedIPs()).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_FORBIDDEN, porthandler.canCreatePort(neutronPort));
     }
 
+    /* Test method to check a fixed IP of an unknown subnet is refused before anything is read or created */
+    @Test
+    public void testCanCreatePortUnknownSubnet() throws IOException {
+        NeutronPort neutronPort = defaultNeutronPortObject();
+        when(mockNeutron_IPs.getIpAddress()).thenReturn(null);
+        when(mockNeutron_IPs.getSubnetUUID()).thenReturn("74a271fe-0216-46bc-a3e6-1ff582fbd324");
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(neutronPort));
+        verifyZeroInteractions(mockedApiConnector);
+    }
+
+    /* Test method to check an address given twice is refused before anything is read or created */
+    @Test
+    public void testCanCreatePortDuplicateAddress() throws IOException {
+        NeutronPort neutronPort = defaultNeutronPortObject();
+        Neutron_IPs sameAddress = mock(Neutron_IPs.class);
+        when(sameAddress.getIpAddress()).thenReturn("10.0.0.1");
+        neutronPort.getFixedIPs().add(sameAddress);
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canCreatePort(neutronPort));
+        verifyZeroInteractions(mockedApiConnector);
+    }
+
     /* Test method to check if neutron port is already exist */
     @Test
     public void testCanCreatePortExist() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(mockedVirtualMachineInterface);
         assertEquals(HttpURLConnection.HTTP_FORBIDDEN, porthandler.canCreatePort(neutronPort));
@@ -164,7 +179,6 @@ public class PortHandlerTest {
     @PrepareForTest({ PortHandler.class, VirtualMachine.class })
     @Test
     public void testCanCreatePortVirtualMachineNotCreated() throws Exception {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         VirtualMachine mockVirtualMachine = PowerMock.createNiceMock(VirtualMachine.class);
         expectNew(VirtualMachine.class).andReturn(mockVirtualMachine);
@@ -179,7 +193,6 @@ public class PortHandlerTest {
     /* Test method to check if Virtual Network does not exist */
     @Test
     public void testCanCreatePortVirtualNetworkNotExist() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(null);
         when(mockedApiConnector.findById(VirtualMachine.class, neutronPort.getDeviceID())).thenReturn(mockedvirtualMachine);
@@ -191,7 +204,6 @@ public class PortHandlerTest {
     @PrepareForTest({ PortHandler.class, VirtualMachineInterface.class })
     @Test
     public void testCanCreateVirtualMachineInterfaceFail() throws Exception {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         VirtualMachineInterface mockedVirtualMachineInterface = PowerMock.createNiceMock(VirtualMachineInterface.class);
         expectNew(VirtualMachineInterface.class).andReturn(mockedVirtualMachineInterface);
@@ -207,7 +219,6 @@ public class PortHandlerTest {
     @PrepareForTest({ PortHandler.class, VirtualMachineInterface.class, InstanceIp.class })
     @Test
     public void testCanCreatePortOk() throws Exception {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         VirtualMachineInterface mockedVirtualMachineInterface = PowerMock.createNiceMock(VirtualMachineInterface.class);
         expectNew(VirtualMachineInterface.class).andReturn(mockedVirtualMachineInterface);
@@ -227,14 +238,12 @@ public class PortHandlerTest {
     /* Test method to check if neutron port is null for delete */
     @Test
     public void testcanDeletePortNull() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canDeletePort(null));
     }
 
     /* Test method to check if virtual machine interface is null */
     @Test
     public void testcanDeletePortVirtualMachineInterfaceNull() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canDeletePort(neutronPort));
@@ -243,7 +252,6 @@ public class PortHandlerTest {
     /* Test method to check port delete with instanceIPs null */
     @Test
     public void testcanDeletePortOK() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(mockedVirtualMachineInterface);
         when(mockedVirtualMachineInterface.getInstanceIpBackRefs()).thenReturn(null);
@@ -253,11 +261,50 @@ public class PortHandlerTest {
     /* Test method to check port delete with instanceIPs not null */
     @Test
     public void testcanDeletePortOKInstanceIPsNotNull() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronPort neutronPort = defaultNeutronPortObject();
         when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(mockedVirtualMachineInterface);
         List<ObjectReference<ApiPropertyBase>> instanceIPs = new ArrayList<ObjectReference<ApiPropertyBase>>();
         when(mockedVirtualMachineInterface.getInstanceIpBackRefs()).thenReturn(instanceIPs);
         assertEquals(HttpURLConnection.HTTP_OK, porthandler.canDeletePort(neutronPort));
     }
+
+    /* Test method to check if neutron ports are null for update */
+    @Test
+    public void testCanUpdatePortNull() {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, porthandler.canUpdatePort(null, null));
+    }
+
+    /* Test method to check an update changing nothing makes no call to Contrail */
+    @Test
+    public void testCanUpdatePortUnchanged() {
+        NeutronPort neutronPort = defaultNeutronPortObject();
+        NeutronPort deltaPort = new NeutronPort();
+        deltaPort.setName(neutronPort.getName());
+        deltaPort.setMacAddress(neutronPort.getMacAddress());
+        assertEquals(HttpURLConnection.HTTP_OK, porthandler.canUpdatePort(deltaPort, neutronPort));
+        verifyZeroInteractions(mockedApiConnector);
+    }
+
+    /* Test method to check update of a port that does not exist */
+    @Test
+    public void testCanUpdatePortNotExist() throws IOException {
+        NeutronPort neutronPort = defaultNeutronPortObject();
+        NeutronPort deltaPort = new NeutronPort();
+        deltaPort.setMacAddress("02:70:72:93:4d:d7");
+        when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(null);
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN, porthandler.canUpdatePort(deltaPort, neutronPort));
+    }
+
+    /* Test method to check a MAC address change only updates the VMI */
+    @Test
+    public void testCanUpdatePortMacAddress() throws IOException {
+        NeutronPort neutronPort = defaultNeutronPortObject();
+        NeutronPort deltaPort = new NeutronPort();
+        deltaPort.setMacAddress("02:70:72:93:4d:d7");
+        when(mockedApiConnector.findById(VirtualMachineInterface.class, neutronPort.getID())).thenReturn(
+                mockedVirtualMachineInterface);
+        when(mockedApiConnector.update(mockedVirtualMachineInterface)).thenReturn(true);
+        assertEquals(HttpURLConnection.HTTP_OK, porthandler.canUpdatePort(deltaPort, neutronPort));
+        verify(mockedApiConnector).update(mockedVirtualMachineInterface);
+    }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for SingleFlight.
+ */
+public class SingleFlightTest {
+    ContrailMetrics metrics;
+    SingleFlight<Object> singleFlight;
+    ExecutorService executor;
+    AtomicInteger calls;
+    CountDownLatch release;
+
+    @Before
+    public void beforeTest() {
+        metrics = new ContrailMetrics();
+        singleFlight = new SingleFlight<Object>("lookup", metrics);
+        executor = Executors.newCachedThreadPool();
+        calls = new AtomicInteger();
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void afterTest() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /* Starts a call for the key that completes with the given outcome once released */
+    private Future<Object> start(final String key, final Object outcome) {
+        return executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return singleFlight.execute(key, new SingleFlight.Call<Object>() {
+                    @Override
+                    public Object call() throws IOException {
+                        calls.incrementAndGet();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (outcome instanceof IOException) {
+                            throw (IOException) outcome;
+                        }
+                        return outcome;
+                    }
+                });
+            }
+        });
+    }
+
+    private void awaitCoalesced(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.get("lookup.coalesced") < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, metrics.get("lookup.coalesced"));
+    }
+
+    private void awaitCalls(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (calls.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, calls.get());
+    }
+
+    /* Test method to check concurrent calls for one key share one call and its result */
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        Object result = new Object();
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        futures.add(start("network", result));
+        awaitCalls(1);
+        for (int i = 0; i < 9; i++) {
+            futures.add(start("network", new Object()));
+        }
+        awaitCoalesced(9);
+        release.countDown();
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    /* Test method to check the failure of a shared call reaches every caller */
+    @Test
+    public void testFailureShared() throws Exception {
+        IOException failure = new IOException("Contrail unreachable");
+        Future<Object> leader = start("network", failure);
+        awaitCalls(1);
+        Future<Object> follower = start("network", new Object());
+        awaitCoalesced(1);
+        release.countDown();
+        for (Future<Object> future : new Future[] { leader, follower }) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, calls.get());
+    }
+
+    /* Test method to check calls for other keys and calls after forget are not shared */
+    @Test
+    public void testDistinctKeysAndForget() throws Exception {
+        start("network", new Object());
+        awaitCalls(1);
+        start("port", new Object());
+        awaitCalls(2);
+        singleFlight.forget("network");
+        start("network", new Object());
+        awaitCalls(3);
+        assertEquals(0, metrics.get("lookup.coalesced"));
+    }
+
+    /* Test method to check completed calls are not cached */
+    @Test
+    public void testNoCaching() throws Exception {
+        release.countDown();
+        Object first = start("network", new Object()).get(5, TimeUnit.SECONDS);
+        Object second = start("network", new Object()).get(5, TimeUnit.SECONDS);
+        assertTrue(first != second);
+        assertEquals(2, calls.get());
+    }
+}
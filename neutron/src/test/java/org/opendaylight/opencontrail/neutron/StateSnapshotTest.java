@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Test Class for StateSnapshot.
+ */
+public class StateSnapshotTest {
+    File directory;
+    File file;
+    ContrailStandIn standIn;
+    ContrailMetrics metrics;
+    ContrailBackend backend;
+    InstanceIpIndex instanceIpIndex;
+    StateSnapshot snapshot;
+
+    @Before
+    public void beforeTest() throws Exception {
+        directory = Files.createTempDirectory("snapshot").toFile();
+        file = new File(directory, "state.snapshot");
+        standIn = new ContrailStandIn();
+        metrics = new ContrailMetrics();
+        backend = new ContrailBackend(newClient());
+        instanceIpIndex = new InstanceIpIndex();
+        snapshot = new StateSnapshot(file, backend, instanceIpIndex, metrics, 16, 1000);
+    }
+
+    @After
+    public void afterTest() {
+        standIn.stop();
+        for (File snapshotFile : directory.listFiles()) {
+            snapshotFile.delete();
+        }
+        directory.delete();
+    }
+
+    /* Test method to check the filters and instance IPs saved are restored */
+    @Test
+    public void testRestore() throws Exception {
+        backend.get().seed(VirtualNetwork.class, 16);
+        VirtualNetwork network = new VirtualNetwork();
+        network.setName("network");
+        network.setUuid(UUID.randomUUID().toString());
+        backend.get().create(network);
+        Map<String, String> addresses = new HashMap<String, String>();
+        addresses.put(UUID.randomUUID().toString(), "10.0.0.5");
+        addresses.put("instance-ip", "2001:db8::5");
+        instanceIpIndex.load(network.getUuid(), addresses);
+        snapshot.save();
+
+        ContrailClient client = newClient();
+        InstanceIpIndex restoredIndex = new InstanceIpIndex();
+        assertTrue(new StateSnapshot(file, backend, restoredIndex, metrics, 16, 1000).restore(client));
+        assertEquals(addresses, restoredIndex.addresses(network.getUuid()));
+        assertTrue(client.seededFilters().containsKey(VirtualNetwork.class));
+        long requests = standIn.getRequestCount();
+        assertNull(client.findDuplicate(VirtualNetwork.class, UUID.randomUUID().toString()));
+        assertEquals(requests, standIn.getRequestCount());
+    }
+
+    /* Test method to check a missing or corrupt snapshot restores nothing */
+    @Test
+    public void testRestoreUnusable() throws Exception {
+        ContrailClient client = newClient();
+        assertFalse(snapshot.restore(client));
+        instanceIpIndex.load("network-1", Collections.singletonMap("instance-ip", "10.0.0.5"));
+        snapshot.save();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+        InstanceIpIndex restoredIndex = new InstanceIpIndex();
+        assertFalse(new StateSnapshot(file, backend, restoredIndex, metrics, 16, 1000).restore(client));
+        assertFalse(restoredIndex.isLoaded("network-1"));
+    }
+
+    /* Test method to check restored instance IPs are brought up to date with Contrail */
+    @Test
+    public void testValidate() throws Exception {
+        JsonObject network = ContrailStandIn.object(null, "default-domain", "default-project", "network");
+        String networkUuid = standIn.store("virtual-network", network);
+        JsonObject instanceIp = ContrailStandIn.object(null, "instance-ip-1");
+        instanceIp.addProperty("instance_ip_address", "10.0.0.5");
+        JsonObject ref = new JsonObject();
+        ref.add("to", network.get("fq_name"));
+        ref.addProperty("uuid", networkUuid);
+        JsonArray refs = new JsonArray();
+        refs.add(ref);
+        instanceIp.add("virtual_network_refs", refs);
+        String added = standIn.store("instance-ip", instanceIp);
+        // the snapshot still has an instance IP deleted since, and not the one created since
+        instanceIpIndex.load(networkUuid, Collections.singletonMap(UUID.randomUUID().toString(), "10.0.0.6"));
+        instanceIpIndex.load("network-deleted", Collections.singletonMap("instance-ip", "10.0.0.7"));
+        backend.get().seed(VirtualNetwork.class, 16);
+        snapshot.save();
+
+        ContrailClient client = newClient();
+        InstanceIpIndex restoredIndex = new InstanceIpIndex();
+        StateSnapshot restored = new StateSnapshot(file, new ContrailBackend(client), restoredIndex, metrics, 16, 1000);
+        assertTrue(restored.restore(client));
+        ExistenceFilter filter = client.seededFilters().get(VirtualNetwork.class);
+        restored.validate();
+        assertEquals(Collections.singletonMap(added, "10.0.0.5"), restoredIndex.addresses(networkUuid));
+        assertFalse(restoredIndex.isLoaded("network-deleted"));
+        assertFalse(filter == client.seededFilters().get(VirtualNetwork.class));
+        assertEquals(2, metrics.get("snapshot.validated.networks"));
+    }
+
+    private ContrailClient newClient() {
+        return Activator.newContrailClient(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+    }
+}
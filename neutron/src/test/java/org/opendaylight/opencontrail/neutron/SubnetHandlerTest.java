@@ -13,10 +13,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import net.juniper.contrail.api.ApiConnector;
 import net.juniper.contrail.api.ObjectReference;
@@ -38,7 +40,7 @@ public class SubnetHandlerTest {
 
     @Before
     public void beforeTest() {
-        subnetHandler = new SubnetHandler();
+        subnetHandler = new SubnetHandler(new ContrailBackend(Activator.newContrailClient(mockedApiConnector)));
         assertNotNull(mockedApiConnector);
         assertNotNull(mockedVirtualNetwork);
     }
@@ -46,7 +48,6 @@ public class SubnetHandlerTest {
     @After
     public void afterTest() {
         subnetHandler = null;
-        Activator.apiConnector = null;
     }
 
     /* dummy params for Neutron Subnet */
@@ -62,14 +63,12 @@ public class SubnetHandlerTest {
     /* Test method to check if neutron subnet is null */
     @Test
     public void testCanCreateSubnetNull() {
-        Activator.apiConnector = mockedApiConnector;
         assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, subnetHandler.canCreateSubnet(null));
     }
 
     /* Test method to check if virtual network is null */
     @Test
     public void testCanCreateSubnetVirtualNetworkNull() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(null);
         assertEquals(HttpURLConnection.HTTP_FORBIDDEN, subnetHandler.canCreateSubnet(neutronSubnet));
@@ -78,7 +77,6 @@ public class SubnetHandlerTest {
     /* Test method to check if subnet can be created with IpamRefs null */
     @Test
     public void testCanCreateSubnet() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         when(mockedVirtualNetwork.getNetworkIpam()).thenReturn(null);
@@ -89,7 +87,6 @@ public class SubnetHandlerTest {
     /* Test method to check if subnet creation returns Internal Server Error */
     @Test
     public void testCanCreateSubnetException() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         when(mockedVirtualNetwork.getNetworkIpam()).thenReturn(null);
@@ -100,7 +97,6 @@ public class SubnetHandlerTest {
     /* Test method to check if subnet already exists */
     @Test
     public void testCanCreateSubnetExists() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         VnSubnetsType vnSubnetType = new VnSubnetsType();
@@ -127,7 +123,6 @@ public class SubnetHandlerTest {
     /* Test method to check if subnet already exists, with null CIDR */
     @Test
     public void testCanCreateSubnetExistsWithCIDRNull() throws IOException {
-        Activator.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = new NeutronSubnet();
         neutronSubnet.setNetworkUUID("6b9570f2-17b1-4fc399ec-1b7f7778a29b");
         neutronSubnet.setSubnetUUID("7b9570f2-17b1-4fc399ec-1b7f7778a29b");
@@ -156,7 +151,6 @@ public class SubnetHandlerTest {
     /* Test method to check ipPrefix */
     @Test
     public void testGetIpPrefix() {
-        SubnetHandler.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         String cidr = "10.0.0.1/24";
         String[] ipPrefix = cidr.split("/");
@@ -166,7 +160,6 @@ public class SubnetHandlerTest {
     /* Test method to check if ipPrefix is null */
     @Test(expected = NullPointerException.class)
     public void testGetIpPrefixNull() {
-        SubnetHandler.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = new NeutronSubnet();
         neutronSubnet.setNetworkUUID("6b9570f2-17b1-4fc399ec-1b7f7778a29b");
         neutronSubnet.setSubnetUUID("7b9570f2-17b1-4fc399ec-1b7f7778a29b");
@@ -176,7 +169,6 @@ public class SubnetHandlerTest {
     /* Test method to check if ipPrefix is valid */
     @Test(expected = IllegalArgumentException.class)
     public void testGetIpPrefixInvalid() {
-        SubnetHandler.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = new NeutronSubnet();
         neutronSubnet.setNetworkUUID("6b9570f2-17b1-4fc399ec-1b7f7778a29b");
         neutronSubnet.setSubnetUUID("7b9570f2-17b1-4fc399ec-1b7f7778a29b");
@@ -187,9 +179,58 @@ public class SubnetHandlerTest {
     /* Test method to check if network is available */
     @Test
     public void testGetNetwork() throws IOException {
-        SubnetHandler.apiConnector = mockedApiConnector;
         NeutronSubnet neutronSubnet = defaultSubnetObject();
         when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
         assertNotNull(subnetHandler.getNetwork(neutronSubnet));
     }
+
+    /* Test method to check if neutron subnet is null for delete */
+    @Test
+    public void testCanDeleteSubnetNull() {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, subnetHandler.canDeleteSubnet(null));
+    }
+
+    /* Test method to check delete of a subnet whose network does not exist */
+    @Test
+    public void testCanDeleteSubnetVirtualNetworkNull() throws IOException {
+        NeutronSubnet neutronSubnet = defaultSubnetObject();
+        when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(null);
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN, subnetHandler.canDeleteSubnet(neutronSubnet));
+    }
+
+    /* Test method to check a subnet with instance IPs left in it is not deleted */
+    @Test
+    public void testCanDeleteSubnetInUse() throws IOException {
+        InstanceIpIndex instanceIpIndex = new InstanceIpIndex();
+        subnetHandler = new SubnetHandler(new ContrailBackend(Activator.newContrailClient(mockedApiConnector)),
+                new SubnetMetadataCache(), instanceIpIndex, new ChangeDetector(16, new ContrailMetrics()));
+        NeutronSubnet neutronSubnet = defaultSubnetObject();
+        instanceIpIndex.load(neutronSubnet.getNetworkUUID(), Collections.singletonMap("ip-1", "10.0.0.5"));
+        when(mockedApiConnector.findById(VirtualNetwork.class, neutronSubnet.getNetworkUUID())).thenReturn(mockedVirtualNetwork);
+        assertEquals(HttpURLConnection.HTTP_CONFLICT, subnetHandler.canDeleteSubnet(neutronSubnet));
+    }
+
+    /* Test method to check if neutron subnets are null for update */
+    @Test
+    public void testCanUpdateSubnetNull() {
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, subnetHandler.canUpdateSubnet(null, null));
+    }
+
+    /* Test method to check the CIDR of a subnet can't be changed */
+    @Test
+    public void testCanUpdateSubnetCidr() {
+        NeutronSubnet delta = new NeutronSubnet();
+        delta.setCidr("10.0.1.0/24");
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, subnetHandler.canUpdateSubnet(delta, defaultSubnetObject()));
+    }
+
+    /* Test method to check an update changing nothing in Contrail makes no call */
+    @Test
+    public void testCanUpdateSubnetUnchanged() {
+        NeutronSubnet neutronSubnet = defaultSubnetObject();
+        NeutronSubnet delta = new NeutronSubnet();
+        delta.setGatewayIP(neutronSubnet.getGatewayIP());
+        assertEquals(HttpURLConnection.HTTP_OK, subnetHandler.canUpdateSubnet(delta, neutronSubnet));
+        verifyZeroInteractions(mockedApiConnector);
+    }
 }
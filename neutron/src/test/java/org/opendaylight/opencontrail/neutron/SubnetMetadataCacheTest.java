@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.controller.networkconfig.neutron.INeutronSubnetCRUD;
+import org.opendaylight.controller.networkconfig.neutron.NeutronSubnet;
+
+/**
+ * Test Class for SubnetMetadataCache.
+ */
+public class SubnetMetadataCacheTest {
+    SubnetMetadataCache cache;
+    AtomicInteger lookups;
+    INeutronSubnetCRUD crud;
+
+    @Before
+    public void beforeTest() {
+        cache = new SubnetMetadataCache();
+        lookups = new AtomicInteger();
+        final NeutronSubnet subnet = new NeutronSubnet();
+        subnet.setSubnetUUID("subnet-1");
+        subnet.setNetworkUUID("network-1");
+        subnet.setCidr("10.0.0.0/24");
+        subnet.setGatewayIP("10.0.0.1");
+        crud = (INeutronSubnetCRUD) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { INeutronSubnetCRUD.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getSubnet".equals(method.getName())) {
+                            lookups.incrementAndGet();
+                            return "subnet-1".equals(args[0]) ? subnet : null;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /* Test method to check a subnet is read from the CRUD service only once */
+    @Test
+    public void testLookupCached() {
+        assertEquals("network-1", cache.get("subnet-1", crud).getNetworkUuid());
+        assertEquals("10.0.0.0/24", cache.get("subnet-1", crud).getCidr());
+        assertEquals("10.0.0.1", cache.get("subnet-1", null).getGatewayIp());
+        assertEquals(1, lookups.get());
+    }
+
+    /* Test method to check an unknown subnet is not cached */
+    @Test
+    public void testUnknownSubnet() {
+        assertNull(cache.get("subnet-2", crud));
+        assertNull(cache.get("subnet-2", crud));
+        assertNull(cache.get("subnet-1", null));
+        assertEquals(2, lookups.get());
+        assertEquals(0, cache.size());
+    }
+
+    /* Test method to check an invalidated subnet is read again */
+    @Test
+    public void testInvalidate() {
+        cache.get("subnet-1", crud);
+        cache.invalidate("subnet-1");
+        cache.get("subnet-1", crud);
+        cache.clear();
+        cache.get("subnet-1", crud);
+        assertEquals(3, lookups.get());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Benchmark of the heap taken per entry by a {@link UuidMap} against a
+ * {@code HashMap<String, ...>}, with every entry sharing one value so that
+ * only the keys and the map itself are measured.
+ *
+ * Run with
+ * {@code java org.opendaylight.opencontrail.neutron.UuidMapBenchmark [entries]}.
+ */
+public class UuidMapBenchmark {
+    static final Object VALUE = new Object();
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        // build each map twice, the first time to warm up
+        for (int round = 0; round < 2; round++) {
+            long hashMapBytes = hashMap(entries);
+            long uuidMapBytes = uuidMap(entries);
+            if (round == 1) {
+                System.out.printf("%d entries%n", entries);
+                System.out.printf("  %-24s %6d bytes/entry%n", "HashMap<String, V>", hashMapBytes / entries);
+                System.out.printf("  %-24s %6d bytes/entry%n", "UuidMap<V>", uuidMapBytes / entries);
+            }
+        }
+    }
+
+    static long hashMap(int entries) {
+        long before = usedHeap();
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < entries; i++) {
+            map.put(UUID.randomUUID().toString(), VALUE);
+        }
+        long bytes = usedHeap() - before;
+        if (map.size() != entries) {
+            throw new IllegalStateException();
+        }
+        return bytes;
+    }
+
+    static long uuidMap(int entries) {
+        long before = usedHeap();
+        UuidMap<Object> map = new UuidMap<Object>();
+        for (int i = 0; i < entries; i++) {
+            map.put(UUID.randomUUID().toString(), VALUE);
+        }
+        long bytes = usedHeap() - before;
+        if (map.size() != entries) {
+            throw new IllegalStateException();
+        }
+        return bytes;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test Class for UuidMap.
+ */
+public class UuidMapTest {
+    UuidMap<String> map;
+
+    @Before
+    public void beforeTest() {
+        map = new UuidMap<String>();
+    }
+
+    /* Test method to check UUIDs are read as two longs and written back unchanged */
+    @Test
+    public void testUuids() {
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            String s = uuid.toString();
+            assertTrue(Uuids.isCanonical(s));
+            assertEquals(uuid.getMostSignificantBits(), Uuids.mostSignificantBits(s));
+            assertEquals(uuid.getLeastSignificantBits(), Uuids.leastSignificantBits(s));
+            assertEquals(s, Uuids.toString(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        }
+        assertFalse(Uuids.isCanonical("123E4567-E89B-12D3-A456-426614174000"));
+        assertFalse(Uuids.isCanonical("network-1"));
+        assertFalse(Uuids.isCanonical(null));
+        assertEquals("123e4567-e89b-12d3-a456-426614174000", Uuids.canonical("123E4567-E89B-12D3-A456-426614174000"));
+        assertEquals("123e4567-e89b-12d3-a456-426614174000",
+                Uuids.canonicalIfUuid("123E4567-E89B-12D3-A456-426614174000"));
+        assertEquals("network-1", Uuids.canonicalIfUuid("network-1"));
+    }
+
+    /* Test method to check UUID and other keys are both held */
+    @Test
+    public void testPutGetRemove() {
+        String uuid = UUID.randomUUID().toString();
+        assertNull(map.put(uuid, "a"));
+        assertNull(map.put("network-1", "b"));
+        assertEquals("a", map.put(uuid, "c"));
+        assertEquals("c", map.get(uuid));
+        assertEquals("b", map.get("network-1"));
+        assertEquals(2, map.size());
+        assertEquals(new HashSet<String>(map.keys()), new HashSet<String>(Arrays.asList(uuid, "network-1")));
+        assertFalse(map.remove(uuid, "a"));
+        assertTrue(map.remove(uuid, "c"));
+        assertNull(map.get(uuid));
+        assertEquals("b", map.remove("network-1"));
+        assertEquals(0, map.size());
+    }
+
+    /* Test method to check the map agrees with a HashMap through growth and removals */
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(7);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            // time based UUIDs share most of their bits
+            keys.add(new UUID(0x1000L + random.nextInt(64), random.nextInt(64)).toString());
+        }
+        Map<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = Integer.toString(i);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (String key : keys) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(keys.get(0)));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+
+import org.opendaylight.controller.networkconfig.neutron.NeutronPort;
+import org.opendaylight.controller.networkconfig.neutron.Neutron_IPs;
+
+/**
+ * Port creations started all at once, run on a pool of platform threads
+ * against a virtual thread each.
+ *
+ * Every port has two fixed IPs, in networks of 50 ports each, and every
+ * request to the local Contrail stand-in is answered after a fixed latency.
+ * In the platform mode the creations share a fixed pool of platform threads,
+ * as the requests of a servlet container do, and the instance IPs of a port
+ * are created one by one on its thread. In the virtual mode every creation
+ * runs on a virtual thread of its own, and so does every instance IP
+ * creation. Both modes share the same number of connections to the
+ * stand-in, and neither the limiter nor the fair scheduler turn creations
+ * away, so that only the threads waiting for Contrail differ.
+ *
+ * Needs a JDK with virtual threads (21 or later). Run with
+ * {@code java org.opendaylight.opencontrail.neutron.VirtualThreadBenchmark [operations,...] [latencyMillis] [platformThreads] [connections]}.
+ */
+public class VirtualThreadBenchmark {
+    static final int PORTS_PER_NETWORK = 50;
+
+    public static void main(String[] args) throws Exception {
+        List<String> operationCounts = Arrays.asList((args.length > 0 ? args[0] : "1000,10000").split(","));
+        int latencyMillis = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int platformThreads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        if (!VirtualThreads.isAvailable()) {
+            throw new IllegalStateException("This JDK has no virtual threads");
+        }
+        // read by the Activator the handlers schedule their operations through
+        System.setProperty("opencontrail.scheduler.slots", "1000000");
+        // warm up both modes before measuring
+        run(false, 500, latencyMillis, platformThreads, connections);
+        run(true, 500, latencyMillis, platformThreads, connections);
+        for (String operationCount : operationCounts) {
+            int operations = Integer.parseInt(operationCount);
+            run(false, operations, latencyMillis, platformThreads, connections);
+            run(true, operations, latencyMillis, platformThreads, connections);
+        }
+    }
+
+    static void run(boolean virtual, int operations, int latencyMillis, int platformThreads, int connections)
+            throws Exception {
+        ContrailStandIn standIn = new ContrailStandIn();
+        try {
+            run(standIn, virtual, operations, latencyMillis, platformThreads, connections);
+        } finally {
+            standIn.stop();
+        }
+    }
+
+    static void run(ContrailStandIn standIn, boolean virtual, int operations, int latencyMillis, int platformThreads,
+            int connections) throws Exception {
+        final List<String> networkUuids = new ArrayList<String>();
+        for (int i = 0; i < (operations + PORTS_PER_NETWORK - 1) / PORTS_PER_NETWORK; i++) {
+            networkUuids.add(standIn.store("virtual-network",
+                    ContrailStandIn.object(null, "default-domain", "default-project", "network-" + i)));
+        }
+        standIn.setLatency(latencyMillis, 0, TimeUnit.MILLISECONDS);
+        ContrailMetrics metrics = new ContrailMetrics();
+        List<ApiConnector> connectors = new ArrayList<ApiConnector>();
+        for (int i = 0; i < connections; i++) {
+            connectors.add(ApiConnectorFactory.build("127.0.0.1", standIn.getPort()));
+        }
+        ConnectorPool pool = new ConnectorPool("benchmark", connectors, new AdaptiveConcurrencyLimiter("benchmark",
+                2 * operations, 2 * operations, 2 * operations, metrics), Long.MAX_VALUE, metrics);
+        ExecutorService callExecutor = virtual ? VirtualThreads.newThreadPerTaskExecutor("benchmark-call-") : null;
+        ExecutorService operationExecutor = virtual ? VirtualThreads.newThreadPerTaskExecutor("benchmark-op-")
+                : Executors.newFixedThreadPool(platformThreads);
+        final PortHandler handler = new PortHandler(new ContrailBackend(new ContrailClient(pool, pool, null, null,
+                null, null, callExecutor, metrics)));
+        final long[] latencies = new long[operations];
+        final AtomicInteger failures = new AtomicInteger();
+        long requests = standIn.getRequestCount();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<Future<?>>(operations);
+        for (int i = 0; i < operations; i++) {
+            final int index = i;
+            futures.add(operationExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    NeutronPort port = port(networkUuids.get(index / PORTS_PER_NETWORK), index);
+                    if (handler.createPort(port) != HttpURLConnection.HTTP_OK) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[index] = System.nanoTime() - start;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        operationExecutor.shutdown();
+        if (callExecutor != null) {
+            callExecutor.shutdown();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %6d operations  %6d ms  %8.0f ops/s  p50 %6d ms  p99 %6d ms  "
+                + "platform threads %5d  requests/op %4.1f  failed %d%n", virtual ? "virtual" : "platform",
+                operations, millis, operations * 1000.0 / Math.max(1, millis), latencies[operations / 2] / 1000000,
+                latencies[operations * 99 / 100] / 1000000, threads.getPeakThreadCount(),
+                (standIn.getRequestCount() - requests) / (double) operations, failures.get());
+    }
+
+    static NeutronPort port(String networkUuid, int index) {
+        NeutronPort port = new NeutronPort();
+        port.setPortUUID(UUID.randomUUID().toString());
+        port.setNetworkUUID(networkUuid);
+        port.setDeviceID(UUID.randomUUID().toString());
+        port.setName("port-" + port.getPortUUID());
+        port.setMacAddress("02:00:00:00:00:01");
+        List<Neutron_IPs> ips = new ArrayList<Neutron_IPs>();
+        for (int j = 0; j < 2; j++) {
+            Neutron_IPs ip = new Neutron_IPs();
+            ip.setIpAddress("10." + j + "." + (index >> 8 & 255) + "." + (index & 255));
+            ips.add(ip);
+        }
+        port.setFixedIPs(ips);
+        return port;
+    }
+}
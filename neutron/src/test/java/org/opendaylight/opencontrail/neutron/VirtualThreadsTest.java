@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Juniper Networks, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ */
+package org.opendaylight.opencontrail.neutron;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.juniper.contrail.api.ApiConnector;
+import net.juniper.contrail.api.ApiConnectorFactory;
+import net.juniper.contrail.api.types.VirtualNetwork;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Test Class for VirtualThreads.
+ */
+public class VirtualThreadsTest {
+
+    /* Test method to check an executor is built exactly when the JDK has virtual threads */
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        if (!VirtualThreads.isAvailable()) {
+            assertNull(executor);
+            return;
+        }
+        assertNotNull(executor);
+        try {
+            String name = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            assertTrue(name.startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* Test method to check the asynchronous calls of the client block the executor given instead of the caller */
+    @Test
+    public void testClientExecutor() throws Exception {
+        ContrailMetrics metrics = new ContrailMetrics();
+        ContrailStandIn standIn = new ContrailStandIn();
+        ExecutorService executor = VirtualThreads.isAvailable() ? VirtualThreads.newThreadPerTaskExecutor("test-")
+                : Executors.newCachedThreadPool();
+        try {
+            standIn.setLatency(200, 0, TimeUnit.MILLISECONDS);
+            ApiConnector connector = ApiConnectorFactory.build("127.0.0.1", standIn.getPort());
+            ConnectorPool pool = new ConnectorPool("threads", Collections.nCopies(4, connector),
+                    new AdaptiveConcurrencyLimiter("threads", 4, 1, 4, metrics), 5000, metrics);
+            ContrailClient client = new ContrailClient(pool, pool, null, null, null, null, executor, metrics);
+            VirtualNetwork network = new VirtualNetwork();
+            network.setName("network-1");
+            network.setUuid(UUID.randomUUID().toString());
+            // the create waits on the stand-in's latency on a thread of the executor
+            ListenableFuture<Boolean> created = client.createAsync(network);
+            assertFalse(created.isDone());
+            assertTrue(ContrailClient.await(created));
+            assertEquals("network-1", ContrailClient.await(client.findByIdAsync(VirtualNetwork.class,
+                    network.getUuid())).getName());
+        } finally {
+            executor.shutdown();
+            standIn.stop();
+        }
+    }
+}